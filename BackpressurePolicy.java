@@ -0,0 +1,7 @@
+// what the asynchronous event dispatcher does when its buffer is full
+// BLOCK waits for room, DROP_OLDEST discards the oldest queued event,
+// COALESCE merges the event into a queued event of the same type (or waits if there is none)
+
+public enum BackpressurePolicy {
+    BLOCK, DROP_OLDEST, COALESCE
+}
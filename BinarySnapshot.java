@@ -0,0 +1,332 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * BinarySnapshot reads and writes customers, communications and tasks in a compact
+ * binary format that is much cheaper to load and save than csv
+ *
+ * File layout:
+ *   magic "CRMS", int version, byte entity kind
+ *   blocks of: int record count, int payload length, payload, long CRC32 of the payload
+ *   end marker: int -1, long total record count
+ * Files are replaced atomically through SnapshotFiles, a torn or damaged file fails
+ * its block checksums or record count when read
+ * Strings are a varint of the UTF-8 byte length + 1 (0 for null) followed by the bytes, enums are
+ * stored as their ordinal and dates as epoch based numbers. A date that is not in
+ * the usual "yyyy-MM-dd HH:mm:ss" or "yyyy-MM-dd" form is kept as text so every
+ * value comes back exactly as it was saved
+ *
+ * Usage: java BinarySnapshot to-binary|to-csv <dataDir>
+ */
+public class BinarySnapshot {
+    private static final int MAGIC = 0x43524D53;  // "CRMS"
+    private static final int VERSION = 1;
+    private static final int BLOCK_RECORDS = 4096;
+
+    // entity kinds
+    public static final byte CUSTOMERS = 1;
+    public static final byte COMMUNICATIONS = 2;
+    public static final byte TASKS = 3;
+
+    private static final CommunicationType[] COMMUNICATION_TYPES = CommunicationType.values();
+    private static final TaskStatus[] TASK_STATUSES = TaskStatus.values();
+
+    private BinarySnapshot() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || !(args[0].equals("to-binary") || args[0].equals("to-csv"))) {
+            System.out.println("Usage: java BinarySnapshot to-binary|to-csv <dataDir>");
+            return;
+        }
+        File dir = new File(args[1]);
+        if (args[0].equals("to-binary")) {
+            writeCustomers(new File(dir, "customers.bin"),
+                           CSVLoader.load(new File(dir, "customers.csv"), Customer::fromCSVArray));
+            writeCommunications(new File(dir, "communications.bin"),
+                                CSVLoader.load(new File(dir, "communications.csv"), Communication::fromCSVArray));
+            writeTasks(new File(dir, "tasks.bin"), CSVLoader.load(new File(dir, "tasks.csv"), Task::fromCSVArray));
+        } else {
+            CSVFormat.writeFile(new File(dir, "customers.csv"), CSVFormat.CUSTOMERS_HEADER,
+                                readCustomers(new File(dir, "customers.bin")), Customer::toCSVArray);
+            CSVFormat.writeFile(new File(dir, "communications.csv"), CSVFormat.COMMUNICATIONS_HEADER,
+                                readCommunications(new File(dir, "communications.bin")), Communication::toCSVArray);
+            CSVFormat.writeFile(new File(dir, "tasks.csv"), CSVFormat.TASKS_HEADER,
+                                readTasks(new File(dir, "tasks.bin")), Task::toCSVArray);
+        }
+        System.out.println("Converted " + dir + " " + args[0]);
+    }
+
+    // Customers
+
+    public static void writeCustomers(File file, Collection<Customer> customers) throws IOException {
+        writeCustomers(file, customers, false);
+    }
+
+    public static void writeCustomers(File file, Collection<Customer> customers,
+                                      boolean syncDirectory) throws IOException {
+        write(file, CUSTOMERS, customers, syncDirectory, (out, c) -> {
+            out.string(c.getId());
+            out.string(c.getName());
+            out.string(c.getEmail());
+            out.string(c.getPhone());
+            out.string(c.getCompany());
+            out.string(c.getNotes());
+            out.date(c.getCreatedDateValue());
+        });
+    }
+
+    public static List<Customer> readCustomers(File file) throws IOException {
+        return read(file, CUSTOMERS, in -> new Customer(in.string(), in.string(), in.string(), in.string(),
+                                                        in.string(), in.string(), in.date()));
+    }
+
+    // Communications
+
+    public static void writeCommunications(File file, Collection<Communication> communications) throws IOException {
+        writeCommunications(file, communications, false);
+    }
+
+    public static void writeCommunications(File file, Collection<Communication> communications,
+                                           boolean syncDirectory) throws IOException {
+        write(file, COMMUNICATIONS, communications, syncDirectory, (out, c) -> {
+            out.string(c.getId());
+            out.string(c.getCustomerId());
+            out.byteValue(c.getType().ordinal());
+            out.date(c.getDateValue());
+            out.string(c.getSubject());
+            out.string(c.getNotes());
+            out.string(c.getTags());
+        });
+    }
+
+    public static List<Communication> readCommunications(File file) throws IOException {
+        return read(file, COMMUNICATIONS, in -> new Communication(in.string(), in.string(),
+                                                                  COMMUNICATION_TYPES[in.buffer.get()],
+                                                                  in.date(), in.string(), in.string(), in.string()));
+    }
+
+    // Tasks
+
+    public static void writeTasks(File file, Collection<Task> tasks) throws IOException {
+        writeTasks(file, tasks, false);
+    }
+
+    public static void writeTasks(File file, Collection<Task> tasks, boolean syncDirectory) throws IOException {
+        write(file, TASKS, tasks, syncDirectory, (out, t) -> {
+            out.string(t.getId());
+            out.string(t.getCustomerId());
+            out.string(t.getTitle());
+            out.string(t.getDescription());
+            out.date(t.getDueDateValue());
+            out.byteValue(t.getStatus().ordinal());
+            out.date(t.getCreatedDateValue());
+            out.string(t.getAssignedTo());
+        });
+    }
+
+    public static List<Task> readTasks(File file) throws IOException {
+        return read(file, TASKS, in -> new Task(in.string(), in.string(), in.string(), in.string(), in.date(),
+                                                TASK_STATUSES[in.buffer.get()], in.date(), in.string()));
+    }
+
+    // Block writing and reading
+
+    // the file is replaced atomically through SnapshotFiles, syncDirectory also fsyncs the rename
+    private static <T> void write(File file, byte kind, Collection<T> records, boolean syncDirectory,
+                                  BiConsumer<Encoder, T> encode) throws IOException {
+        SnapshotFiles.replace(file, syncDirectory, stream -> {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeByte(kind);
+            Encoder encoder = new Encoder();
+            CRC32 crc = new CRC32();
+            int inBlock = 0;
+            long total = 0;
+            for (T record : records) {
+                encode.accept(encoder, record);
+                inBlock++;
+                total++;
+                if (inBlock == BLOCK_RECORDS) {
+                    writeBlock(out, encoder, crc, inBlock);
+                    inBlock = 0;
+                }
+            }
+            if (inBlock > 0) {
+                writeBlock(out, encoder, crc, inBlock);
+            }
+            out.writeInt(-1);
+            out.writeLong(total);
+            out.flush();
+        });
+    }
+
+    private static void writeBlock(DataOutputStream out, Encoder encoder, CRC32 crc, int records) throws IOException {
+        ByteBuffer buffer = encoder.buffer;
+        int length = buffer.position();
+        crc.reset();
+        crc.update(buffer.array(), 0, length);
+        out.writeInt(records);
+        out.writeInt(length);
+        out.write(buffer.array(), 0, length);
+        out.writeLong(crc.getValue());
+        buffer.clear();
+    }
+
+    private static <T> List<T> read(File file, byte kind, Function<Decoder, T> decode) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a CRM snapshot");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(file + " has unsupported snapshot version " + version);
+            }
+            if (in.readByte() != kind) {
+                throw new IOException(file + " holds a different entity type");
+            }
+            List<T> result = new ArrayList<>();
+            CRC32 crc = new CRC32();
+            byte[] payload = new byte[1 << 16];
+            while (true) {
+                int records = in.readInt();
+                if (records < 0) {
+                    long total = in.readLong();
+                    if (total != result.size()) {
+                        throw new IOException(file + " should hold " + total + " records but has " + result.size());
+                    }
+                    return result;
+                }
+                int length = in.readInt();
+                if (length > payload.length) {
+                    payload = new byte[length];
+                }
+                in.readFully(payload, 0, length);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if (crc.getValue() != in.readLong()) {
+                    throw new IOException(file + " is corrupt, block checksum mismatch");
+                }
+                Decoder decoder = new Decoder(ByteBuffer.wrap(payload, 0, length));
+                for (int i = 0; i < records; i++) {
+                    result.add(decode.apply(decoder));
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException(file + " is truncated");
+        }
+    }
+
+    // appends fields to a growing block buffer
+    private static class Encoder {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+        void string(String value) {
+            if (value == null) {
+                ensure(1);
+                varint(0);
+                return;
+            }
+            int length = value.length();
+            ensure(5 + length);
+            int start = buffer.position();
+            varint(length + 1);
+            // ascii only strings, the usual case, are copied without an intermediate byte array
+            byte[] array = buffer.array();
+            int position = buffer.position();
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c >= 0x80) {
+                    buffer.position(start);
+                    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                    ensure(5 + bytes.length);
+                    varint(bytes.length + 1);
+                    buffer.put(bytes);
+                    return;
+                }
+                array[position + i] = (byte) c;
+            }
+            buffer.position(position + length);
+        }
+
+        // a single byte, the ordinal of a type or status
+        void byteValue(int value) {
+            ensure(1);
+            buffer.put((byte) value);
+        }
+
+        void varint(int value) {
+            while ((value & ~0x7F) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        // the CRMDate kind followed by its number, or by the text if it is not a valid date
+        void date(CRMDate value) {
+            ensure(9);
+            if (value != null && value.isValid()) {
+                buffer.put(value.getKind());
+                buffer.putLong(value.getValue());
+            } else {
+                buffer.put(CRMDate.TEXT);
+                string(value != null ? value.toString() : null);
+            }
+        }
+
+        // make room for more bytes, the buffer doubles when needed
+        void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                buffer.flip();
+                bigger.put(buffer);
+                buffer = bigger;
+            }
+        }
+    }
+
+    // reads fields from one block
+    private static class Decoder {
+        final ByteBuffer buffer;
+
+        Decoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        String string() {
+            int length = varint() - 1;
+            if (length < 0) {
+                return null;
+            }
+            String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+
+        CRMDate date() {
+            byte kind = buffer.get();
+            if (kind == CRMDate.TEXT) {
+                return CRMDate.parse(string());
+            }
+            return CRMDate.of(kind, buffer.getLong());
+        }
+
+        int varint() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buffer.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
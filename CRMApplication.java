@@ -1,4 +1,8 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 // Main CRM Application class providing command-line interface
 // start of the Customer Relations Manager system
@@ -6,9 +10,35 @@ import java.util.*;
 public class CRMApplication {
     private static Scanner scanner = new Scanner(System.in);
     private static CRMSystem crm = CRMSystem.getInstance();
+    // rows per page in the customer, communication and task listings
+    private static final int PAGE_SIZE = Integer.getInteger("crm.console.pageSize", 20);
     
     // start of the Customer Relations Manager system
+    // "--import file.csv ..." imports the files and exits instead of showing the menu,
+    // "--run command ..." and "--script file" run commands through CommandRunner,
+    // "--serve [port]" serves the JSON API of CRMHttpServer until the process is stopped,
+    // "--partition N" moves the data files to N partitions per entity (1 for single files) and exits
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--import")) {
+            boolean ok = importFiles(Arrays.copyOfRange(args, 1, args.length));
+            crm.shutdown();
+            System.exit(ok ? 0 : 1);
+        }
+        if (args.length > 0 && (args[0].equals("--run") || args[0].equals("--script"))) {
+            boolean ok = CommandRunner.runFromArgs(crm, args[0], Arrays.copyOfRange(args, 1, args.length));
+            crm.shutdown();
+            System.exit(ok ? 0 : 1);
+        }
+        if (args.length > 0 && args[0].equals("--partition")) {
+            boolean ok = partitionData(args.length > 1 ? args[1] : null);
+            crm.shutdown();
+            System.exit(ok ? 0 : 1);
+        }
+        if (args.length > 0 && args[0].equals("--serve")) {
+            serve(args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+            return;
+        }
+        
         System.out.println("Welcome to Customer Relations Manager (CRM) System");
         System.out.println("===================================================");
         
@@ -32,6 +62,7 @@ public class CRMApplication {
                 case 5:
                     System.out.println("Thank you for using CRM System. Goodbye!");
                     crm.setSessionActive(false);
+                    crm.shutdown();
                     break;
                 default:
                     System.out.println("Invalid choice. Please try again.");
@@ -115,15 +146,12 @@ public class CRMApplication {
     //View all customers
     private static void viewAllCustomers() {
         System.out.println("\n--- All Customers ---");
-        List<Customer> customers = crm.getAllCustomers();
+        int shown = printPages(cursor -> crm.getCustomersPage(cursor, PAGE_SIZE), (out, customer) ->
+            out.format("ID: %s | Name: %s | Email: %s | Company: %s\n",
+                       customer.getId(), customer.getName(), customer.getEmail(), customer.getCompany()));
         
-        if (customers.isEmpty()) {
+        if (shown == 0) {
             System.out.println("No customers found.");
-        } else {
-            for (Customer customer : customers) {
-                System.out.printf("ID: %s | Name: %s | Email: %s | Company: %s\n",
-                                customer.getId(), customer.getName(), customer.getEmail(), customer.getCompany());
-            }
         }
     }
     
@@ -148,19 +176,15 @@ public class CRMApplication {
         System.out.printf("Created: %s\n", customer.getCreatedDate());
         
         // Show communications
-        List<Communication> communications = crm.getCommunicationsByCustomer(customerId);
-        System.out.printf("\nCommunications (%d):\n", communications.size());
-        for (Communication comm : communications) {
-            System.out.printf("  - %s | %s | %s\n", comm.getDate(), comm.getType(), comm.getSubject());
-        }
+        System.out.printf("\nCommunications (%d):\n", crm.getCommunicationCount(customerId));
+        printPages(cursor -> crm.getCommunicationsByCustomerPage(customerId, cursor, PAGE_SIZE), (out, comm) ->
+            out.format("  - %s | %s | %s\n", comm.getDate(), comm.getType(), comm.getSubject()));
         
         // Show tasks
-        List<Task> tasks = crm.getTasksByCustomer(customerId);
-        System.out.printf("Tasks (%d):\n", tasks.size());
-        for (Task task : tasks) {
-            System.out.printf("  - %s | %s | %s | Due: %s\n", 
-                            task.getTitle(), task.getStatus(), task.getAssignedTo(), task.getDueDate());
-        }
+        System.out.printf("Tasks (%d):\n", crm.getTaskCount(customerId));
+        printPages(cursor -> crm.getTasksByCustomerPage(customerId, cursor, PAGE_SIZE), (out, task) ->
+            out.format("  - %s | %s | %s | Due: %s\n",
+                       task.getTitle(), task.getStatus(), task.getAssignedTo(), task.getDueDate()));
     }
     
     //Communication management submenu
@@ -239,21 +263,21 @@ public class CRMApplication {
             return;
         }
         
-        List<Communication> communications = crm.getCommunicationsByCustomer(customerId);
+        int total = crm.getCommunicationCount(customerId);
         
-        System.out.printf("\nCommunications for %s (%d total):\n", customer.getName(), communications.size());
-        if (communications.isEmpty()) {
+        System.out.printf("\nCommunications for %s (%d total):\n", customer.getName(), total);
+        if (total == 0) {
             System.out.println("No communications found.");
         } else {
-            for (Communication comm : communications) {
-                System.out.printf("\nID: %s\n", comm.getId());
-                System.out.printf("Type: %s\n", comm.getType());
-                System.out.printf("Date: %s\n", comm.getDate());
-                System.out.printf("Subject: %s\n", comm.getSubject());
-                System.out.printf("Notes: %s\n", comm.getNotes());
-                System.out.printf("Tags: %s\n", comm.getTags());
-                System.out.println("---");
-            }
+            printPages(cursor -> crm.getCommunicationsByCustomerPage(customerId, cursor, PAGE_SIZE), (out, comm) -> {
+                out.format("\nID: %s\n", comm.getId());
+                out.format("Type: %s\n", comm.getType());
+                out.format("Date: %s\n", comm.getDate());
+                out.format("Subject: %s\n", comm.getSubject());
+                out.format("Notes: %s\n", comm.getNotes());
+                out.format("Tags: %s\n", comm.getTags());
+                out.format("---\n");
+            });
         }
     }
     
@@ -324,45 +348,45 @@ public class CRMApplication {
             return;
         }
         
-        List<Task> tasks = crm.getTasksByCustomer(customerId);
+        int total = crm.getTaskCount(customerId);
         
-        System.out.printf("\nTasks for %s (%d total):\n", customer.getName(), tasks.size());
-        if (tasks.isEmpty()) {
+        System.out.printf("\nTasks for %s (%d total):\n", customer.getName(), total);
+        if (total == 0) {
             System.out.println("No tasks found.");
         } else {
-            for (Task task : tasks) {
-                System.out.printf("\nID: %s\n", task.getId());
-                System.out.printf("Title: %s\n", task.getTitle());
-                System.out.printf("Description: %s\n", task.getDescription());
-                System.out.printf("Status: %s\n", task.getStatus());
-                System.out.printf("Due Date: %s\n", task.getDueDate());
-                System.out.printf("Assigned To: %s\n", task.getAssignedTo());
-                System.out.printf("Created: %s\n", task.getCreatedDate());
-                System.out.println("---");
-            }
+            printPages(cursor -> crm.getTasksByCustomerPage(customerId, cursor, PAGE_SIZE), (out, task) -> {
+                out.format("\nID: %s\n", task.getId());
+                out.format("Title: %s\n", task.getTitle());
+                out.format("Description: %s\n", task.getDescription());
+                out.format("Status: %s\n", task.getStatus());
+                out.format("Due Date: %s\n", task.getDueDate());
+                out.format("Assigned To: %s\n", task.getAssignedTo());
+                out.format("Created: %s\n", task.getCreatedDate());
+                out.format("---\n");
+            });
         }
     }
     
     //View all pending tasks
     private static void viewAllPendingTasks() {
         System.out.println("\n--- All Pending Tasks ---");
-        List<Task> pendingTasks = crm.getPendingTasks();
+        long total = crm.getTaskStatusCounts().get(TaskStatus.PENDING);
         
-        if (pendingTasks.isEmpty()) {
+        if (total == 0) {
             System.out.println("No pending tasks found.");
         } else {
-            System.out.printf("Pending Tasks (%d total):\n", pendingTasks.size());
-            for (Task task : pendingTasks) {
+            System.out.printf("Pending Tasks (%d total):\n", total);
+            printPages(cursor -> crm.getPendingTasksPage(cursor, PAGE_SIZE), (out, task) -> {
                 Customer customer = crm.getCustomerById(task.getCustomerId());
                 String customerName = customer != null ? customer.getName() : "Unknown";
                 
-                System.out.printf("\nTask ID: %s\n", task.getId());
-                System.out.printf("Customer: %s\n", customerName);
-                System.out.printf("Title: %s\n", task.getTitle());
-                System.out.printf("Due Date: %s\n", task.getDueDate());
-                System.out.printf("Assigned To: %s\n", task.getAssignedTo());
-                System.out.println("---");
-            }
+                out.format("\nTask ID: %s\n", task.getId());
+                out.format("Customer: %s\n", customerName);
+                out.format("Title: %s\n", task.getTitle());
+                out.format("Due Date: %s\n", task.getDueDate());
+                out.format("Assigned To: %s\n", task.getAssignedTo());
+                out.format("---\n");
+            });
         }
     }
     
@@ -406,7 +430,9 @@ public class CRMApplication {
             System.out.println("1. Customer Activity Report");
             System.out.println("2. Task Completion Report");
             System.out.println("3. Communication Frequency Report");
-            System.out.println("4. Back to Main Menu");
+            System.out.println("4. Persistence Report");
+            System.out.println("5. System Metrics");
+            System.out.println("6. Back to Main Menu");
             
             int choice = getIntInput("Enter your choice: ");
             
@@ -421,6 +447,12 @@ public class CRMApplication {
                     generateCommunicationFrequencyReport();
                     break;
                 case 4:
+                    crm.generatePersistenceReport();
+                    break;
+                case 5:
+                    crm.generateMetricsReport();
+                    break;
+                case 6:
                     return;
                 default:
                     System.out.println("Invalid choice. Please try again.");
@@ -429,42 +461,197 @@ public class CRMApplication {
     }
     
     //Generate communication frequency report
-    private static void generateCommunicationFrequencyReport() {
+    static void generateCommunicationFrequencyReport() {
         System.out.println("\n=== COMMUNICATION FREQUENCY REPORT ===");
         
-        Map<CommunicationType, Integer> typeCount = new HashMap<>();
+        CommunicationFrequencyReport report = crm.generateCommunicationFrequencyReport();
+        
+        System.out.printf("Total Communications: %d\n", report.getTotalCommunications());
+        System.out.println("\nBy Type:");
         for (CommunicationType type : CommunicationType.values()) {
-            typeCount.put(type, 0);
+            System.out.printf("  %s: %d (%.1f%%)\n", type, report.getCount(type), report.getPercentage(type));
         }
         
-        List<Customer> customers = crm.getAllCustomers();
-        int totalComms = 0;
-        
-        for (Customer customer : customers) {
-            List<Communication> comms = crm.getCommunicationsByCustomer(customer.getId());
-            totalComms += comms.size();
-            
-            for (Communication comm : comms) {
-                typeCount.put(comm.getType(), typeCount.get(comm.getType()) + 1);
+        if (report.getCustomerCount() > 0) {
+            System.out.printf("\nAverage Communications per Customer: %.1f\n", report.getAveragePerCustomer());
+            System.out.printf("Per Customer: median %d, 90th percentile %d, 99th percentile %d, max %d\n",
+                              report.getPercentile(50), report.getPercentile(90),
+                              report.getPercentile(99), report.getMaxPerCustomer());
+        }
+    }
+    
+    // HTTP API
+    
+    /**
+     * Serve the JSON API until the process is stopped, the server and the CRM
+     * are shut down cleanly from a shutdown hook
+     * 
+     * @param port The port to listen on
+     */
+    private static void serve(int port) {
+        try {
+            CRMHttpServer server = new CRMHttpServer(crm, port);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                crm.shutdown();
+            }, "crm-http-shutdown"));
+            server.start();
+            System.out.println("CRM HTTP API listening on port " + server.getPort());
+        } catch (IOException e) {
+            System.err.println("Error starting HTTP server: " + e.getMessage());
+            crm.shutdown();
+            System.exit(1);
+        }
+    }
+    
+    // Import Methods
+    
+    /**
+     * Import csv files without the menu, one bulk import per file
+     * The kind of records is taken from the header: a title column means tasks,
+     * a type column communications, otherwise customers. Columns are matched by
+     * name (customer_id, due_date, ...) so the files written by the CRM itself can
+     * be imported too, records keep their id unless it is already in use
+     * 
+     * @param files The csv files, customers should come before their communications and tasks
+     * @return true if every file could be read
+     */
+    static boolean importFiles(String[] files) {
+        if (files.length == 0) {
+            System.out.println("Usage: java CRMApplication --import <file.csv> [<file.csv> ...]");
+            return false;
+        }
+        boolean ok = true;
+        for (String name : files) {
+            File file = new File(name);
+            try {
+                long start = System.nanoTime();
+                String[] header = readHeader(file);
+                List<Map<String, Object>> records = CSVLoader.load(file, parts -> toParams(header, parts));
+                System.out.printf("Read %d records from %s in %d ms\n", records.size(), file.getName(),
+                                  (System.nanoTime() - start) / 1_000_000);
+                
+                List<String> columns = Arrays.asList(header);
+                ImportResult result;
+                if (columns.contains("title")) {
+                    result = crm.importTasks(records);
+                } else if (columns.contains("type")) {
+                    result = crm.importCommunications(records);
+                } else {
+                    result = crm.importCustomers(records);
+                }
+                System.out.println(result);
+                for (String error : result.getErrors()) {
+                    System.out.println("  skipped " + error);
+                }
+                if (result.getSkipped() > result.getErrors().size()) {
+                    System.out.printf("  ... and %d more\n", result.getSkipped() - result.getErrors().size());
+                }
+            } catch (IOException e) {
+                System.err.println("Error importing " + name + ": " + e.getMessage());
+                ok = false;
             }
         }
-        
-        System.out.printf("Total Communications: %d\n", totalComms);
-        System.out.println("\nBy Type:");
-        for (CommunicationType type : CommunicationType.values()) {
-            int count = typeCount.get(type);
-            double percentage = totalComms > 0 ? (double) count / totalComms * 100 : 0;
-            System.out.printf("  %s: %d (%.1f%%)\n", type, count, percentage);
+        return ok;
+    }
+    
+    /**
+     * Move the data files to another number of partitions without the menu
+     * 
+     * @param count The number of partitions as given on the command line, 1 for single files
+     * @return true if the data was moved
+     */
+    static boolean partitionData(String count) {
+        if (count == null) {
+            System.out.println("Usage: java CRMApplication --partition <partitions>");
+            return false;
         }
-        
-        if (customers.size() > 0) {
-            double avgCommsPerCustomer = (double) totalComms / customers.size();
-            System.out.printf("\nAverage Communications per Customer: %.1f\n", avgCommsPerCustomer);
+        try {
+            long start = System.nanoTime();
+            int from = crm.getPartitionCount();
+            File moved = crm.repartition(Integer.parseInt(count.trim()));
+            System.out.printf("Moved data from %d to %d partitions in %d ms, old files are in %s\n", from,
+                              crm.getPartitionCount(), (System.nanoTime() - start) / 1_000_000, moved.getPath());
+            return true;
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number of partitions: " + count);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("Error partitioning data: " + e.getMessage());
+        }
+        return false;
+    }
+    
+    // the column names of a csv file, lower case
+    private static String[] readHeader(File file) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new IOException("file is empty");
+            }
+            String[] header = CSVFormat.parseLine(line);
+            for (int i = 0; i < header.length; i++) {
+                header[i] = header[i].toLowerCase();
+            }
+            return header;
         }
     }
     
+    // turn one csv record into factory parameters, customer_id becomes customerId and so on
+    private static Map<String, Object> toParams(String[] header, String[] parts) {
+        Map<String, Object> params = new HashMap<>();
+        for (int i = 0; i < header.length && i < parts.length; i++) {
+            params.put(paramName(header[i]), parts[i]);
+        }
+        return params;
+    }
+    
+    private static String paramName(String column) {
+        StringBuilder sb = new StringBuilder(column.length());
+        boolean upper = false;
+        for (char c : column.toCharArray()) {
+            if (c == '_') {
+                upper = true;
+            } else {
+                sb.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            }
+        }
+        return sb.toString();
+    }
+    
     // Utility Methods
     
+    /**
+     * Print a listing a page at a time, asking before each further page
+     * A page is formatted into one buffer and written at once rather than a printf per line
+     * 
+     * @param fetch Gets the page for a cursor, null for the first page
+     * @param printer Formats one entity into the page buffer
+     * @return Number of entities printed
+     */
+    private static <T> int printPages(Function<String, Page<T>> fetch, BiConsumer<Formatter, T> printer) {
+        int printed = 0;
+        String cursor = null;
+        while (true) {
+            Page<T> page = fetch.apply(cursor);
+            Formatter out = new Formatter(new StringBuilder());
+            for (T item : page.getItems()) {
+                printer.accept(out, item);
+            }
+            System.out.print(out);
+            System.out.flush();
+            printed += page.getItems().size();
+            if (!page.hasMore()) {
+                return printed;
+            }
+            String answer = getStringInput("-- " + printed + " shown, press Enter for more or q to stop: ");
+            if (answer.equalsIgnoreCase("q")) {
+                return printed;
+            }
+            cursor = page.getNextCursor();
+        }
+    }
+    
     //Get string input from user
     private static String getStringInput(String prompt) {
         System.out.print(prompt);
@@ -0,0 +1,866 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * CRMBenchmark is a command line harness for stress testing and self-checking CRMSystem
+ * It always works on its own data directory (crm.dataDir, a temp directory by default)
+ * so the real crm_data files are never touched
+ *
+ * Usage: java CRMBenchmark <scenario> [options]
+ *   stress [threads] [opsPerThread]   concurrent writers and readers, checks no update was lost
+ *   ids [threads] [idsPerThread]      id generation throughput, checks every id is unique
+ *   snapshot [customers] [communications] [tasks]
+ *                                     checks binary round trips and recovery from a corrupt csv snapshot
+ *   partitions [partitions] [customers] [communications] [tasks]
+ *                                     checks partitioning the data keeps every row in the same order
+ *   http [clients] [seconds] [customers]
+ *                                     load tests the HTTP API, reports requests/sec and latency percentiles
+ *   queries [customers] [communications] [tasks]
+ *                                     checks that queries planned through an index give the rows a scan gives
+ *   memory [communications] [customers]
+ *                                     heap kept by the object and columnar communication stores
+ *
+ * Timings of the hot paths are in the JMH suite under src/jmh, built with mvn -Pjmh package
+ * and run with java -jar target/benchmarks.jar
+ * Run it with -Dcrm.persistence=journal to time journal mode writes, and stress with
+ * -Dcrm.durability=every-write|interval|os to compare the group commit policies,
+ * and with -Dcrm.partitions=N to stress the partitioned storage layout
+ */
+public class CRMBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String scenario = args.length > 0 ? args[0] : "help";
+        switch (scenario) {
+            case "stress":
+                useTempDataDir();
+                int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+                int ops = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+                System.exit(runStress(threads, ops) ? 0 : 1);
+                break;
+            case "ids":
+                int idThreads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+                int idsPerThread = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+                System.exit(runIds(idThreads, idsPerThread) ? 0 : 1);
+                break;
+            case "snapshot":
+                useTempDataDir();
+                runSnapshot(intArg(args, 1, 50_000), intArg(args, 2, 1_000_000), intArg(args, 3, 100_000));
+                break;
+            case "partitions":
+                useTempDataDir();
+                System.exit(runPartitions(intArg(args, 1, 8), intArg(args, 2, 50_000), intArg(args, 3, 1_000_000),
+                                          intArg(args, 4, 100_000)) ? 0 : 1);
+                break;
+            case "http":
+                useTempDataDir();
+                System.exit(runHttp(intArg(args, 1, 16), intArg(args, 2, 10), intArg(args, 3, 5_000)) ? 0 : 1);
+                break;
+            case "memory":
+                System.exit(runMemory(intArg(args, 1, 1_000_000), intArg(args, 2, 50_000)) ? 0 : 1);
+                break;
+            case "queries":
+                useTempDataDir();
+                System.exit(runQueries(intArg(args, 1, 5_000), intArg(args, 2, 100_000), intArg(args, 3, 10_000)) ? 0 : 1);
+                break;
+            default:
+                System.out.println("Usage: java CRMBenchmark <scenario> [options]");
+                System.out.println("  stress [threads] [opsPerThread]");
+                System.out.println("  ids [threads] [idsPerThread]");
+                System.out.println("  snapshot [customers] [communications] [tasks]");
+                System.out.println("  partitions [partitions] [customers] [communications] [tasks]");
+                System.out.println("  http [clients] [seconds] [customers]");
+                System.out.println("  memory [communications] [customers]");
+                System.out.println("  queries [customers] [communications] [tasks]");
+        }
+    }
+
+    private static int intArg(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+
+    /**
+     * Check the csv and binary snapshots of the same data set
+     *
+     * @param customerCount Customers in the data set
+     * @param communicationCount Communications in the data set
+     * @param taskCount Tasks in the data set
+     */
+    private static void runSnapshot(int customerCount, int communicationCount, int taskCount) throws Exception {
+        PrintStream out = System.out;
+        File dir = new File(System.getProperty("crm.dataDir"));
+        out.printf("Generating %d customers, %d communications, %d tasks in %s\n",
+                   customerCount, communicationCount, taskCount, dir);
+        new SyntheticDataGenerator(42).generate(dir, customerCount, communicationCount, taskCount);
+        File customersCsv = new File(dir, "customers.csv"), customersBin = new File(dir, "customers.bin");
+        File commsCsv = new File(dir, "communications.csv"), commsBin = new File(dir, "communications.bin");
+        File tasksCsv = new File(dir, "tasks.csv"), tasksBin = new File(dir, "tasks.bin");
+
+        List<Customer> customers = CSVLoader.load(customersCsv, Customer::fromCSVArray);
+        List<Communication> comms = CSVLoader.load(commsCsv, Communication::fromCSVArray);
+        List<Task> tasks = CSVLoader.load(tasksCsv, Task::fromCSVArray);
+
+        CSVFormat.writeSnapshot(customersCsv, CSVFormat.CUSTOMERS_HEADER, customers, Customer::toCSVArray, false);
+        CSVFormat.writeSnapshot(commsCsv, CSVFormat.COMMUNICATIONS_HEADER, comms, Communication::toCSVArray, false);
+        CSVFormat.writeSnapshot(tasksCsv, CSVFormat.TASKS_HEADER, tasks, Task::toCSVArray, false);
+        BinarySnapshot.writeCustomers(customersBin, customers);
+        BinarySnapshot.writeCommunications(commsBin, comms);
+        BinarySnapshot.writeTasks(tasksBin, tasks);
+        out.printf("Size on disk: csv %.1f MB, binary %.1f MB\n",
+                   (customersCsv.length() + commsCsv.length() + tasksCsv.length()) / 1e6,
+                   (customersBin.length() + commsBin.length() + tasksBin.length()) / 1e6);
+
+        // the binary round trip must give back exactly the csv rows
+        List<Communication> reloaded = BinarySnapshot.readCommunications(commsBin);
+        for (int i = 0; i < comms.size(); i++) {
+            if (!Arrays.equals(comms.get(i).toCSVArray(), reloaded.get(i).toCSVArray())) {
+                out.println("FAIL: binary round trip changed row " + i);
+                return;
+            }
+        }
+        out.println("PASS: binary round trip is exact");
+
+        // a field ending exactly on the 64 KiB block buffer must not overflow the field written after it,
+        // the description (tasks) or customer id (communications) lengths sweep across the boundary
+        File boundaryBin = new File(dir, "boundary.bin");
+        CRMDate due = CRMDate.parse("2024-03-04 09:00:00");
+        for (int length = (1 << 16) - 128; length <= (1 << 16); length++) {
+            String text = "x".repeat(length);
+            Task task = new Task("TASK_1", "CUST_1", "boundary", text, due, TaskStatus.COMPLETED, due, "bob");
+            Communication comm = new Communication("COMM_1", text, CommunicationType.MEETING, due, "boundary", "", "");
+            try {
+                BinarySnapshot.writeTasks(boundaryBin, Collections.singletonList(task));
+                List<Task> tasksBack = BinarySnapshot.readTasks(boundaryBin);
+                BinarySnapshot.writeCommunications(boundaryBin, Collections.singletonList(comm));
+                List<Communication> commsBack = BinarySnapshot.readCommunications(boundaryBin);
+                if (!Arrays.equals(task.toCSVArray(), tasksBack.get(0).toCSVArray())
+                    || !Arrays.equals(comm.toCSVArray(), commsBack.get(0).toCSVArray())) {
+                    out.println("FAIL: binary round trip changed a record of " + length + " characters");
+                    return;
+                }
+            } catch (RuntimeException e) {
+                out.println("FAIL: binary save of a record of " + length + " characters: " + e);
+                return;
+            }
+        }
+        boundaryBin.delete();
+        out.println("PASS: records on the block buffer boundary round trip");
+
+        // a flipped byte must be caught and the previous snapshot loaded instead
+        CSVFormat.writeSnapshot(tasksCsv, CSVFormat.TASKS_HEADER, tasks.subList(0, tasks.size() / 2),
+                                Task::toCSVArray, false);
+        CSVFormat.writeSnapshot(tasksCsv, CSVFormat.TASKS_HEADER, tasks, Task::toCSVArray, false);
+        try (RandomAccessFile raf = new RandomAccessFile(tasksCsv, "rw")) {
+            raf.seek(raf.length() / 2);
+            int b = raf.read();
+            raf.seek(raf.length() / 2);
+            raf.write(b ^ 1);
+        }
+        List<Task> recovered = quietly(() -> SnapshotFiles.load(tasksCsv, f -> CSVLoader.loadSnapshot(f, Task::fromCSVArray)));
+        if (recovered.size() != tasks.size() / 2) {
+            out.println("FAIL: corrupt snapshot gave " + recovered.size() + " tasks instead of the "
+                        + tasks.size() / 2 + " in the previous snapshot");
+            return;
+        }
+        out.println("PASS: corrupt snapshot detected, previous snapshot loaded");
+    }
+
+    /**
+     * Move a single file data set to partitions and reload it from the partition files
+     * Every customer's tasks and communications must come back in the same order, and a
+     * change saved after the move must be in its partition
+     *
+     * @param partitions The number of partitions to move the data to
+     * @param customerCount Customers in the data set
+     * @param communicationCount Communications in the data set
+     * @param taskCount Tasks in the data set
+     * @return true if the partitioned layout gave back the same data
+     */
+    private static boolean runPartitions(int partitions, int customerCount, int communicationCount,
+                                         int taskCount) throws Exception {
+        PrintStream out = System.out;
+        File dir = new File(System.getProperty("crm.dataDir"));
+        out.printf("Generating %d customers, %d communications, %d tasks in %s\n",
+                   customerCount, communicationCount, taskCount, dir);
+        String[] customerIds = new SyntheticDataGenerator(42).generate(dir, customerCount, communicationCount, taskCount);
+        String[] ids = Arrays.copyOf(customerIds, Math.min(customerIds.length, 1000));
+        List<String> problems = new ArrayList<>();
+
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            CRMSystem crm = CRMSystem.getInstance();
+            if (crm.getPartitionCount() != 1) {
+                out.println("FAIL: the data directory is already partitioned, run without -Dcrm.partitions");
+                return false;
+            }
+            String taskId = crm.query(Query.tasks().limit(1)).getItems().get(0).getId();
+            Map<String, List<String>> before = new HashMap<>();
+            for (String id : ids) {
+                before.put(id, rowIds(crm, id));
+            }
+
+            long start = System.nanoTime();
+            crm.repartition(partitions);
+            out.printf("Moved to %d partitions in %.1f ms\n", partitions, (System.nanoTime() - start) / 1e6);
+            // a change saved to its partition must survive a reload from the partition files
+            crm.updateTaskStatus(taskId, TaskStatus.COMPLETED);
+            crm.reloadData();
+            if (crm.getTaskById(taskId).getStatus() != TaskStatus.COMPLETED) {
+                problems.add("the status of " + taskId + " was not saved to its partition");
+            }
+
+            for (String id : ids) {
+                if (!before.get(id).equals(rowIds(crm, id))) {
+                    problems.add("rows of " + id + " changed");
+                    break;
+                }
+            }
+            check(problems, "customers", customerCount, crm.getAllCustomers().size());
+            crm.shutdown();
+        } finally {
+            System.setOut(out);
+        }
+        if (problems.isEmpty()) {
+            out.println("PASS: partition files hold the same rows in the same order");
+            return true;
+        }
+        for (String problem : problems) {
+            out.println("FAIL: " + problem);
+        }
+        return false;
+    }
+
+    /**
+     * Run conditions on sampled customers, communications and tasks twice: as given, where the
+     * planner may take the primary keys, per-customer lists, tag, type, date or customer search
+     * indexes, and with each condition wrapped in an or with itself, which no index takes so
+     * every row is scanned. Both runs must give the same rows, including for ids written in
+     * another case, which an index lookup does not find
+     *
+     * @param customerCount Customers in the data set
+     * @param communicationCount Communications in the data set
+     * @param taskCount Tasks in the data set
+     * @return true if every index plan gave the rows of its scan
+     */
+    private static boolean runQueries(int customerCount, int communicationCount, int taskCount) throws Exception {
+        PrintStream out = System.out;
+        File dir = new File(System.getProperty("crm.dataDir"));
+        out.printf("Generating %d customers, %d communications, %d tasks in %s\n",
+                   customerCount, communicationCount, taskCount, dir);
+        String[] customerIds = new SyntheticDataGenerator(42).generate(dir, customerCount, communicationCount, taskCount);
+        List<String> problems = new ArrayList<>();
+        int[] checks = new int[2];
+
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            CRMSystem crm = CRMSystem.getInstance();
+            Random random = new Random(7);
+            for (int s = 0; s < 50 && customerIds.length > 0; s++) {
+                Customer customer = crm.getCustomerById(customerIds[random.nextInt(customerIds.length)]);
+                String id = customer.getId();
+                String other = customerIds[random.nextInt(customerIds.length)];
+                List<Communication> comms = crm.getCommunicationsByCustomer(id);
+                List<Task> tasks = crm.getTasksByCustomer(id);
+
+                comparePlans(crm, Query::customers, Customer::getId, problems, checks, QueryPredicate.eq("id", id));
+                comparePlans(crm, Query::customers, Customer::getId, problems, checks,
+                             QueryPredicate.eq("id", id.toLowerCase()));
+                comparePlans(crm, Query::customers, Customer::getId, problems, checks,
+                             QueryPredicate.eq("company", customer.getCompany().toUpperCase()),
+                             QueryPredicate.contains("name", customer.getName().substring(0, 3)));
+
+                comparePlans(crm, Query::communications, Communication::getId, problems, checks,
+                             QueryPredicate.eq("customerId", id));
+                comparePlans(crm, Query::communications, Communication::getId, problems, checks,
+                             QueryPredicate.eq("customerId", id.toLowerCase()));
+                comparePlans(crm, Query::communications, Communication::getId, problems, checks,
+                             QueryPredicate.in("customerId", id, other.toLowerCase(), other),
+                             QueryPredicate.eq("type", "phone"));
+                comparePlans(crm, Query::communications, Communication::getId, problems, checks,
+                             QueryPredicate.hasTag("BILLING"), QueryPredicate.eq("customer.id", id));
+                comparePlans(crm, Query::communications, Communication::getId, problems, checks,
+                             QueryPredicate.eq("customer.company", customer.getCompany()),
+                             QueryPredicate.contains("customer.name", customer.getName()));
+                if (!comms.isEmpty()) {
+                    Communication comm = comms.get(random.nextInt(comms.size()));
+                    comparePlans(crm, Query::communications, Communication::getId, problems, checks,
+                                 QueryPredicate.eq("id", comm.getId()));
+                    comparePlans(crm, Query::communications, Communication::getId, problems, checks,
+                                 QueryPredicate.ge("date", comm.getDate()), QueryPredicate.le("date", comm.getDate()));
+                }
+
+                comparePlans(crm, Query::tasks, Task::getId, problems, checks, QueryPredicate.eq("customerId", id));
+                comparePlans(crm, Query::tasks, Task::getId, problems, checks,
+                             QueryPredicate.in("customerId", id.toLowerCase(), other));
+                comparePlans(crm, Query::tasks, Task::getId, problems, checks,
+                             QueryPredicate.eq("customer.id", id.toLowerCase()));
+                if (!tasks.isEmpty()) {
+                    Task task = tasks.get(random.nextInt(tasks.size()));
+                    comparePlans(crm, Query::tasks, Task::getId, problems, checks, QueryPredicate.eq("id", task.getId()));
+                    comparePlans(crm, Query::tasks, Task::getId, problems, checks,
+                                 QueryPredicate.in("id", task.getId().toLowerCase(), task.getId()));
+                    comparePlans(crm, Query::tasks, Task::getId, problems, checks,
+                                 QueryPredicate.eq("dueDate", task.getDueDate().substring(0, 10)),
+                                 QueryPredicate.eq("status", task.getStatus()));
+                }
+            }
+            crm.shutdown();
+        } finally {
+            System.setOut(out);
+        }
+        out.printf("%d queries compared, %d of them planned through an index\n", checks[0], checks[1]);
+        if (problems.isEmpty()) {
+            out.println("PASS: index plans give the same rows as scans");
+            return true;
+        }
+        problems.stream().limit(20).forEach(problem -> out.println("FAIL: " + problem));
+        return false;
+    }
+
+    /**
+     * Run conditions as given and each wrapped in an or with itself, and compare the rows
+     *
+     * @param crm The system to query
+     * @param entity Starts a query of the entity
+     * @param idOf The id of a row
+     * @param problems Where a difference is reported
+     * @param checks Counts the comparisons, and those whose first run used an index
+     * @param conditions The conditions
+     */
+    private static <T> void comparePlans(CRMSystem crm, Supplier<Query<T>> entity, Function<T, String> idOf,
+                                         List<String> problems, int[] checks, QueryPredicate... conditions) {
+        Query<T> indexed = entity.get().orderBy("id");
+        Query<T> scanned = entity.get().orderBy("id");
+        for (QueryPredicate condition : conditions) {
+            indexed.where(condition);
+            scanned.where(QueryPredicate.or(condition, condition));
+        }
+        QueryResult<T> viaIndex = crm.query(indexed);
+        QueryResult<T> viaScan = crm.query(scanned);
+        checks[0]++;
+        if (!viaIndex.getPlan().getChosen().startsWith("parallel scan")) {
+            checks[1]++;
+        }
+        List<String> expected = new ArrayList<>(), found = new ArrayList<>();
+        viaScan.getItems().forEach(row -> expected.add(idOf.apply(row)));
+        viaIndex.getItems().forEach(row -> found.add(idOf.apply(row)));
+        if (!found.equals(expected)) {
+            problems.add(indexed + " gave " + found.size() + " rows through " + viaIndex.getPlan().getChosen()
+                         + ", a scan gives " + expected.size());
+        }
+    }
+
+    // the ids of a customer's communications and tasks, in order
+    private static List<String> rowIds(CRMSystem crm, String customerId) {
+        List<String> ids = new ArrayList<>();
+        crm.forEachCommunicationRowOfCustomer(customerId, row -> ids.add(row.getId()));
+        crm.forEachTaskOfCustomer(customerId, task -> ids.add(task.getId()));
+        return ids;
+    }
+
+    /**
+     * Compare the heap kept by the object and columnar communication stores
+     * Both are filled with the same synthetic rows, built as if parsed from csv so every
+     * row has its own strings, and the heap is measured after a full GC. Sampled rows
+     * of the two stores must be identical. Give the JVM room, -Xmx6g for 10M rows
+     *
+     * @param rowCount Number of communications
+     * @param customerCount Number of customers they belong to
+     * @return true if the stores gave back the same rows
+     */
+    private static boolean runMemory(int rowCount, int customerCount) {
+        PrintStream out = System.out;
+        out.printf("Storing %d communications of %d customers, max heap %d MB\n",
+                   rowCount, customerCount, Runtime.getRuntime().maxMemory() >> 20);
+        out.printf("\n%-10s %10s %12s %10s %10s %10s\n", "Store", "Fill s", "Heap MB", "Bytes/row",
+                   "Rows ms", "Objects ms");
+        Map<Integer, List<String>> sample = new HashMap<>();
+        boolean same = true;
+        for (String name : new String[]{"objects", "columnar"}) {
+            long before = usedHeap();
+            long begin = System.nanoTime();
+            CommunicationStore store = "columnar".equals(name) ? new ColumnarCommunicationStore()
+                                                               : new ObjectCommunicationStore();
+            fillCommunications(store, rowCount, customerCount);
+            double fillSeconds = (System.nanoTime() - begin) / 1e9;
+            long used = usedHeap() - before;
+
+            // the per-customer paths: counts and a few fields read in place, as reports and filters
+            // do, then every row built as a Communication, as listings do
+            begin = System.nanoTime();
+            long[] typeCounts = new long[CommunicationType.values().length];
+            long[] dated = new long[1];
+            for (int c = 0; c < customerCount; c++) {
+                store.countTypes(syntheticCustomerId(c), typeCounts);
+                store.forEachRowOfCustomer(syntheticCustomerId(c), row -> {
+                    CRMDate date = row.getDateValue();
+                    if (date != null && row.getType() != null) {
+                        dated[0]++;
+                    }
+                });
+            }
+            double rowMillis = (System.nanoTime() - begin) / 1e6;
+            begin = System.nanoTime();
+            long built = 0;
+            for (int c = 0; c < customerCount; c++) {
+                built += store.getByCustomer(syntheticCustomerId(c)).size();
+            }
+            double objectMillis = (System.nanoTime() - begin) / 1e6;
+            // every row belongs to one of the customers, so each path must have seen all of them
+            if (Arrays.stream(typeCounts).sum() != rowCount || dated[0] != rowCount || built != rowCount) {
+                out.println("FAIL: " + name + " counted " + Arrays.stream(typeCounts).sum() + ", visited " + dated[0]
+                            + " and built " + built + " of " + rowCount + " rows");
+                same = false;
+            }
+            out.printf("%-10s %10.1f %12.1f %10.1f %10.1f %10.1f\n", name, fillSeconds, used / 1048576.0,
+                       (double) used / Math.max(1, rowCount), rowMillis, objectMillis);
+
+            Random random = new Random(7);
+            for (int i = 0; i < 1000 && rowCount > 0; i++) {
+                int position = random.nextInt(rowCount);
+                List<String> row = Arrays.asList(store.get(position).toCSVArray());
+                List<String> expected = sample.putIfAbsent(position, row);
+                if (expected != null && !expected.equals(row)) {
+                    out.println("FAIL: row " + position + " is " + row + " in " + name + ", expected " + expected);
+                    same = false;
+                }
+            }
+            store = null;
+        }
+        return same;
+    }
+
+    // add rowCount synthetic communications, spread over the customers like SyntheticDataGenerator
+    private static void fillCommunications(CommunicationStore store, int rowCount, int customerCount) {
+        String[] tagNames = {"renewal", "vip", "churn-risk", "upsell", "support", "billing", "onboarding"};
+        String[] subjects = {"Quarterly review", "Pricing question", "Follow up", "Contract renewal", "Check in"};
+        CommunicationType[] types = CommunicationType.values();
+        java.time.LocalDateTime start = java.time.LocalDateTime.of(2020, 1, 1, 9, 0, 0);
+        Random random = new Random(42);
+        for (int i = 0; i < rowCount; i++) {
+            String tags = tagNames[random.nextInt(tagNames.length)]
+                          + (random.nextBoolean() ? "," + tagNames[random.nextInt(tagNames.length)] : "");
+            store.add(new Communication(
+                String.format("COMM_%014d_%06d", 20200101000000L + i / 1_000_000, i % 1_000_000),
+                syntheticCustomerId(random.nextInt(customerCount)),
+                types[random.nextInt(types.length)],
+                start.plusMinutes(i).format(CRMDate.DATE_TIME_FORMAT),
+                new String(subjects[random.nextInt(subjects.length)]),
+                "Notes for communication " + i,
+                tags));
+        }
+    }
+
+    // a new string each call, as every parsed csv row has its own copy
+    private static String syntheticCustomerId(int customer) {
+        return "CUST_20200101090000_" + (100_000 + customer);
+    }
+
+    // heap in use after a full collection
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Load test the HTTP API: client threads send a mix of searches, lookups,
+     * communication and task writes and reports over keep-alive connections for
+     * a fixed time. Journal persistence is used unless crm.persistence says otherwise,
+     * in snapshot mode every write rewrites a whole data file
+     *
+     * @param clients Number of client threads
+     * @param seconds How long to send requests
+     * @param customerCount Customers in the generated data set, with 10 communications and 1 task each
+     * @return true if every request succeeded
+     */
+    private static boolean runHttp(int clients, int seconds, int customerCount) throws Exception {
+        PrintStream out = System.out;
+        if (System.getProperty("crm.persistence") == null) {
+            System.setProperty("crm.persistence", "journal");
+        }
+        File dir = new File(System.getProperty("crm.dataDir"));
+        String[] customerIds = new SyntheticDataGenerator(42).generate(dir, customerCount, customerCount * 10, customerCount);
+        String[] terms = {"smith", "acme", "alice.j", "wonka", "ol", "stark industries", "nobody-matches"};
+
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        CRMSystem crm = CRMSystem.getInstance();
+        CRMHttpServer server = new CRMHttpServer(crm, 0);
+        server.start();
+        String base = "http://localhost:" + server.getPort();
+        out.printf("Serving %d customers on %s, %d clients for %d seconds\n", customerIds.length, base, clients, seconds);
+
+        AtomicInteger failures = new AtomicInteger();
+        ConcurrentLinkedQueue<String> problems = new ConcurrentLinkedQueue<>();
+        long[][] latencies = new long[clients][];
+        int[] counts = new int[clients];
+        String[] names = {"search", "customer", "communications", "log", "task", "report"};
+        int[][] perKind = new int[clients][names.length];
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        long begin = System.nanoTime();
+        Thread[] workers = new Thread[clients];
+        for (int t = 0; t < clients; t++) {
+            final int client = t;
+            workers[t] = new Thread(() -> {
+                Random random = new Random(client);
+                long[] samples = new long[1 << 16];
+                int n = 0;
+                while (System.nanoTime() < deadline) {
+                    String id = customerIds[random.nextInt(customerIds.length)];
+                    int roll = random.nextInt(100);
+                    // 40% search, 25% lookup, 15% history, 10% log, 8% task, 2% report
+                    int kind = roll < 40 ? 0 : roll < 65 ? 1 : roll < 80 ? 2 : roll < 90 ? 3 : roll < 98 ? 4 : 5;
+                    long start = System.nanoTime();
+                    int status;
+                    try {
+                        switch (kind) {
+                            case 0:
+                                status = request("GET", base + "/customers?limit=10&search="
+                                        + java.net.URLEncoder.encode(terms[random.nextInt(terms.length)], "UTF-8"), null);
+                                break;
+                            case 1: status = request("GET", base + "/customers/" + id, null); break;
+                            case 2: status = request("GET", base + "/customers/" + id + "/communications", null); break;
+                            case 3:
+                                status = request("POST", base + "/communications", "{\"customerId\":\"" + id
+                                        + "\",\"type\":\"EMAIL\",\"subject\":\"load test\",\"tags\":\"bench\"}");
+                                break;
+                            case 4:
+                                status = request("POST", base + "/tasks", "{\"customerId\":\"" + id
+                                        + "\",\"title\":\"Follow up\",\"dueDate\":\"2030-01-01\",\"assignedTo\":\"client"
+                                        + client + "\"}");
+                                break;
+                            default: status = request("GET", base + "/reports/tasks", null);
+                        }
+                    } catch (IOException e) {
+                        status = -1;
+                    }
+                    long elapsed = System.nanoTime() - start;
+                    int expected = kind == 3 || kind == 4 ? 201 : 200;
+                    if (status != expected) {
+                        failures.incrementAndGet();
+                        if (problems.size() < 10) {
+                            problems.add(names[kind] + " returned " + status);
+                        }
+                    }
+                    if (n == samples.length) {
+                        samples = Arrays.copyOf(samples, n * 2);
+                    }
+                    samples[n++] = elapsed;
+                    perKind[client][kind]++;
+                }
+                latencies[client] = samples;
+                counts[client] = n;
+            }, "http-client-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double elapsedSeconds = (System.nanoTime() - begin) / 1e9;
+        server.stop();
+        crm.shutdown();
+        System.setOut(out);
+
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        long[] all = new long[total];
+        int pos = 0;
+        for (int t = 0; t < clients; t++) {
+            System.arraycopy(latencies[t], 0, all, pos, counts[t]);
+            pos += counts[t];
+        }
+        Arrays.sort(all);
+        StringBuilder mix = new StringBuilder();
+        for (int k = 0; k < names.length; k++) {
+            int sum = 0;
+            for (int t = 0; t < clients; t++) {
+                sum += perKind[t][k];
+            }
+            mix.append(k > 0 ? ", " : "").append(names[k]).append(' ').append(sum);
+        }
+        out.printf("%d requests in %.1f s: %.0f requests/sec\n", total, elapsedSeconds, total / elapsedSeconds);
+        out.println("Mix: " + mix);
+        if (total > 0) {
+            out.printf("Latency ms: p50 %.3f  p90 %.3f  p99 %.3f  max %.3f\n", percentile(all, 50) / 1e6,
+                       percentile(all, 90) / 1e6, percentile(all, 99) / 1e6, all[total - 1] / 1e6);
+        }
+        if (failures.get() > 0) {
+            out.println("FAIL: " + failures.get() + " requests failed");
+            problems.forEach(problem -> out.println("  " + problem));
+            return false;
+        }
+        out.println("PASS: every request succeeded");
+        return true;
+    }
+
+    // send one request and read the whole response so the connection can be reused
+    private static int request(String method, String url, String body) throws IOException {
+        java.net.HttpURLConnection connection = (java.net.HttpURLConnection) new java.net.URL(url).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream os = connection.getOutputStream()) {
+                os.write(body.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (in != null) {
+                in.readAllBytes();
+            }
+        }
+        return status;
+    }
+
+    // nearest rank percentile of sorted values
+    private static long percentile(long[] sorted, double p) {
+        int rank = (int) Math.ceil(p / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    // point CRMSystem at a fresh directory unless one was given
+    private static void useTempDataDir() throws IOException {
+        if (System.getProperty("crm.dataDir") == null) {
+            System.setProperty("crm.dataDir", Files.createTempDirectory("crm-bench").toString());
+        }
+    }
+
+    // run with System.out silenced so notifications do not dominate the timing
+    private static <T> T quietly(Callable<T> work) throws Exception {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            return work.call();
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * Writers create customers, log communications and create and complete tasks while
+     * readers search, look up and report at the same time. Afterwards every write must be
+     * visible in memory and in the saved files
+     *
+     * @param threads Number of writer threads, the same number of readers run alongside
+     * @param opsPerThread Customers (and communications and tasks) created per writer
+     * @return true if no update was lost
+     */
+    private static boolean runStress(int threads, int opsPerThread) throws Exception {
+        System.out.printf("Stress: %d writers x %d ops, data in %s\n",
+                          threads, opsPerThread, System.getProperty("crm.dataDir"));
+        CRMSystem crm = CRMSystem.getInstance();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Set<String> completedTaskIds = ConcurrentHashMap.newKeySet();
+        AtomicBoolean writing = new AtomicBoolean(true);
+
+        long elapsed = quietly(() -> {
+            ExecutorService pool = Executors.newFixedThreadPool(threads * 2);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int writer = t;
+                writers.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < opsPerThread; i++) {
+                        String name = "stress-" + writer + "-" + i;
+                        crm.createCustomer(name, name + "@example.com", "555", "Company " + writer, "");
+                        List<Customer> found = crm.searchCustomers(name, 1);
+                        String customerId = found.isEmpty() ? "missing" : found.get(0).getId();
+                        crm.logCommunication(customerId, CommunicationType.EMAIL, "hello", "", "stress");
+                        crm.createTask(customerId, name, "", "2030-01-01", "writer" + writer);
+                        for (Task task : crm.getTasksByCustomer(customerId)) {
+                            if (task.getTitle().equals(name)) {
+                                crm.updateTaskStatus(task.getId(), TaskStatus.COMPLETED);
+                                completedTaskIds.add(task.getId());
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (int t = 0; t < threads; t++) {
+                pool.submit(() -> {
+                    try {
+                        start.await();
+                        while (writing.get()) {
+                            crm.searchCustomers("stress", 10);
+                            crm.getAllCustomers();
+                            crm.getPendingTasks();
+                            crm.generateTaskCompletionReport();
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            try {
+                for (Future<?> f : writers) {
+                    f.get();
+                }
+            } catch (ExecutionException e) {
+                failure.compareAndSet(null, e.getCause());
+            }
+            long time = System.nanoTime() - begin;
+            writing.set(false);
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+            return time;
+        });
+
+        int expected = threads * opsPerThread;
+        List<String> problems = new ArrayList<>();
+        if (failure.get() != null) {
+            problems.add("worker failed: " + failure.get());
+        }
+        check(problems, "customers", expected, crm.getAllCustomers().size());
+        check(problems, "tagged communications", expected, crm.getTagCounts().getOrDefault("stress", 0));
+        int tasks = 0;
+        Set<String> seen = new HashSet<>();
+        for (Customer customer : crm.getAllCustomers()) {
+            if (seen.add(customer.getId())) {
+                tasks += crm.getTaskCount(customer.getId());
+            }
+        }
+        check(problems, "tasks", expected, tasks);
+        for (String id : completedTaskIds) {
+            if (crm.getTaskById(id).getStatus() != TaskStatus.COMPLETED) {
+                problems.add("status update lost for " + id);
+                break;
+            }
+        }
+        check(problems, "completed task counter", expected,
+              crm.getTaskStatusCounts().get(TaskStatus.COMPLETED).intValue());
+        for (int t = 0; t < threads; t++) {
+            check(problems, "completed tasks of writer" + t, opsPerThread,
+                  crm.getTaskStatusCountsForAssignee("writer" + t).get(TaskStatus.COMPLETED).intValue());
+        }
+
+        quietly(() -> { crm.shutdown(); return null; });
+        String dir = crm.getDataDir();
+        int partitions = crm.getPartitionCount();
+        check(problems, "saved customers", expected, countRows(dir, "customers.csv", partitions));
+        check(problems, "saved communications", expected, countRows(dir, "communications.csv", partitions));
+        check(problems, "saved tasks", expected, countRows(dir, "tasks.csv", partitions));
+
+        System.out.printf("%d writes in %.1f ms (%.0f writes/sec)\n", expected * 4,
+                          elapsed / 1e6, expected * 4 / (elapsed / 1e9));
+        System.out.println("Group commits (" + crm.getDurabilityPolicy() + "):");
+        for (CommitStats stats : crm.getCommitStats()) {
+            System.out.println("  " + stats);
+        }
+        if (problems.isEmpty()) {
+            System.out.println("PASS: no lost updates");
+            return true;
+        }
+        for (String problem : problems) {
+            System.out.println("FAIL: " + problem);
+        }
+        return false;
+    }
+
+    /**
+     * Generate ids from several threads at once, report ids/sec and check for duplicates
+     * The old second-resolution formatter based scheme is measured for comparison
+     *
+     * @param threads Number of threads generating ids
+     * @param idsPerThread Ids generated by each thread
+     * @return true if every id was unique
+     */
+    private static boolean runIds(int threads, int idsPerThread) throws Exception {
+        IdGenerator generator = IdGenerator.forPrefix("BENCH");
+        for (int i = 0; i < 200_000; i++) {
+            generator.next();  // warm up
+        }
+
+        String[][] ids = new String[threads][idsPerThread];
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final String[] out = ids[t];
+            futures.add(pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = generator.next();
+                }
+                return null;
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        long elapsed = System.nanoTime() - begin;
+        pool.shutdown();
+
+        long total = (long) threads * idsPerThread;
+        System.out.printf("IdGenerator: %d ids on %d threads in %.1f ms (%.0f ids/sec), e.g. %s\n",
+                          total, threads, elapsed / 1e6, total / (elapsed / 1e9), ids[0][idsPerThread - 1]);
+
+        java.time.format.DateTimeFormatter[] holder = new java.time.format.DateTimeFormatter[1];
+        int legacyCount = Math.min(idsPerThread, 200_000);
+        long legacyBegin = System.nanoTime();
+        for (int i = 0; i < legacyCount; i++) {
+            holder[0] = java.time.format.DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+            ids[0][i] = "BENCH_" + java.time.LocalDateTime.now().format(holder[0]);
+        }
+        long legacyElapsed = System.nanoTime() - legacyBegin;
+        System.out.printf("Old timestamp ids: %d ids on 1 thread in %.1f ms (%.0f ids/sec), %d distinct\n",
+                          legacyCount, legacyElapsed / 1e6, legacyCount / (legacyElapsed / 1e9),
+                          new HashSet<>(Arrays.asList(ids[0]).subList(0, legacyCount)).size());
+
+        // regenerate thread 0's ids overwritten above before checking uniqueness
+        for (int i = 0; i < idsPerThread; i++) {
+            ids[0][i] = generator.next();
+        }
+        Set<String> unique = new HashSet<>();
+        for (String[] perThread : ids) {
+            unique.addAll(Arrays.asList(perThread));
+        }
+        if (unique.size() == total) {
+            System.out.println("PASS: all ids unique");
+            return true;
+        }
+        System.out.printf("FAIL: %d duplicate ids\n", total - unique.size());
+        return false;
+    }
+
+    private static void check(List<String> problems, String what, int expected, int actual) {
+        if (expected != actual) {
+            problems.add(what + ": expected " + expected + " but found " + actual);
+        }
+    }
+
+    // count data rows in a saved csv file, or in all its partition files
+    private static int countRows(String dir, String file, int partitions) throws IOException {
+        if (partitions == 1) {
+            return countRows(new File(dir, file));
+        }
+        int rows = 0;
+        for (int partition = 0; partition < partitions; partition++) {
+            rows += countRows(PartitionIndex.fileOf(new File(dir, file), partition, partitions));
+        }
+        return rows;
+    }
+
+    // count data rows in a saved csv file, excluding the header and the snapshot trailer
+    private static int countRows(File file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath())) {
+            return (int) reader.lines()
+                .filter(line -> !line.isEmpty() && !line.startsWith(CSVFormat.TRAILER_PREFIX))
+                .count() - 1;
+        }
+    }
+}
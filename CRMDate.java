@@ -0,0 +1,219 @@
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * CRMDate is a date or date-time field of an entity, parsed once when it is created
+ * The usual "yyyy-MM-dd HH:mm:ss" and "yyyy-MM-dd" forms are kept as a number, local
+ * epoch seconds or epoch day, so dates can be compared and indexed without parsing
+ * text again. Anything else is kept as text and is not a valid date
+ * toString always gives back the text the date was created from, so csv files keep
+ * exactly the values they had. Formatting a date that was not created from text
+ * happens once, on first use
+ * Instances are immutable and may be shared between threads
+ */
+public final class CRMDate {
+    // shared formatters, DateTimeFormatter is thread safe so nothing needs to create its own
+    public static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    public static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    // kinds of value, also used as the encoding in binary snapshots
+    public static final byte TEXT = 0;
+    public static final byte DATE_TIME = 1;   // value is epoch seconds of the local date-time
+    public static final byte DATE_ONLY = 2;   // value is the epoch day
+
+    private static final long SECONDS_PER_DAY = 86_400;
+
+    private final byte kind;
+    private final long value;
+    // the text form, set when parsed or on the first toString, racing threads compute the same string
+    private String text;
+
+    private CRMDate(byte kind, long value, String text) {
+        this.kind = kind;
+        this.value = value;
+        this.text = text;
+    }
+
+    /**
+     * Parse a date field
+     *
+     * @param text "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd" or any other text
+     * @return The date, kept as text if it is in neither form, null if text is null
+     */
+    public static CRMDate parse(String text) {
+        if (text == null) {
+            return null;
+        }
+        if (text.length() == 19 && isDateTime(text)) {
+            long day = LocalDate.of(digits(text, 0, 4), digits(text, 5, 2), digits(text, 8, 2)).toEpochDay();
+            long second = digits(text, 11, 2) * 3600L + digits(text, 14, 2) * 60L + digits(text, 17, 2);
+            return new CRMDate(DATE_TIME, day * SECONDS_PER_DAY + second, text);
+        }
+        if (text.length() == 10 && isDate(text)) {
+            return new CRMDate(DATE_ONLY, LocalDate.of(digits(text, 0, 4), digits(text, 5, 2), digits(text, 8, 2))
+                                                   .toEpochDay(), text);
+        }
+        return new CRMDate(TEXT, 0, text);
+    }
+
+    /**
+     * Create a date from its kind and number, as stored in a binary snapshot
+     *
+     * @param kind DATE_TIME or DATE_ONLY
+     * @param value Local epoch seconds or epoch day
+     * @return The date
+     */
+    public static CRMDate of(byte kind, long value) {
+        if (kind != DATE_TIME && kind != DATE_ONLY) {
+            throw new IllegalArgumentException("Not a numeric date kind: " + kind);
+        }
+        return new CRMDate(kind, value, null);
+    }
+
+    // a date-time to the second
+    public static CRMDate of(LocalDateTime time) {
+        return new CRMDate(DATE_TIME, time.toEpochSecond(ZoneOffset.UTC), null);
+    }
+
+    // a date without time
+    public static CRMDate of(LocalDate date) {
+        return new CRMDate(DATE_ONLY, date.toEpochDay(), null);
+    }
+
+    // the current local time, used for created dates
+    public static CRMDate now() {
+        return of(LocalDateTime.now());
+    }
+
+    // Getters
+    public byte getKind() { return kind; }
+    public long getValue() { return value; }
+
+    // true if the date could be read, false if it is only text
+    public boolean isValid() {
+        return kind != TEXT;
+    }
+
+    public boolean isDateOnly() {
+        return kind == DATE_ONLY;
+    }
+
+    /**
+     * Get the date as a LocalDateTime, a date without time is the start of that day
+     *
+     * @return The date-time, or null if the date is only text
+     */
+    public LocalDateTime toLocalDateTime() {
+        return kind == TEXT ? null : LocalDateTime.ofEpochSecond(toLocalEpochSecond(), 0, ZoneOffset.UTC);
+    }
+
+    /**
+     * Get the date as local epoch seconds, for sorting and comparing
+     * A date without time is the start of that day
+     *
+     * @return Seconds since 1970-01-01 00:00:00 local time, Long.MIN_VALUE if the date is only text
+     */
+    public long toLocalEpochSecond() {
+        switch (kind) {
+            case DATE_TIME: return value;
+            case DATE_ONLY: return value * SECONDS_PER_DAY;
+            default: return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Get the moment the date ends, a date-time ends at itself and a date at the following midnight
+     *
+     * @param zone The time zone the date is in
+     * @return Epoch millis, or -1 if the date is only text
+     */
+    public long endEpochMilli(ZoneId zone) {
+        switch (kind) {
+            case DATE_TIME:
+                return LocalDateTime.ofEpochSecond(value, 0, ZoneOffset.UTC).atZone(zone).toInstant().toEpochMilli();
+            case DATE_ONLY:
+                return LocalDate.ofEpochDay(value + 1).atStartOfDay(zone).toInstant().toEpochMilli();
+            default:
+                return -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        String result = text;
+        if (result == null) {
+            result = format();
+            text = result;
+        }
+        return result;
+    }
+
+    private String format() {
+        if (kind == DATE_ONLY) {
+            LocalDate date = LocalDate.ofEpochDay(value);
+            if (date.getYear() < 0 || date.getYear() > 9999) {
+                return date.format(DATE_FORMAT);
+            }
+            char[] chars = "0000-00-00".toCharArray();
+            put(chars, 0, 4, date.getYear());
+            put(chars, 5, 2, date.getMonthValue());
+            put(chars, 8, 2, date.getDayOfMonth());
+            return new String(chars);
+        }
+        LocalDateTime time = LocalDateTime.ofEpochSecond(value, 0, ZoneOffset.UTC);
+        if (time.getYear() < 0 || time.getYear() > 9999) {
+            return time.format(DATE_TIME_FORMAT);
+        }
+        char[] chars = "0000-00-00 00:00:00".toCharArray();
+        put(chars, 0, 4, time.getYear());
+        put(chars, 5, 2, time.getMonthValue());
+        put(chars, 8, 2, time.getDayOfMonth());
+        put(chars, 11, 2, time.getHour());
+        put(chars, 14, 2, time.getMinute());
+        put(chars, 17, 2, time.getSecond());
+        return new String(chars);
+    }
+
+    // "yyyy-MM-dd HH:mm:ss" with valid field values
+    private static boolean isDateTime(String s) {
+        return isDate(s) && s.charAt(10) == ' ' && s.charAt(13) == ':' && s.charAt(16) == ':'
+            && allDigits(s, 11, 2) && allDigits(s, 14, 2) && allDigits(s, 17, 2)
+            && digits(s, 11, 2) < 24 && digits(s, 14, 2) < 60 && digits(s, 17, 2) < 60;
+    }
+
+    // "yyyy-MM-dd" prefix with a real calendar date
+    private static boolean isDate(String s) {
+        if (s.charAt(4) != '-' || s.charAt(7) != '-' || !allDigits(s, 0, 4) || !allDigits(s, 5, 2) || !allDigits(s, 8, 2)) {
+            return false;
+        }
+        int year = digits(s, 0, 4), month = digits(s, 5, 2), day = digits(s, 8, 2);
+        return month >= 1 && month <= 12 && day >= 1 && day <= LocalDate.of(year, month, 1).lengthOfMonth();
+    }
+
+    private static boolean allDigits(String s, int start, int count) {
+        for (int i = start; i < start + count; i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int digits(String s, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            value = value * 10 + (s.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    private static void put(char[] chars, int start, int count, int value) {
+        for (int i = start + count - 1; i >= start; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+import java.util.Map;
+
+//CRMEvent holds one notification queued for observers
+//used by the asynchronous dispatcher to deliver events in batches
+public class CRMEvent {
+    private final String eventType;
+    private final Map<String, Object> data;
+    private final long timestamp;
+    private int coalesced;
+
+    //Constructor for CRMEvent, the timestamp is taken when the event is raised
+    public CRMEvent(String eventType, Map<String, Object> data) {
+        this.eventType = eventType;
+        this.data = data;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    // Getters
+    public String getEventType() { return eventType; }
+    public Map<String, Object> getData() { return data; }
+    public long getTimestamp() { return timestamp; }
+    public int getCoalesced() { return coalesced; }
+
+    // count one more event of the same type merged into this one
+    void addCoalesced() { coalesced++; }
+
+    @Override
+    public String toString() {
+        return String.format("CRMEvent{type='%s', coalesced=%d}", eventType, coalesced);
+    }
+}
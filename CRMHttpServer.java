@@ -0,0 +1,527 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * CRMHttpServer serves CRMSystem as a JSON API over HTTP using the JDK's built in server
+ * Every request runs on its own virtual thread when the JVM has them (Java 21+),
+ * older JVMs use a fixed pool of crm.http.threads platform threads instead
+ *
+ * Endpoints:
+ *   GET  /customers?search=term&limit=n      search customers
+ *   GET  /customers?cursor=&limit=n          page through all customers
+ *   POST /customers                          create a customer {name, email, phone, company, notes}
+ *   GET  /customers/{id}                     one customer
+ *   GET  /customers/{id}/communications      communications of a customer
+ *   GET  /customers/{id}/tasks               tasks of a customer
+ * The listings of a customer's communications and tasks are paged when cursor or limit
+ * is given. A page is {items, nextCursor}, pass nextCursor back as cursor for the next
+ * page until it is null. limit defaults to 100
+ *   POST /communications                     log a communication {customerId, type, subject, notes, tags}
+ *   POST /tasks                              create a task {customerId, title, description, dueDate, assignedTo}
+ *   GET  /tasks/{id}                         one task
+ *   PUT  /tasks/{id}/status                  change a task's status {status}
+ *   GET  /reports/tasks                      task completion figures
+ *   GET  /reports/communications             communication frequency figures
+ *   GET  /reports/customers                  communications and tasks per customer
+ *   GET  /reports/metrics                    latency and size percentiles and counters since startup
+ *   POST /query                              run a query {entity, where, order, limit, select}
+ * where is a list of conditions such as "status=PENDING" or "customer.company~acme", all
+ * must hold, order a list of fields with - for descending. The answer is {rows, plan}
+ * Request bodies larger than crm.http.maxBody bytes (1 MiB by default) are refused with 413
+ */
+public class CRMHttpServer {
+    static {
+        // the JDK server writes headers and body separately, with Nagle's algorithm on
+        // small responses then wait for the client's delayed ack (about 40 ms each)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    // the largest request body read, a bigger one is refused before it can fill the heap
+    private static final int MAX_BODY = Math.min(Integer.getInteger("crm.http.maxBody", 1 << 20), Integer.MAX_VALUE - 8);
+
+    private final CRMSystem crm;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Create a server, call start to begin serving
+     *
+     * @param crm The system to serve
+     * @param port The port to listen on, 0 picks a free port
+     * @throws IOException If the port cannot be opened
+     */
+    public CRMHttpServer(CRMSystem crm, int port) throws IOException {
+        this.crm = crm;
+        this.server = HttpServer.create(new InetSocketAddress(port), Integer.getInteger("crm.http.backlog", 1024));
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/customers", this::handle);
+        server.createContext("/communications", this::handle);
+        server.createContext("/tasks", this::handle);
+        server.createContext("/reports", this::handle);
+        server.createContext("/query", this::handle);
+    }
+
+    // a virtual thread per request where available, looked up by reflection so the code still runs on Java 17
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            int threads = Integer.getInteger("crm.http.threads", 64);
+            return Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "crm-http");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    // stop accepting requests and wait a moment for the ones running
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // Request handling
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int status = 200;
+        Object body;
+        try {
+            String method = exchange.getRequestMethod();
+            String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/");
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            Response response = route(method, path, query, exchange);
+            status = response.status;
+            body = response.body;
+        } catch (BodyTooLargeException e) {
+            status = 413;
+            body = error(e.getMessage());
+            // the rest of the body is not read, so the connection cannot be reused
+            exchange.getResponseHeaders().set("Connection", "close");
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            body = error(e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("HTTP request failed: " + e);
+            status = 500;
+            body = error("Internal error");
+        }
+        byte[] bytes = Json.stringify(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private Response route(String method, String[] path, Map<String, String> query, HttpExchange exchange)
+            throws IOException {
+        String resource = path[0];
+        switch (resource) {
+            case "customers":
+                if (path.length == 1 && method.equals("GET") && query.containsKey("cursor")) {
+                    return ok(toJson(crm.getCustomersPage(query.get("cursor"), pageSize(query)),
+                                     CRMHttpServer::toJson));
+                }
+                if (path.length == 1 && method.equals("GET")) {
+                    int limit = query.containsKey("limit") ? parseInt(query.get("limit")) : 100;
+                    List<Map<String, Object>> result = new ArrayList<>();
+                    for (Customer customer : crm.searchCustomers(query.getOrDefault("search", ""), limit)) {
+                        result.add(toJson(customer));
+                    }
+                    return ok(result);
+                }
+                if (path.length == 1 && method.equals("POST")) {
+                    Map<String, Object> in = readBody(exchange);
+                    String name = required(in, "name");
+                    return new Response(201, toJson(crm.createCustomer(name, text(in, "email"), text(in, "phone"),
+                                                                       text(in, "company"), text(in, "notes"))));
+                }
+                if (path.length >= 2 && method.equals("GET")) {
+                    Customer customer = crm.getCustomerById(path[1]);
+                    if (customer == null) {
+                        return notFound("customer " + path[1]);
+                    }
+                    if (path.length == 2) {
+                        return ok(toJson(customer));
+                    }
+                    boolean paged = query.containsKey("cursor") || query.containsKey("limit");
+                    if (path.length == 3 && path[2].equals("communications") && paged) {
+                        return ok(toJson(crm.getCommunicationsByCustomerPage(path[1], query.get("cursor"),
+                                                                             pageSize(query)),
+                                         CRMHttpServer::toJson));
+                    }
+                    if (path.length == 3 && path[2].equals("tasks") && paged) {
+                        return ok(toJson(crm.getTasksByCustomerPage(path[1], query.get("cursor"), pageSize(query)),
+                                         CRMHttpServer::toJson));
+                    }
+                    if (path.length == 3 && path[2].equals("communications")) {
+                        List<Map<String, Object>> result = new ArrayList<>();
+                        for (Communication comm : crm.getCommunicationsByCustomer(path[1])) {
+                            result.add(toJson(comm));
+                        }
+                        return ok(result);
+                    }
+                    if (path.length == 3 && path[2].equals("tasks")) {
+                        List<Map<String, Object>> result = new ArrayList<>();
+                        for (Task task : crm.getTasksByCustomer(path[1])) {
+                            result.add(toJson(task));
+                        }
+                        return ok(result);
+                    }
+                }
+                break;
+            case "communications":
+                if (path.length == 1 && method.equals("POST")) {
+                    Map<String, Object> in = readBody(exchange);
+                    String customerId = required(in, "customerId");
+                    if (crm.getCustomerById(customerId) == null) {
+                        return notFound("customer " + customerId);
+                    }
+                    CommunicationType type = parseEnum(CommunicationType.class, required(in, "type"));
+                    return new Response(201, toJson(crm.logCommunication(customerId, type, text(in, "subject"),
+                                                                         text(in, "notes"), text(in, "tags"))));
+                }
+                break;
+            case "tasks":
+                if (path.length == 1 && method.equals("POST")) {
+                    Map<String, Object> in = readBody(exchange);
+                    String customerId = required(in, "customerId");
+                    if (crm.getCustomerById(customerId) == null) {
+                        return notFound("customer " + customerId);
+                    }
+                    String title = required(in, "title");
+                    return new Response(201, toJson(crm.createTask(customerId, title, text(in, "description"),
+                                                                   text(in, "dueDate"), text(in, "assignedTo"))));
+                }
+                if (path.length >= 2) {
+                    Task task = crm.getTaskById(path[1]);
+                    if (task == null) {
+                        return notFound("task " + path[1]);
+                    }
+                    if (path.length == 2 && method.equals("GET")) {
+                        return ok(toJson(task));
+                    }
+                    if (path.length == 3 && path[2].equals("status") && (method.equals("PUT") || method.equals("POST"))) {
+                        TaskStatus status = parseEnum(TaskStatus.class, required(readBody(exchange), "status"));
+                        crm.updateTaskStatus(path[1], status);
+                        return ok(toJson(crm.getTaskById(path[1])));
+                    }
+                }
+                break;
+            case "reports":
+                if (path.length == 2 && method.equals("GET")) {
+                    switch (path[1]) {
+                        case "tasks": return ok(taskReport());
+                        case "communications": return ok(communicationReport());
+                        case "customers": return ok(customerReport());
+                        case "metrics": return ok(metricsReport());
+                        default: return notFound("report " + path[1]);
+                    }
+                }
+                break;
+            case "query":
+                if (path.length == 1 && method.equals("POST")) {
+                    return ok(runQuery(readBody(exchange)));
+                }
+                break;
+            default:
+                break;
+        }
+        return new Response(404, error("No endpoint " + method + " /" + String.join("/", path)));
+    }
+
+    // Queries
+
+    private Map<String, Object> runQuery(Map<String, Object> json) {
+        Query<?> query = Query.of(required(json, "entity"));
+        for (Object condition : list(json, "where")) {
+            query.where(QueryPredicate.parse(condition.toString()));
+        }
+        for (Object order : list(json, "order")) {
+            String field = order.toString();
+            if (field.startsWith("-")) {
+                query.orderByDescending(field.substring(1));
+            } else {
+                query.orderBy(field);
+            }
+        }
+        if (json.get("limit") != null) {
+            query.limit(parseInt(text(json, "limit")));
+        }
+        if (json.get("select") != null) {
+            List<String> select = new ArrayList<>();
+            for (Object field : list(json, "select")) {
+                select.add(field.toString());
+            }
+            query.select(select.toArray(new String[0]));
+        }
+        QueryResult<?> result = crm.query(query);
+        QueryPlan plan = result.getPlan();
+        Map<String, Object> explain = new LinkedHashMap<>();
+        explain.put("query", plan.getQuery());
+        explain.put("chosen", plan.getChosen());
+        explain.put("considered", plan.getConsidered());
+        explain.put("rowsExamined", plan.getRowsExamined());
+        explain.put("rowsMatched", plan.getRowsMatched());
+        explain.put("rowsReturned", plan.getRowsReturned());
+        explain.put("millis", plan.getNanos() / 1e6);
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("rows", result.getRows());
+        response.put("plan", explain);
+        return response;
+    }
+
+    // Reports
+
+    private Map<String, Object> taskReport() {
+        Map<TaskStatus, Long> counts = crm.getTaskStatusCounts();
+        long total = 0;
+        for (long count : counts.values()) {
+            total += count;
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("counts", counts);
+        result.put("total", total);
+        result.put("completionRate", total > 0 ? (double) counts.get(TaskStatus.COMPLETED) / total * 100 : 0.0);
+        result.put("byAssignee", crm.getTaskStatusCountsByAssignee());
+        return result;
+    }
+
+    private Map<String, Object> communicationReport() {
+        CommunicationFrequencyReport report = crm.generateCommunicationFrequencyReport();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("total", report.getTotalCommunications());
+        result.put("byType", report.getCountsByType());
+        result.put("customers", report.getCustomerCount());
+        result.put("averagePerCustomer", report.getAveragePerCustomer());
+        result.put("median", report.getPercentile(50));
+        result.put("p90", report.getPercentile(90));
+        result.put("p99", report.getPercentile(99));
+        result.put("max", report.getMaxPerCustomer());
+        return result;
+    }
+
+    private List<Map<String, Object>> customerReport() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        crm.streamCustomers().forEachOrdered(customer -> {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("id", customer.getId());
+            row.put("name", customer.getName());
+            row.put("company", customer.getCompany());
+            row.put("communications", crm.getCommunicationCount(customer.getId()));
+            row.put("tasks", crm.getTaskCount(customer.getId()));
+            result.add(row);
+        });
+        return result;
+    }
+
+    private Map<String, Object> metricsReport() {
+        MetricsSnapshot snapshot = crm.getMetrics();
+        Map<String, Object> histograms = new LinkedHashMap<>();
+        for (Histogram histogram : snapshot.getHistograms().values()) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("unit", histogram.getUnit());
+            row.put("count", histogram.getCount());
+            row.put("mean", histogram.getMean());
+            row.put("p50", histogram.getPercentile(50));
+            row.put("p99", histogram.getPercentile(99));
+            row.put("p999", histogram.getPercentile(99.9));
+            row.put("max", histogram.getMax());
+            histograms.put(histogram.getName(), row);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("uptimeMillis", snapshot.getUptimeMillis());
+        result.put("histograms", histograms);
+        result.put("counters", snapshot.getCounters());
+        return result;
+    }
+
+    // Entity conversion
+
+    private static <T> Map<String, Object> toJson(Page<T> page, Function<T, Map<String, Object>> convert) {
+        List<Map<String, Object>> items = new ArrayList<>(page.getItems().size());
+        for (T item : page.getItems()) {
+            items.add(convert.apply(item));
+        }
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("items", items);
+        json.put("nextCursor", page.getNextCursor());
+        return json;
+    }
+
+    private static Map<String, Object> toJson(Customer customer) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", customer.getId());
+        json.put("name", customer.getName());
+        json.put("email", customer.getEmail());
+        json.put("phone", customer.getPhone());
+        json.put("company", customer.getCompany());
+        json.put("notes", customer.getNotes());
+        json.put("createdDate", customer.getCreatedDate());
+        return json;
+    }
+
+    private static Map<String, Object> toJson(Communication comm) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", comm.getId());
+        json.put("customerId", comm.getCustomerId());
+        json.put("type", comm.getType());
+        json.put("date", comm.getDate());
+        json.put("subject", comm.getSubject());
+        json.put("notes", comm.getNotes());
+        json.put("tags", comm.getTags());
+        return json;
+    }
+
+    private static Map<String, Object> toJson(Task task) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", task.getId());
+        json.put("customerId", task.getCustomerId());
+        json.put("title", task.getTitle());
+        json.put("description", task.getDescription());
+        json.put("dueDate", task.getDueDate());
+        json.put("status", task.getStatus());
+        json.put("createdDate", task.getCreatedDate());
+        json.put("assignedTo", task.getAssignedTo());
+        return json;
+    }
+
+    // Helpers
+
+    private static class Response {
+        final int status;
+        final Object body;
+
+        Response(int status, Object body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private static Response ok(Object body) {
+        return new Response(200, body);
+    }
+
+    private static Response notFound(String what) {
+        return new Response(404, error("Unknown " + what));
+    }
+
+    private static Map<String, Object> error(String message) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("error", message);
+        return json;
+    }
+
+    // thrown when a request body is over crm.http.maxBody, answered with 413
+    private static class BodyTooLargeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        BodyTooLargeException() {
+            super("Request body is larger than " + MAX_BODY + " bytes");
+        }
+    }
+
+    // the JSON object of a request body, checking the declared length first and then the bytes
+    // actually sent, as a chunked body has no length and a client may send more than it declared
+    private static Map<String, Object> readBody(HttpExchange exchange) throws IOException {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length != null) {
+            try {
+                if (Long.parseLong(length.trim()) > MAX_BODY) {
+                    throw new BodyTooLargeException();
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid Content-Length: " + length);
+            }
+        }
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] bytes = in.readNBytes(MAX_BODY + 1);
+            if (bytes.length > MAX_BODY) {
+                throw new BodyTooLargeException();
+            }
+            return Json.parseObject(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String key = equals >= 0 ? pair.substring(0, equals) : pair;
+            String value = equals >= 0 ? pair.substring(equals + 1) : "";
+            query.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static String text(Map<String, Object> json, String name) {
+        Object value = json.get(name);
+        return value != null ? value.toString() : "";
+    }
+
+    // a list member of a request, a single value counts as a list of one
+    private static List<?> list(Map<String, Object> json, String name) {
+        Object value = json.get(name);
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        return value instanceof List ? (List<?>) value : Collections.singletonList(value);
+    }
+
+    private static String required(Map<String, Object> json, String name) {
+        String value = text(json, name).trim();
+        if (value.isEmpty()) {
+            throw new IllegalArgumentException(name + " is required");
+        }
+        return value;
+    }
+
+    private static int pageSize(Map<String, String> query) {
+        return query.containsKey("limit") ? parseInt(query.get("limit")) : 100;
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + value);
+        }
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String value) {
+        try {
+            return Enum.valueOf(type, value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid " + type.getSimpleName() + ": " + value);
+        }
+    }
+}
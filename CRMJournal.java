@@ -0,0 +1,185 @@
+import java.io.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * CRMJournal is an append-only log of mutations made to the CRM data
+ * Each mutation is written as one line at the end of journal.log instead of
+ * rewriting the whole csv snapshot, so a write costs one record not the whole file
+ * On compaction the active journal is rotated to journal.compacting.log, the
+ * snapshots are rewritten and the rotated file is deleted
+ * On startup both files are replayed (rotated first) on top of the snapshots
+ * Appends are buffered, flush makes them visible to the OS (and fsyncs them when asked)
+ * so CRMSystem can group the records of concurrent changes into one write
+ */
+public class CRMJournal {
+    // record kinds written as the first csv field of each line
+    public static final String CUSTOMER = "customer";
+    public static final String COMMUNICATION = "communication";
+    public static final String TASK = "task";
+    public static final String TASK_STATUS = "task_status";
+
+    private final File activeFile;
+    private final File rotatedFile;
+    private FileOutputStream stream;
+    private Writer writer;
+    private int pendingRecords = 0;
+
+    /**
+     * Create a journal stored in the given data directory
+     *
+     * @param dataDir The directory holding the csv snapshots
+     */
+    public CRMJournal(String dataDir) {
+        this.activeFile = new File(dataDir, "journal.log");
+        this.rotatedFile = new File(dataDir, "journal.compacting.log");
+    }
+
+    /**
+     * Append one already formatted record line to the end of the journal and flush it
+     *
+     * @param line The csv formatted record
+     * @throws IOException If the journal cannot be written
+     */
+    public synchronized void append(String line) throws IOException {
+        appendAll(Collections.singletonList(line));
+        writer.flush();
+    }
+
+    /**
+     * Append several already formatted record lines to the buffer, call flush to write them
+     *
+     * @param lines The csv formatted records, in order
+     * @throws IOException If the journal cannot be written
+     */
+    public synchronized void appendAll(List<String> lines) throws IOException {
+        if (writer == null) {
+            stream = new FileOutputStream(activeFile, true);
+            writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 1 << 16);
+        }
+        for (String line : lines) {
+            writer.write(line);
+            writer.write(System.lineSeparator());
+        }
+        pendingRecords += lines.size();
+    }
+
+    /**
+     * Write the buffered records to the journal file
+     * The fsync runs outside the lock so new records can be appended meanwhile
+     *
+     * @param sync true to also force the file to disk
+     * @throws IOException If the journal cannot be written
+     */
+    public void flush(boolean sync) throws IOException {
+        FileOutputStream target;
+        synchronized (this) {
+            if (writer == null) {
+                return;
+            }
+            writer.flush();
+            target = stream;
+        }
+        if (sync) {
+            try {
+                target.getChannel().force(false);
+            } catch (ClosedChannelException e) {
+                // rotated meanwhile, rotate forces the file before closing it
+            }
+        }
+    }
+
+    /**
+     * Replay every record still in the journal, oldest first
+     *
+     * @param handler Called with each raw record line
+     * @return The number of records replayed
+     */
+    public synchronized int replay(Consumer<String> handler) {
+        int count = 0;
+        for (File file : new File[]{rotatedFile, activeFile}) {
+            if (!file.exists()) {
+                continue;
+            }
+            try (BufferedReader reader = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        handler.accept(line);
+                        count++;
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Error replaying journal " + file.getName() + ": " + e.getMessage());
+            }
+        }
+        pendingRecords = count;
+        return count;
+    }
+
+    /**
+     * Move the active journal aside so its records can be compacted into the snapshots
+     * New appends go to a fresh active journal
+     *
+     * @return true if there were records to compact
+     * @throws IOException If the journal cannot be rotated
+     */
+    public synchronized boolean rotate() throws IOException {
+        closeWriter();
+        if (!activeFile.exists() || activeFile.length() == 0) {
+            activeFile.delete();
+            return rotatedFile.exists();
+        }
+        if (rotatedFile.exists()) {
+            // a previous compaction failed, keep its records and add the newer ones after them
+            Files.write(rotatedFile.toPath(), Files.readAllBytes(activeFile.toPath()), StandardOpenOption.APPEND);
+            Files.delete(activeFile.toPath());
+        } else {
+            Files.move(activeFile.toPath(), rotatedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        pendingRecords = 0;
+        return true;
+    }
+
+    // delete the rotated journal once its records are safely in the snapshots
+    public synchronized void discardRotated() {
+        rotatedFile.delete();
+    }
+
+    // number of records appended since the last rotation
+    public synchronized int getPendingRecords() {
+        return pendingRecords;
+    }
+
+    // true if any journal file still holds records
+    public synchronized boolean hasRecords() {
+        return rotatedFile.exists() || (activeFile.exists() && activeFile.length() > 0);
+    }
+
+    // close the active journal file
+    public synchronized void close() {
+        try {
+            closeWriter();
+        } catch (IOException e) {
+            System.err.println("Error closing journal: " + e.getMessage());
+        }
+    }
+
+    // write out and force the active journal before closing it
+    private void closeWriter() throws IOException {
+        if (writer != null) {
+            try {
+                writer.flush();
+                stream.getChannel().force(false);
+            } finally {
+                writer.close();
+                writer = null;
+                stream = null;
+            }
+        }
+    }
+}
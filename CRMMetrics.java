@@ -0,0 +1,145 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CRMMetrics collects the counters and histograms of CRMSystem by name
+ * An operation is timed with start() before it and record(name, start) after it,
+ * histograms and counters are created on first use. Everything is lock free so
+ * recording costs two nanoTime calls and a few atomic adds per operation
+ * When disabled (crm.metrics=false) nothing is timed or recorded
+ * Optionally the latest snapshot is written to a file every few seconds
+ */
+public class CRMMetrics {
+    private final boolean enabled;
+    private final long startNanos = System.nanoTime();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private ScheduledExecutorService dumper;
+    private File dumpFile;
+
+    // Constructor for CRMMetrics
+    public CRMMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // the start time to pass to record, 0 when disabled so the clock is not read
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record how long an operation took
+     *
+     * @param operation The operation name
+     * @param start The value start() returned before the operation
+     */
+    public void record(String operation, long start) {
+        if (enabled) {
+            histogram(operation, Histogram.NANOS).record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Record a value other than a latency, for example the bytes written by a save
+     *
+     * @param name The histogram name
+     * @param unit Histogram.BYTES or Histogram.NANOS
+     * @param value The value
+     */
+    public void recordValue(String name, String unit, long value) {
+        if (enabled) {
+            histogram(name, unit).record(value);
+        }
+    }
+
+    // add to a counter
+    public void increment(String name, long delta) {
+        if (enabled) {
+            LongAdder counter = counters.get(name);
+            if (counter == null) {
+                counter = counters.computeIfAbsent(name, k -> new LongAdder());
+            }
+            counter.add(delta);
+        }
+    }
+
+    // the histogram with a name, created on first use
+    public Histogram histogram(String name, String unit) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = histograms.computeIfAbsent(name, k -> new Histogram(k, unit));
+        }
+        return histogram;
+    }
+
+    /**
+     * Copy every counter and histogram
+     *
+     * @return The snapshot
+     */
+    public MetricsSnapshot snapshot() {
+        Map<String, Histogram> histogramCopies = new HashMap<>();
+        for (Histogram histogram : histograms.values()) {
+            histogramCopies.put(histogram.getName(), new Histogram(histogram));
+        }
+        Map<String, Long> counterValues = new HashMap<>();
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            counterValues.put(counter.getKey(), counter.getValue().sum());
+        }
+        return new MetricsSnapshot((System.nanoTime() - startNanos) / 1_000_000, histogramCopies, counterValues);
+    }
+
+    /**
+     * Write the latest snapshot to a file periodically, replacing what was there
+     *
+     * @param file The file to write
+     * @param periodSeconds Seconds between writes
+     */
+    public synchronized void startDump(File file, long periodSeconds) {
+        if (!enabled || dumper != null || periodSeconds <= 0) {
+            return;
+        }
+        dumpFile = file;
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "crm-metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleWithFixedDelay(this::dump, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    // stop the periodic writes, writing the final figures once more
+    public synchronized void stopDump() {
+        if (dumper == null) {
+            return;
+        }
+        dumper.shutdown();
+        try {
+            dumper.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dumper = null;
+        dump();
+    }
+
+    // write the snapshot to a temp file and rename it so readers never see half a dump
+    private void dump() {
+        File temp = new File(dumpFile.getPath() + ".tmp");
+        try {
+            Files.write(temp.toPath(), snapshot().format().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp.toPath(), dumpFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error writing metrics to " + dumpFile.getName() + ": " + e.getMessage());
+        }
+    }
+}
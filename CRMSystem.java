@@ -1,5 +1,21 @@
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
 
 /**
  * CRMSystem implements Singleton pattern, as only one instance exists
@@ -9,18 +25,76 @@ import java.io.*;
  * searches customers, creates tasks, generates reports
  * notifies observer when things happen
  * it is kept a seperate file as core logic is seperate from UI
+ * 
+ * it is safe to use from many threads, each entity type has its own read/write lock
+ * so readers never block each other and writers only wait for writers of the same type
+ * locks are always taken in the order customers, communications, tasks
  */
 
 public class CRMSystem extends Subject {
-    private static CRMSystem instance;
     private static boolean initialized = false;
     
     // File paths
-    private String dataDir = "crm_data";
+    private String dataDir = System.getProperty("crm.dataDir", "crm_data");
     private String customersFile = dataDir + File.separator + "customers.csv";
     private String communicationsFile = dataDir + File.separator + "communications.csv";
     private String tasksFile = dataDir + File.separator + "tasks.csv";
     
+    // Persistence mode, "snapshot" rewrites the csv files on every change,
+    // "journal" appends each change to the journal and compacts in the background
+    private boolean journalMode = "journal".equalsIgnoreCase(System.getProperty("crm.persistence", "snapshot"));
+    // Snapshot format, "csv" (default) or "binary" for customers.bin, communications.bin and tasks.bin
+    // in binary mode the csv files are only read when no binary snapshot exists yet
+    private boolean binaryFormat = "binary".equalsIgnoreCase(System.getProperty("crm.storage.format", "csv"));
+    // Storage layout, crm.partitions above 1 on a new data directory splits each data file into that
+    // many files by a hash of customer id (see PartitionIndex), so they load in parallel and a change
+    // only rewrites its own partition. An existing directory keeps its layout, recorded in
+    // partitions.properties, until it is migrated with CRMApplication --partition N
+    private volatile int partitions = 1;
+    private static final String PARTITION_MANIFEST = "partitions.properties";
+    // In-memory layout of communications, "objects" (default) or "columnar", see CommunicationStore
+    private boolean columnarCommunications = "columnar".equalsIgnoreCase(System.getProperty("crm.communications.store", "objects"));
+    private long compactIntervalSeconds = Long.getLong("crm.journal.compactSeconds", 30);
+    private CRMJournal journal;
+    private ScheduledExecutorService compactor;
+    
+    // changes are persisted through group commits, concurrent changes share one write,
+    // crm.durability picks when the writes are fsynced: "every-write", "interval" or "os" (default)
+    private DurabilityPolicy durability = DurabilityPolicy.parse(System.getProperty("crm.durability", "os"));
+    private long durabilityIntervalMillis = Long.getLong("crm.durability.intervalMillis", 1000);
+    // how long a commit leader waits for more changes to join its write, only worth it when each write is fsynced
+    private long groupWindowMicros = Long.getLong("crm.durability.windowMicros",
+                                                  durability == DurabilityPolicy.EVERY_WRITE ? 500 : 0);
+    // one per snapshot file, in journal mode all three are the journal's
+    private GroupCommit customerCommit;
+    private GroupCommit communicationCommit;
+    private GroupCommit taskCommit;
+    private ScheduledExecutorService durabilityFlusher;
+    
+    // latency histograms and counters of operations and persistence calls, crm.metrics=false turns them off,
+    // the latest figures are written to crm.metrics.file every crm.metrics.dumpSeconds (0 for never)
+    private final CRMMetrics metrics = new CRMMetrics(Boolean.parseBoolean(System.getProperty("crm.metrics", "true")));
+    
+    // pending tasks become OVERDUE at their due date and a task_due_soon event is sent
+    // crm.tasks.dueSoonHours before, the scheduler thread only wakes at those moments
+    private long dueSoonMillis = TimeUnit.HOURS.toMillis(Long.getLong("crm.tasks.dueSoonHours", 24));
+    private boolean taskSchedulerEnabled = Boolean.parseBoolean(System.getProperty("crm.tasks.scheduler", "true"));
+    private ScheduledExecutorService taskScheduler;
+    private final Object dueCheckLock = new Object();
+    private ScheduledFuture<?> dueCheck;        // guarded by dueCheckLock
+    private long dueCheckAt = Long.MAX_VALUE;   // guarded by dueCheckLock
+    // longest sleep between due checks, so a changed system clock is noticed
+    private static final long MAX_DUE_CHECK_DELAY = TimeUnit.HOURS.toMillis(1);
+    
+    // startup time per data file
+    private final Map<String, Long> loadTimes = Collections.synchronizedMap(new LinkedHashMap<>());
+    private boolean reportLoadTimes = Boolean.parseBoolean(System.getProperty("crm.reportLoadTimes", "true"));
+    
+    // one lock per entity type guarding its list and indexes
+    private final ReentrantReadWriteLock customerLock = new ReentrantReadWriteLock();
+    private final ReentrantReadWriteLock communicationLock = new ReentrantReadWriteLock();
+    private final ReentrantReadWriteLock taskLock = new ReentrantReadWriteLock();
+    
     // Factories
     private CustomerFactory customerFactory;
     private CommunicationFactory communicationFactory;
@@ -31,13 +105,52 @@ public class CRMSystem extends Subject {
     
     // Application state
     private String currentUser = "admin";
-    private boolean sessionActive = true;
+    private volatile boolean sessionActive = true;
     
     // data storage
     private List<Customer> customers;
-    private List<Communication> communications;
+    private CommunicationStore communications;
     private List<Task> tasks;
     
+    // primary key indexes kept alongside the lists
+    private Map<String, Customer> customersById;
+    private Map<String, Task> tasksById;
+    
+    // customerId -> entries for that customer, in insertion order
+    // communications keep their own per-customer index in the store
+    private Map<String, List<Task>> tasksByCustomer;
+    
+    // trigram index for searchCustomers
+    private CustomerSearchIndex customerSearchIndex;
+    
+    // inverted tag index over communications
+    private TagIndex tagIndex;
+    
+    // customers counted per task in the communication frequency report
+    private static final int REPORT_CHUNK = 4096;
+    // rows tested per task when a query scans all rows
+    private static final int QUERY_CHUNK = 4096;
+    
+    // task counts per status, kept up to date for the completion report
+    private TaskStatusCounters taskStatusCounters;
+    
+    // pending tasks sorted by due date for the task scheduler
+    private TaskDueIndex taskDueIndex;
+    
+    // positions sorted by date for the date range queries
+    private DateIndex communicationDateIndex;
+    private DateIndex taskDueDateIndex;
+    
+    // the rows of each partition file and the partitions changed since they were written, null with one file
+    private PartitionIndex customerPartitions;
+    private PartitionIndex communicationPartitions;
+    private PartitionIndex taskPartitions;
+    
+    // page cursors hold a position in a list, counted up when the data is reloaded so old cursors are refused
+    private volatile long dataGeneration = 0;
+    // page size used by the stream methods, each page is copied under the lock and then streamed without it
+    private static final int STREAM_PAGE_SIZE = 256;
+    
     // private constructor for singleton pattern
     private CRMSystem() {
         if (!initialized) {
@@ -50,29 +163,178 @@ public class CRMSystem extends Subject {
             notificationManager = new NotificationManager();
             attach(notificationManager);
             
-            // Initialize data storage
-            customers = new ArrayList<>();
-            communications = new ArrayList<>();
-            tasks = new ArrayList<>();
+            // "async" delivers notifications on a dispatcher thread instead of the caller's
+            if ("async".equalsIgnoreCase(System.getProperty("crm.dispatch", "sync"))) {
+                enableAsyncDispatch(Integer.getInteger("crm.dispatch.capacity", 1024),
+                                    BackpressurePolicy.valueOf(System.getProperty("crm.dispatch.backpressure", "BLOCK").toUpperCase()),
+                                    Integer.getInteger("crm.dispatch.batchSize", 256));
+            }
             
             ensureDataDirectory();
+            partitions = readPartitionLayout();
+            
+            // Initialize data storage
+            initStorage();
+            
+            recoverSnapshots();
             ensureCSVFiles();
+            journal = new CRMJournal(dataDir);
+            initCommits();
             loadData();
+            if (journalMode) {
+                startCompactor();
+            }
+            if (taskSchedulerEnabled) {
+                startTaskScheduler();
+            }
+            metrics.startDump(new File(System.getProperty("crm.metrics.file", dataDir + File.separator + "metrics.txt")),
+                              Long.getLong("crm.metrics.dumpSeconds", 60));
             
             initialized = true;
         }
     }
     
+    // holder class, the JVM creates the instance once on first use and publishes it safely to all threads
+    private static class InstanceHolder {
+        private static final CRMSystem INSTANCE = new CRMSystem();
+    }
+    
     /**
      * Get the singleton instance of CRMSystem
      * 
      * @return The singleton CRMSystem instance
      */
     public static CRMSystem getInstance() {
-        if (instance == null) {
-            instance = new CRMSystem();
+        return InstanceHolder.INSTANCE;
+    }
+    
+    // create empty data storage and indexes
+    private void initStorage() {
+        customers = new ArrayList<>();
+        communications = columnarCommunications ? new ColumnarCommunicationStore() : new ObjectCommunicationStore();
+        tasks = new ArrayList<>();
+        customersById = new HashMap<>();
+        tasksById = new HashMap<>();
+        tasksByCustomer = new HashMap<>();
+        customerSearchIndex = new CustomerSearchIndex();
+        tagIndex = new TagIndex();
+        taskStatusCounters = new TaskStatusCounters();
+        taskDueIndex = new TaskDueIndex(dueSoonMillis);
+        communicationDateIndex = new DateIndex();
+        taskDueDateIndex = new DateIndex();
+        customerPartitions = partitions > 1 ? new PartitionIndex(partitions) : null;
+        communicationPartitions = partitions > 1 ? new PartitionIndex(partitions) : null;
+        taskPartitions = partitions > 1 ? new PartitionIndex(partitions) : null;
+        dataGeneration++;
+    }
+    
+    /**
+     * Throw away everything in memory and load it again from the data files
+     * Used by the benchmarks to time a cold load
+     */
+    void reloadData() {
+        // deferred snapshot writes must reach the files before they are read back
+        flushCommits(false);
+        customerLock.writeLock().lock();
+        communicationLock.writeLock().lock();
+        taskLock.writeLock().lock();
+        try {
+            initStorage();
+            loadData();
+            scheduleDueCheck(taskDueIndex.nextBoundary());
+        } finally {
+            taskLock.writeLock().unlock();
+            communicationLock.writeLock().unlock();
+            customerLock.writeLock().unlock();
+        }
+    }
+    
+    // finish or undo snapshot saves interrupted by a crash before anything is loaded
+    private void recoverSnapshots() {
+        for (String csvFile : new String[]{customersFile, communicationsFile, tasksFile}) {
+            for (File file : dataFiles(csvFile, partitions)) {
+                SnapshotFiles.recover(file);
+                if (binaryFormat) {
+                    SnapshotFiles.recover(snapshotFile(file.getPath()));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Read the storage layout of the data directory
+     * A directory without data takes crm.partitions, one with data keeps the layout it was
+     * written in so a changed setting never hides the existing files
+     * 
+     * @return The number of partition files per entity, 1 for the single file layout
+     */
+    private int readPartitionLayout() {
+        int requested = Integer.getInteger("crm.partitions", 1);
+        File manifest = new File(dataDir, PARTITION_MANIFEST);
+        SnapshotFiles.recover(manifest);
+        if (manifest.exists()) {
+            Properties layout = new Properties();
+            try (Reader reader = new FileReader(manifest)) {
+                layout.load(reader);
+                int count = Integer.parseInt(layout.getProperty("partitions", "").trim());
+                if (count < 1 || count > 999) {
+                    throw new NumberFormatException("partitions must be between 1 and 999, not " + count);
+                }
+                if (requested > 1 && requested != count) {
+                    System.err.println("Data is stored in " + count + " partitions, ignoring crm.partitions=" + requested
+                                       + ", migrate with CRMApplication --partition " + requested);
+                }
+                return count;
+            } catch (IOException | NumberFormatException e) {
+                // guessing a layout would hide the data, so refuse to start
+                throw new IllegalStateException("Error reading " + manifest.getName() + ": " + e.getMessage(), e);
+            }
+        }
+        if (requested > 1) {
+            File customersCSV = new File(customersFile);
+            if (customersCSV.exists() || snapshotFile(customersFile).exists()) {
+                System.err.println("Data is stored in single files, ignoring crm.partitions=" + requested
+                                   + ", migrate with CRMApplication --partition " + requested);
+                return 1;
+            }
+            try {
+                writePartitionManifest(requested);
+                return requested;
+            } catch (IOException e) {
+                System.err.println("Error writing " + manifest.getName() + ": " + e.getMessage());
+            }
+        }
+        return 1;
+    }
+    
+    // record the layout, the manifest is replaced atomically as it decides which files hold the data
+    private void writePartitionManifest(int count) throws IOException {
+        File manifest = new File(dataDir, PARTITION_MANIFEST);
+        if (count == 1) {
+            // the backup first, recover would bring back an older layout from it
+            Files.deleteIfExists(SnapshotFiles.backupFile(manifest).toPath());
+            Files.deleteIfExists(manifest.toPath());
+            return;
+        }
+        SnapshotFiles.replace(manifest, true, out -> {
+            Writer writer = new OutputStreamWriter(out, "UTF-8");
+            writer.write("# data files per entity, change with CRMApplication --partition N\n");
+            writer.write("partitions=" + count + "\n");
+            writer.flush();
+        });
+    }
+    
+    // the csv files of an entity in a layout, the single file or one per partition
+    private static List<File> dataFiles(String csvFile, int count) {
+        File file = new File(csvFile);
+        if (count == 1) {
+            return Collections.singletonList(file);
+        }
+        List<File> files = new ArrayList<>(count);
+        for (int partition = 0; partition < count; partition++) {
+            files.add(PartitionIndex.fileOf(file, partition, count));
         }
-        return instance;
+        return files;
     }
     
     // ensure data directory exist
@@ -86,383 +348,2276 @@ public class CRMSystem extends Subject {
     // ensure csv files exist with correct headers
     private void ensureCSVFiles() {
         try {
-            // Create customers.csv if it doesn't exist
-            File customersCSV = new File(customersFile);
-            if (!customersCSV.exists()) {
-                try (PrintWriter writer = new PrintWriter(new FileWriter(customersCSV))) {
-                    writer.println("id,name,email,phone,company,notes,created_date");
-                }
-            }
-            
-            // Create communications.csv if it doesn't exist
-            File communicationsCSV = new File(communicationsFile);
-            if (!communicationsCSV.exists()) {
-                try (PrintWriter writer = new PrintWriter(new FileWriter(communicationsCSV))) {
-                    writer.println("id,customer_id,type,date,subject,notes,tags");
-                }
-            }
-            
-            // Create tasks.csv if it doesn't exist
-            File tasksCSV = new File(tasksFile);
-            if (!tasksCSV.exists()) {
-                try (PrintWriter writer = new PrintWriter(new FileWriter(tasksCSV))) {
-                    writer.println("id,customer_id,title,description,due_date,status,created_date,assigned_to");
-                }
-            }
+            // Create customers.csv, communications.csv and tasks.csv, or their partitions, if they don't exist
+            ensureCSVFiles(customersFile, CSVFormat.CUSTOMERS_HEADER);
+            ensureCSVFiles(communicationsFile, CSVFormat.COMMUNICATIONS_HEADER);
+            ensureCSVFiles(tasksFile, CSVFormat.TASKS_HEADER);
         } catch (IOException e) {
             System.err.println("Error creating CSV files: " + e.getMessage());
         }
     }
     
-    //  Load all data from CSV files
+    // create the missing data files of an entity with just the header
+    private void ensureCSVFiles(String csvFile, String header) throws IOException {
+        for (File file : dataFiles(csvFile, partitions)) {
+            if (!file.exists()) {
+                try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+                    writer.println(header);
+                }
+            }
+        }
+    }
+    
+    //  Load all data from CSV files, then replay any journal records written after the last snapshot
     private void loadData() {
-        loadCustomers();
-        loadCommunications();
-        loadTasks();
+        if (partitions > 1) {
+            loadPartitions();
+        } else {
+            loadCustomers();
+            loadCommunications();
+            loadTasks();
+        }
+        // the files hold everything loaded so far, only the replayed changes still need writing
+        for (PartitionIndex index : new PartitionIndex[]{customerPartitions, communicationPartitions, taskPartitions}) {
+            if (index != null) {
+                index.clearDirty();
+            }
+        }
+        replayJournal();
     }
     
-    // loading customers.csv
-    private void loadCustomers() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(customersFile))) {
-            String line;
-            boolean isHeader = true;
-            while ((line = reader.readLine()) != null) {
-                if (isHeader) {
-                    isHeader = false;
-                    continue;
-                }
-                String[] parts = parseCSVLine(line);
-                if (parts.length >= 7) {
-                    Customer customer = new Customer(parts[0], parts[1], parts[2], parts[3], 
-                                                   parts[4], parts[5], parts[6]);
-                    customers.add(customer);
+    // apply journal records on top of the loaded snapshots
+    // records can be replayed twice if a compaction was interrupted so adds are skipped when the id is known
+    private void replayJournal() {
+        long started = metrics.start();
+        Set<String> communicationIds = new HashSet<>();
+        for (int i = 0; i < communications.size(); i++) communicationIds.add(communications.getId(i));
+        
+        int replayed = journal.replay(line -> {
+            String[] parts = CSVFormat.parseLine(line);
+            String[] fields = Arrays.copyOfRange(parts, 1, parts.length);
+            try {
+                switch (parts[0]) {
+                    case CRMJournal.CUSTOMER:
+                        if (parts.length >= 8 && !customersById.containsKey(parts[1])) {
+                            addCustomer(Customer.fromCSVArray(fields));
+                        }
+                        break;
+                    case CRMJournal.COMMUNICATION:
+                        if (parts.length >= 8 && communicationIds.add(parts[1])) {
+                            addCommunication(Communication.fromCSVArray(fields));
+                        }
+                        break;
+                    case CRMJournal.TASK:
+                        if (parts.length >= 9 && !tasksById.containsKey(parts[1])) {
+                            addTask(Task.fromCSVArray(fields));
+                        }
+                        break;
+                    case CRMJournal.TASK_STATUS:
+                        if (parts.length >= 3) {
+                            Task task = tasksById.get(parts[1]);
+                            if (task != null) {
+                                setTaskStatus(task, TaskStatus.valueOf(parts[2].toUpperCase()));
+                            }
+                        }
+                        break;
+                    default:
+                        System.err.println("Skipping unknown journal record: " + parts[0]);
                 }
+            } catch (IllegalArgumentException e) {
+                System.err.println("Skipping invalid journal record: " + line);
             }
-        } catch (IOException e) {
-            // File doesn't exist, but it is okay as its first run
+        });
+        metrics.record("journal.replay", started);
+        metrics.increment("journal.replayed", replayed);
+        
+        // outside journal mode fold the records straight back into the snapshots
+        if (replayed > 0 && !journalMode) {
+            compactJournal();
+        }
+    }
+    
+    // loading customers.csv, or customers.bin in binary mode once it exists
+    private void loadCustomers() {
+        long start = System.nanoTime();
+        File csvFile = new File(customersFile);
+        for (Customer customer : readDataFile(csvFile, this::readCustomers)) {
+            addCustomer(customer);
         }
+        recordLoadTime(sourceFile(csvFile).getName(), customers.size(), start);
     }
     
-    // load communications data from csv file
+    // load communications data from csv file, or the binary snapshot in binary mode
     private void loadCommunications() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(communicationsFile))) {
-            String line;
-            boolean isHeader = true;
-            while ((line = reader.readLine()) != null) {
-                if (isHeader) {
-                    isHeader = false;
-                    continue;
-                }
-                String[] parts = parseCSVLine(line);
-                if (parts.length >= 7) {
-                    try {
-                        CommunicationType type = CommunicationType.valueOf(parts[2].toUpperCase());
-                        Communication comm = new Communication(parts[0], parts[1], type, parts[3], 
-                                                              parts[4], parts[5], parts[6]);
-                        communications.add(comm);
-                    } catch (IllegalArgumentException e) {
-                        System.err.println("Skipping communication with invalid type: " + parts[2]);
-                    }
-                }
+        long start = System.nanoTime();
+        File csvFile = new File(communicationsFile);
+        for (Communication comm : readDataFile(csvFile, this::readCommunications)) {
+            addCommunication(comm);
+        }
+        recordLoadTime(sourceFile(csvFile).getName(), communications.size(), start);
+    }
+    
+    // load the tasks data from csv files, or the binary snapshot in binary mode
+    private void loadTasks() {
+        long start = System.nanoTime();
+        File csvFile = new File(tasksFile);
+        for (Task task : readDataFile(csvFile, this::readTasks)) {
+            addTask(task);
+        }
+        recordLoadTime(sourceFile(csvFile).getName(), tasks.size(), start);
+    }
+    
+    /**
+     * Load every partition file of every entity at once on the common pool
+     * The rows are added partition by partition once read, so the rows of one customer keep
+     * their order but rows of different customers come grouped by partition
+     */
+    private void loadPartitions() {
+        long start = System.nanoTime();
+        List<Future<List<Customer>>> customerParts = readPartitions(customersFile, this::readCustomers);
+        List<Future<List<Communication>>> communicationParts = readPartitions(communicationsFile, this::readCommunications);
+        List<Future<List<Task>>> taskParts = readPartitions(tasksFile, this::readTasks);
+        
+        addPartitions(customerParts, this::addCustomer);
+        recordLoadTime(partitionLabel(customersFile), customers.size(), start);
+        addPartitions(communicationParts, this::addCommunication);
+        recordLoadTime(partitionLabel(communicationsFile), communications.size(), start);
+        addPartitions(taskParts, this::addTask);
+        recordLoadTime(partitionLabel(tasksFile), tasks.size(), start);
+    }
+    
+    // start reading each partition file of an entity
+    private <T> List<Future<List<T>>> readPartitions(String csvFile, SnapshotFiles.Loader<T> reader) {
+        List<Future<List<T>>> parts = new ArrayList<>(partitions);
+        for (File file : dataFiles(csvFile, partitions)) {
+            parts.add(ForkJoinPool.commonPool().submit(() -> readDataFile(file, reader)));
+        }
+        return parts;
+    }
+    
+    // add the rows of each partition in partition order as its read finishes
+    private static <T> void addPartitions(List<Future<List<T>>> parts, Consumer<T> add) {
+        for (Future<List<T>> part : parts) {
+            List<T> rows;
+            try {
+                rows = part.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while loading data", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Error loading data", e.getCause());
             }
-        } catch (IOException e) {
+            for (T row : rows) {
+                add.accept(row);
+            }
+        }
+    }
+    
+    // read one data file, a missing file is no rows as on the first run
+    private static <T> List<T> readDataFile(File csvFile, SnapshotFiles.Loader<T> reader) {
+        try {
+            return reader.load(csvFile);
+        } catch (FileNotFoundException | NoSuchFileException e) {
             // File doesn't exist, but it is okay as its first run
+        } catch (IOException e) {
+            System.err.println("Error loading " + csvFile.getName() + ": " + e.getMessage());
         }
+        return Collections.emptyList();
     }
     
-    // load the tasks data from csv files
-    private void loadTasks() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(tasksFile))) {
-            String line;
-            boolean isHeader = true;
-            while ((line = reader.readLine()) != null) {
-                if (isHeader) {
-                    isHeader = false;
-                    continue;
+    // read a customers csv file, or its binary snapshot in binary mode once it exists
+    private List<Customer> readCustomers(File csvFile) throws IOException {
+        File file = sourceFile(csvFile);
+        return file != csvFile
+            ? SnapshotFiles.load(file, BinarySnapshot::readCustomers)
+            : SnapshotFiles.load(file, f -> CSVLoader.loadSnapshot(f, Customer::fromCSVArray));
+    }
+    
+    private List<Communication> readCommunications(File csvFile) throws IOException {
+        File file = sourceFile(csvFile);
+        return file != csvFile
+            ? SnapshotFiles.load(file, BinarySnapshot::readCommunications)
+            : SnapshotFiles.load(file, f -> CSVLoader.loadSnapshot(f, parts -> {
+                try {
+                    return Communication.fromCSVArray(parts);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Skipping communication with invalid type: " + parts[2]);
+                    return null;
                 }
-                String[] parts = parseCSVLine(line);
-                if (parts.length >= 8) {
-                    try {
-                        TaskStatus status = TaskStatus.valueOf(parts[5].toUpperCase());
-                        Task task = new Task(parts[0], parts[1], parts[2], parts[3], 
-                                            parts[4], status, parts[6], parts[7]);
-                        tasks.add(task);
-                    } catch (IllegalArgumentException e) {
-                        System.err.println("Skipping task with invalid status: " + parts[5]);
-                    }
+            }));
+    }
+    
+    private List<Task> readTasks(File csvFile) throws IOException {
+        File file = sourceFile(csvFile);
+        return file != csvFile
+            ? SnapshotFiles.load(file, BinarySnapshot::readTasks)
+            : SnapshotFiles.load(file, f -> CSVLoader.loadSnapshot(f, parts -> {
+                try {
+                    return Task.fromCSVArray(parts);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Skipping task with invalid status: " + parts[5]);
+                    return null;
                 }
-            }
-        } catch (IOException e) {
-            // File doesn't exist, but it is okay as its first run
+            }));
+    }
+    
+    // the file a csv path is loaded from, its binary snapshot in binary mode once that exists
+    private File sourceFile(File csvFile) {
+        File binary = snapshotFile(csvFile.getPath());
+        return binaryFormat && binary.exists() ? binary : csvFile;
+    }
+    
+    // the name the load time of an entity's partition files is kept under, for example tasks-*-of-008.csv
+    private String partitionLabel(String csvFile) {
+        File first = PartitionIndex.fileOf(new File(csvFile), 0, partitions);
+        return PartitionIndex.namePattern(sourceFile(first) != first ? snapshotFile(csvFile) : new File(csvFile), partitions);
+    }
+    
+    // the snapshot file for a csv path in the configured storage format
+    private File snapshotFile(String csvFile) {
+        return new File(binaryFormat ? csvFile.substring(0, csvFile.length() - 4) + ".bin" : csvFile);
+    }
+    
+    // remember and report how long a data file took to load
+    private void recordLoadTime(String fileName, int rows, long startNanos) {
+        long millis = (System.nanoTime() - startNanos) / 1_000_000;
+        loadTimes.put(fileName, millis);
+        metrics.record("load." + fileName, startNanos);
+        if (reportLoadTimes) {
+            System.out.printf("Loaded %d rows from %s in %d ms\n", rows, fileName, millis);
         }
     }
     
-    // parses CSV line handling quotes and commas
-    private String[] parseCSVLine(String line) {
-        List<String> result = new ArrayList<>();
-        boolean inQuotes = false;
-        StringBuilder currentField = new StringBuilder();
-        
-        for (int i = 0; i < line.length(); i++) {
-            char c = line.charAt(i);
-            if (c == '"') {
-                inQuotes = !inQuotes;
-            } else if (c == ',' && !inQuotes) {
-                result.add(currentField.toString().trim());
-                currentField = new StringBuilder();
-            } else {
-                currentField.append(c);
-            }
+    /**
+     * Get how long each data file took to load at the last startup or reload
+     * 
+     * @return File name to load time in milliseconds, in load order
+     */
+    public Map<String, Long> getLoadTimes() {
+        return new LinkedHashMap<>(loadTimes);
+    }
+    
+    // add a customer to storage and its indexes
+    // ids are not guaranteed unique, the first customer with an id wins like the old linear scan
+    private void addCustomer(Customer customer) {
+        customers.add(customer);
+        if (customerPartitions != null) {
+            customerPartitions.add(customers.size() - 1, customer.getId());
+        }
+        customersById.putIfAbsent(customer.getId(), customer);
+        customerFactory.observeId(customer.getId());
+        customerSearchIndex.add(customer);
+    }
+    
+    // add a communication to storage and its indexes
+    private void addCommunication(Communication comm) {
+        int position = communications.add(comm);
+        if (communicationPartitions != null) {
+            communicationPartitions.add(position, comm.getCustomerId());
+        }
+        tagIndex.add(position, comm);
+        communicationDateIndex.add(comm.getDateValue(), position);
+        communicationFactory.observeId(comm.getId());
+    }
+    
+    // add a task to storage and its indexes
+    private void addTask(Task task) {
+        tasks.add(task);
+        if (taskPartitions != null) {
+            taskPartitions.add(tasks.size() - 1, task.getCustomerId());
+        }
+        taskDueDateIndex.add(task.getDueDateValue(), tasks.size() - 1);
+        tasksById.putIfAbsent(task.getId(), task);
+        taskFactory.observeId(task.getId());
+        tasksByCustomer.computeIfAbsent(task.getCustomerId(), k -> new ArrayList<>()).add(task);
+        taskStatusCounters.add(task);
+        indexDueDate(task);
+    }
+    
+    // change the status of a stored task, its counters and whether it waits for its due date
+    private void setTaskStatus(Task task, TaskStatus status) {
+        TaskStatus oldStatus = task.getStatus();
+        task.setStatus(status);
+        if (taskPartitions != null) {
+            taskPartitions.changed(task.getCustomerId());
+        }
+        taskStatusCounters.statusChanged(task, oldStatus);
+        if (oldStatus == TaskStatus.PENDING && status != TaskStatus.PENDING) {
+            taskDueIndex.remove(task);
+        } else if (oldStatus != TaskStatus.PENDING && status == TaskStatus.PENDING) {
+            indexDueDate(task);
         }
-        result.add(currentField.toString().trim());
-        
-        return result.toArray(new String[0]);
     }
     
+    // add a pending task to the due date index and wake the scheduler earlier if needed
+    private void indexDueDate(Task task) {
+        taskDueIndex.add(task);
+        if (task.getStatus() == TaskStatus.PENDING) {
+            scheduleDueCheck(taskDueIndex.nextBoundary());
+        }
+    }
     
     // here are the customer management methods
-    // first is creating new customer
-    public void createCustomer(String name, String email, String phone, String company, String notes) {
-        Map<String, Object> params = new HashMap<>();
-        params.put("name", name);
-        params.put("email", email);
-        params.put("phone", phone);
-        params.put("company", company);
-        params.put("notes", notes);
+    // first is creating new customer, returns the customer with its new ID
+    public Customer createCustomer(String name, String email, String phone, String company, String notes) {
+        long started = metrics.start();
+        try {
+            Map<String, Object> params = new HashMap<>();
+            params.put("name", name);
+            params.put("email", email);
+            params.put("phone", phone);
+            params.put("company", company);
+            params.put("notes", notes);
         
-        Customer customer = customerFactory.create(params);
-        customers.add(customer);
-        saveCustomers();
+            Customer customer = customerFactory.create(params);
+            applyChange(customerLock, () -> addCustomer(customer),
+                        CRMJournal.CUSTOMER, customer.toCSVArray(), customerCommit);
         
-        Map<String, Object> notificationData = new HashMap<>();
-        notificationData.put("name", customer.getName());
-        notifyObservers("customer_created", notificationData);
+            Map<String, Object> notificationData = new HashMap<>();
+            notificationData.put("name", customer.getName());
+            notifyObservers("customer_created", notificationData);
+            return customer;
+        } finally {
+            metrics.record("createCustomer", started);
+        }
     }
     
     // Search customers by name, email, or company
     public List<Customer> searchCustomers(String searchTerm) {
-        List<Customer> results = new ArrayList<>();
-        String term = searchTerm.toLowerCase();
-        
-        for (Customer customer : customers) {
-            if (customer.getName().toLowerCase().contains(term) ||
-                customer.getEmail().toLowerCase().contains(term) ||
-                customer.getCompany().toLowerCase().contains(term)) {
-                results.add(customer);
+        return searchCustomers(searchTerm, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Search customers by name, email, or company using the trigram index
+     * Matching is case-insensitive substring matching, results are ranked with
+     * exact and prefix matches first and name matches above email and company
+     * 
+     * @param searchTerm The text to search for
+     * @param limit The maximum number of results to return
+     * @return Matching customers, best match first
+     */
+    public List<Customer> searchCustomers(String searchTerm, int limit) {
+        long started = metrics.start();
+        customerLock.readLock().lock();
+        try {
+            List<Customer> results = new ArrayList<>();
+            for (int position : customerSearchIndex.search(searchTerm, limit)) {
+                results.add(customers.get(position));
             }
+            return results;
+        } finally {
+            customerLock.readLock().unlock();
+            metrics.record("searchCustomers", started);
         }
-        return results;
     }
     
     // Get customer by ID
     public Customer getCustomerById(String id) {
-        for (Customer customer : customers) {
-            if (customer.getId().equals(id)) {
-                return customer;
-            }
+        long started = metrics.start();
+        customerLock.readLock().lock();
+        try {
+            return customersById.get(id);
+        } finally {
+            customerLock.readLock().unlock();
+            metrics.record("getCustomerById", started);
         }
-        return null;
     }
     
     // Get all customers
     public List<Customer> getAllCustomers() {
-        return new ArrayList<>(customers);
+        long started = metrics.start();
+        customerLock.readLock().lock();
+        try {
+            return new ArrayList<>(customers);
+        } finally {
+            customerLock.readLock().unlock();
+            metrics.record("getAllCustomers", started);
+        }
+    }
+    
+    /**
+     * Get a page of all customers in the order they were created
+     * 
+     * @param cursor null for the first page, or the next cursor of the previous page
+     * @param pageSize Most customers to return
+     * @return The page, its next cursor is null after the last customer
+     * @throws IllegalArgumentException If the cursor is not from this listing or pageSize is below 1
+     */
+    public Page<Customer> getCustomersPage(String cursor, int pageSize) {
+        long started = metrics.start();
+        customerLock.readLock().lock();
+        try {
+            return pageOf(customers, "customers", cursor, pageSize);
+        } finally {
+            customerLock.readLock().unlock();
+            metrics.record("getCustomersPage", started);
+        }
+    }
+    
+    // every customer in creation order, fetched a page at a time as the stream is read
+    public Stream<Customer> streamCustomers() {
+        return Page.stream(cursor -> getCustomersPage(cursor, STREAM_PAGE_SIZE));
+    }
+    
+    /**
+     * Run an action on every customer in creation order without copying the list
+     * The action runs under the customer read lock, it should be quick and must not change CRM data
+     * 
+     * @param action Called with each customer
+     */
+    public void forEachCustomer(Consumer<? super Customer> action) {
+        customerLock.readLock().lock();
+        try {
+            customers.forEach(action);
+        } finally {
+            customerLock.readLock().unlock();
+        }
     }
     
 
     // Communication Management Methods
     
-    // Log a new communication
-    public void logCommunication(String customerId, CommunicationType type, String subject, 
+    // Log a new communication, returns it with its new ID
+    public Communication logCommunication(String customerId, CommunicationType type, String subject, 
                                 String notes, String tags) {
-        Map<String, Object> params = new HashMap<>();
-        params.put("customerId", customerId);
-        params.put("type", type);
-        params.put("subject", subject);
-        params.put("notes", notes);
-        params.put("tags", tags);
+        long started = metrics.start();
+        try {
+            Map<String, Object> params = new HashMap<>();
+            params.put("customerId", customerId);
+            params.put("type", type);
+            params.put("subject", subject);
+            params.put("notes", notes);
+            params.put("tags", tags);
         
-        Communication communication = communicationFactory.create(params);
-        communications.add(communication);
-        saveCommunications();
+            Communication communication = communicationFactory.create(params);
+            applyChange(communicationLock, () -> addCommunication(communication),
+                        CRMJournal.COMMUNICATION, communication.toCSVArray(), communicationCommit);
         
-        Customer customer = getCustomerById(customerId);
-        Map<String, Object> notificationData = new HashMap<>();
-        notificationData.put("customerName", customer != null ? customer.getName() : "Unknown");
-        notificationData.put("type", type.toString());
-        notifyObservers("communication_logged", notificationData);
+            Customer customer = getCustomerById(customerId);
+            Map<String, Object> notificationData = new HashMap<>();
+            notificationData.put("customerName", customer != null ? customer.getName() : "Unknown");
+            notificationData.put("type", type.toString());
+            notifyObservers("communication_logged", notificationData);
+            return communication;
+        } finally {
+            metrics.record("logCommunication", started);
+        }
     }
     
     // Get communications by customer ID
     public List<Communication> getCommunicationsByCustomer(String customerId) {
-        List<Communication> result = new ArrayList<>();
-        for (Communication comm : communications) {
-            if (comm.getCustomerId().equals(customerId)) {
-                result.add(comm);
-            }
+        long started = metrics.start();
+        communicationLock.readLock().lock();
+        try {
+            return communications.getByCustomer(customerId);
+        } finally {
+            communicationLock.readLock().unlock();
+            metrics.record("getCommunicationsByCustomer", started);
         }
-        return result;
     }
     
-    // Task Management Methods
+    /**
+     * Get a page of a customer's communications in the order they were logged
+     * 
+     * @param customerId The customer
+     * @param cursor null for the first page, or the next cursor of the previous page
+     * @param pageSize Most communications to return
+     * @return The page, its next cursor is null after the last communication
+     * @throws IllegalArgumentException If the cursor is not from this listing or pageSize is below 1
+     */
+    public Page<Communication> getCommunicationsByCustomerPage(String customerId, String cursor, int pageSize) {
+        long started = metrics.start();
+        checkPageSize(pageSize);
+        communicationLock.readLock().lock();
+        try {
+            String listing = "communications:" + customerId;
+            int from = Page.position(cursor, listing, dataGeneration);
+            List<Communication> items = communications.getByCustomer(customerId, from, pageSize);
+            int next = from + items.size();
+            return new Page<>(items, next < communications.countByCustomer(customerId)
+                                     ? Page.cursor(listing, dataGeneration, next) : null);
+        } finally {
+            communicationLock.readLock().unlock();
+            metrics.record("getCommunicationsByCustomerPage", started);
+        }
+    }
     
-    //Create a new task
-    public void createTask(String customerId, String title, String description, 
-                          String dueDate, String assignedTo) {
-        Map<String, Object> params = new HashMap<>();
-        params.put("customerId", customerId);
-        params.put("title", title);
-        params.put("description", description);
-        params.put("dueDate", dueDate);
-        params.put("assignedTo", assignedTo);
-        
-        Task task = taskFactory.create(params);
-        tasks.add(task);
-        saveTasks();
-        
-        Map<String, Object> notificationData = new HashMap<>();
-        notificationData.put("title", task.getTitle());
-        notificationData.put("dueDate", task.getDueDate());
-        notifyObservers("task_created", notificationData);
+    // a customer's communications in the order they were logged, fetched a page at a time
+    public Stream<Communication> streamCommunicationsByCustomer(String customerId) {
+        return Page.stream(cursor -> getCommunicationsByCustomerPage(customerId, cursor, STREAM_PAGE_SIZE));
     }
     
-    // Update task status
-    public void updateTaskStatus(String taskId, TaskStatus status) {
-        Task task = getTaskById(taskId);
-        if (task != null) {
-            task.setStatus(status);
-            saveTasks();
+    // run an action on each communication of a customer under the communication read lock, see forEachCustomer
+    public void forEachCommunicationOfCustomer(String customerId, Consumer<? super Communication> action) {
+        communicationLock.readLock().lock();
+        try {
+            communications.forEachOfCustomer(customerId, action);
+        } finally {
+            communicationLock.readLock().unlock();
         }
     }
     
-    // Get task by ID
-    public Task getTaskById(String id) {
-        for (Task task : tasks) {
-            if (task.getId().equals(id)) {
-                return task;
-            }
+    // like forEachCommunicationOfCustomer without building the communications, see CommunicationRow
+    public void forEachCommunicationRowOfCustomer(String customerId, Consumer<? super CommunicationRow> action) {
+        communicationLock.readLock().lock();
+        try {
+            communications.forEachRowOfCustomer(customerId, action);
+        } finally {
+            communicationLock.readLock().unlock();
         }
-        return null;
     }
     
-    // Get tasks by customer ID
-    public List<Task> getTasksByCustomer(String customerId) {
-        List<Task> result = new ArrayList<>();
-        for (Task task : tasks) {
-            if (task.getCustomerId().equals(customerId)) {
-                result.add(task);
+    /**
+     * Find communications by tag using the inverted tag index
+     * 
+     * @param tags The tags to look for, matched ignoring case
+     * @param matchAll true to require all tags (AND), false for any tag (OR)
+     * @param customerId Only return communications for this customer, or null for all customers
+     * @param type Only return communications of this type, or null for all types
+     * @return The matching communications in the order they were logged
+     */
+    public List<Communication> findCommunicationsByTags(Collection<String> tags, boolean matchAll,
+                                                        String customerId, CommunicationType type) {
+        long started = metrics.start();
+        communicationLock.readLock().lock();
+        try {
+            IntList positions = tagIndex.find(tags, matchAll, type);
+            List<Communication> result = new ArrayList<>();
+            for (int i = 0; i < positions.size(); i++) {
+                Communication comm = communications.get(positions.get(i));
+                if (customerId == null || comm.getCustomerId().equals(customerId)) {
+                    result.add(comm);
+                }
             }
+            return result;
+        } finally {
+            communicationLock.readLock().unlock();
+            metrics.record("findCommunicationsByTags", started);
         }
-        return result;
     }
     
-    // Get all pending tasks
-    public List<Task> getPendingTasks() {
-        List<Task> result = new ArrayList<>();
-        for (Task task : tasks) {
-            if (task.getStatus() == TaskStatus.PENDING) {
-                result.add(task);
+    /**
+     * Find communications dated within a range using the date index
+     * 
+     * @param from The earliest date, included
+     * @param to The latest date, included
+     * @return The communications in date order, those with an unreadable date are never returned
+     */
+    public List<Communication> getCommunicationsBetween(LocalDateTime from, LocalDateTime to) {
+        long started = metrics.start();
+        communicationLock.readLock().lock();
+        try {
+            IntList positions = communicationDateIndex.find(CRMDate.of(from).toLocalEpochSecond(),
+                                                            CRMDate.of(to).toLocalEpochSecond());
+            List<Communication> result = new ArrayList<>(positions.size());
+            for (int i = 0; i < positions.size(); i++) {
+                result.add(communications.get(positions.get(i)));
             }
+            return result;
+        } finally {
+            communicationLock.readLock().unlock();
+            metrics.record("getCommunicationsBetween", started);
         }
-        return result;
     }
     
-    // Reporting Methods
-    
-    // Generate customer activity report
-    public void generateCustomerActivityReport() {
-        System.out.println("\n=== CUSTOMER ACTIVITY REPORT ===");
-        for (Customer customer : customers) {
-            int commCount = getCommunicationsByCustomer(customer.getId()).size();
-            int taskCount = getTasksByCustomer(customer.getId()).size();
-            
-            System.out.printf("Customer: %s (%s)\n", customer.getName(), customer.getCompany());
-            System.out.printf("  Communications: %d\n", commCount);
-            System.out.printf("  Tasks: %d\n", taskCount);
-            System.out.println();
+    // Get all tags in use with how many communications carry each
+    public Map<String, Integer> getTagCounts() {
+        communicationLock.readLock().lock();
+        try {
+            return tagIndex.getTagCounts();
+        } finally {
+            communicationLock.readLock().unlock();
         }
     }
     
-    //Generate task completion report
-    public void generateTaskCompletionReport() {
-        System.out.println("\n=== TASK COMPLETION REPORT ===");
-        long pendingTasks = 0;
-        long completedTasks = 0;
-        long overdueTasks = 0;
-        
-        for (Task task : tasks) {
-            switch (task.getStatus()) {
-                case PENDING: pendingTasks++; break;
-                case COMPLETED: completedTasks++; break;
-                case OVERDUE: overdueTasks++; break;
-            }
+    // Count communications for a customer without copying them
+    public int getCommunicationCount(String customerId) {
+        communicationLock.readLock().lock();
+        try {
+            return communications.countByCustomer(customerId);
+        } finally {
+            communicationLock.readLock().unlock();
         }
+    }
+    
+    // Task Management Methods
+    
+    //Create a new task, returns it with its new ID
+    public Task createTask(String customerId, String title, String description, 
+                          String dueDate, String assignedTo) {
+        long started = metrics.start();
+        try {
+            Map<String, Object> params = new HashMap<>();
+            params.put("customerId", customerId);
+            params.put("title", title);
+            params.put("description", description);
+            params.put("dueDate", dueDate);
+            params.put("assignedTo", assignedTo);
         
-        System.out.printf("Pending Tasks: %d\n", pendingTasks);
-        System.out.printf("Completed Tasks: %d\n", completedTasks);
-        System.out.printf("Overdue Tasks: %d\n", overdueTasks);
-        System.out.printf("Total Tasks: %d\n", tasks.size());
+            Task task = taskFactory.create(params);
+            applyChange(taskLock, () -> addTask(task),
+                        CRMJournal.TASK, task.toCSVArray(), taskCommit);
         
-        if (tasks.size() > 0) {
-            double completionRate = (double) completedTasks / tasks.size() * 100;
-            System.out.printf("Completion Rate: %.1f%%\n", completionRate);
+            Map<String, Object> notificationData = new HashMap<>();
+            notificationData.put("title", task.getTitle());
+            notificationData.put("dueDate", task.getDueDate());
+            notifyObservers("task_created", notificationData);
+            return task;
+        } finally {
+            metrics.record("createTask", started);
         }
     }
     
-    // Data Persistence Methods
-    
-    //Save customers to CSV file
-    private void saveCustomers() {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(customersFile))) {
-            writer.println("id,name,email,phone,company,notes,created_date");
-            for (Customer customer : customers) {
-                writer.println(formatCSVLine(customer.toCSVArray()));
+    // Update task status
+    public void updateTaskStatus(String taskId, TaskStatus status) {
+        long started = metrics.start();
+        try {
+            Task task = getTaskById(taskId);
+            if (task != null) {
+                applyChange(taskLock, () -> setTaskStatus(task, status),
+                            CRMJournal.TASK_STATUS, new String[]{taskId, status.toString()}, taskCommit);
             }
-        } catch (IOException e) {
-            System.err.println("Error saving customers: " + e.getMessage());
+        } finally {
+            metrics.record("updateTaskStatus", started);
         }
     }
     
-    //Save communications to CSV file
-    private void saveCommunications() {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(communicationsFile))) {
-            writer.println("id,customer_id,type,date,subject,notes,tags");
-            for (Communication comm : communications) {
-                writer.println(formatCSVLine(comm.toCSVArray()));
-            }
-        } catch (IOException e) {
-            System.err.println("Error saving communications: " + e.getMessage());
+    // Get task by ID
+    public Task getTaskById(String id) {
+        long started = metrics.start();
+        taskLock.readLock().lock();
+        try {
+            return tasksById.get(id);
+        } finally {
+            taskLock.readLock().unlock();
+            metrics.record("getTaskById", started);
+        }
+    }
+    
+    // Get tasks by customer ID
+    public List<Task> getTasksByCustomer(String customerId) {
+        long started = metrics.start();
+        taskLock.readLock().lock();
+        try {
+            List<Task> customerTasks = tasksByCustomer.get(customerId);
+            return customerTasks != null ? new ArrayList<>(customerTasks) : new ArrayList<>();
+        } finally {
+            taskLock.readLock().unlock();
+            metrics.record("getTasksByCustomer", started);
+        }
+    }
+    
+    /**
+     * Get a page of a customer's tasks in the order they were created
+     * 
+     * @param customerId The customer
+     * @param cursor null for the first page, or the next cursor of the previous page
+     * @param pageSize Most tasks to return
+     * @return The page, its next cursor is null after the last task
+     * @throws IllegalArgumentException If the cursor is not from this listing or pageSize is below 1
+     */
+    public Page<Task> getTasksByCustomerPage(String customerId, String cursor, int pageSize) {
+        long started = metrics.start();
+        taskLock.readLock().lock();
+        try {
+            return pageOf(tasksByCustomer.getOrDefault(customerId, Collections.emptyList()),
+                          "tasks:" + customerId, cursor, pageSize);
+        } finally {
+            taskLock.readLock().unlock();
+            metrics.record("getTasksByCustomerPage", started);
+        }
+    }
+    
+    // a customer's tasks in the order they were created, fetched a page at a time
+    public Stream<Task> streamTasksByCustomer(String customerId) {
+        return Page.stream(cursor -> getTasksByCustomerPage(customerId, cursor, STREAM_PAGE_SIZE));
+    }
+    
+    // run an action on each task of a customer under the task read lock, see forEachCustomer
+    public void forEachTaskOfCustomer(String customerId, Consumer<? super Task> action) {
+        taskLock.readLock().lock();
+        try {
+            List<Task> customerTasks = tasksByCustomer.get(customerId);
+            if (customerTasks != null) {
+                customerTasks.forEach(action);
+            }
+        } finally {
+            taskLock.readLock().unlock();
+        }
+    }
+    
+    // Count tasks for a customer without copying them
+    public int getTaskCount(String customerId) {
+        taskLock.readLock().lock();
+        try {
+            List<Task> customerTasks = tasksByCustomer.get(customerId);
+            return customerTasks != null ? customerTasks.size() : 0;
+        } finally {
+            taskLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Find tasks due within a range using the due date index
+     * A due date without a time counts as the start of that day
+     * 
+     * @param from The earliest due date, included
+     * @param to The latest due date, included
+     * @return The tasks in due date order, those with an unreadable due date are never returned
+     */
+    public List<Task> getTasksDueBetween(LocalDateTime from, LocalDateTime to) {
+        long started = metrics.start();
+        taskLock.readLock().lock();
+        try {
+            IntList positions = taskDueDateIndex.find(CRMDate.of(from).toLocalEpochSecond(),
+                                                      CRMDate.of(to).toLocalEpochSecond());
+            List<Task> result = new ArrayList<>(positions.size());
+            for (int i = 0; i < positions.size(); i++) {
+                result.add(tasks.get(positions.get(i)));
+            }
+            return result;
+        } finally {
+            taskLock.readLock().unlock();
+            metrics.record("getTasksDueBetween", started);
+        }
+    }
+    
+    // Get all pending tasks
+    public List<Task> getPendingTasks() {
+        long started = metrics.start();
+        taskLock.readLock().lock();
+        try {
+            List<Task> result = new ArrayList<>();
+            for (Task task : tasks) {
+                if (task.getStatus() == TaskStatus.PENDING) {
+                    result.add(task);
+                }
+            }
+            return result;
+        } finally {
+            taskLock.readLock().unlock();
+            metrics.record("getPendingTasks", started);
         }
     }
     
-    //Save tasks to CSV file
-    private void saveTasks() {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(tasksFile))) {
-            writer.println("id,customer_id,title,description,due_date,status,created_date,assigned_to");
+    /**
+     * Get a page of the pending tasks in the order they were created
+     * The cursor is a position among all tasks, so a task completed between pages is simply
+     * not shown and one that becomes pending behind the cursor is not shown
+     * 
+     * @param cursor null for the first page, or the next cursor of the previous page
+     * @param pageSize Most tasks to return
+     * @return The page, its next cursor is null after the last pending task
+     * @throws IllegalArgumentException If the cursor is not from this listing or pageSize is below 1
+     */
+    public Page<Task> getPendingTasksPage(String cursor, int pageSize) {
+        long started = metrics.start();
+        checkPageSize(pageSize);
+        taskLock.readLock().lock();
+        try {
+            List<Task> result = new ArrayList<>(Math.min(pageSize, 1024));
+            int position = Page.position(cursor, "pending-tasks", dataGeneration);
+            for (; position < tasks.size(); position++) {
+                if (tasks.get(position).getStatus() == TaskStatus.PENDING) {
+                    if (result.size() == pageSize) {
+                        // the next page starts at the next pending task so the last page is never empty
+                        return new Page<>(result, Page.cursor("pending-tasks", dataGeneration, position));
+                    }
+                    result.add(tasks.get(position));
+                }
+            }
+            return new Page<>(result, null);
+        } finally {
+            taskLock.readLock().unlock();
+            metrics.record("getPendingTasksPage", started);
+        }
+    }
+    
+    // the pending tasks in the order they were created, fetched a page at a time
+    public Stream<Task> streamPendingTasks() {
+        return Page.stream(cursor -> getPendingTasksPage(cursor, STREAM_PAGE_SIZE));
+    }
+    
+    // run an action on each pending task under the task read lock, see forEachCustomer
+    public void forEachPendingTask(Consumer<? super Task> action) {
+        taskLock.readLock().lock();
+        try {
             for (Task task : tasks) {
-                writer.println(formatCSVLine(task.toCSVArray()));
+                if (task.getStatus() == TaskStatus.PENDING) {
+                    action.accept(task);
+                }
+            }
+        } finally {
+            taskLock.readLock().unlock();
+        }
+    }
+    
+    // a page of a list that is only ever added to, called with the list's read lock held
+    private <T> Page<T> pageOf(List<T> list, String listing, String cursor, int pageSize) {
+        checkPageSize(pageSize);
+        int from = Math.min(Page.position(cursor, listing, dataGeneration), list.size());
+        int to = (int) Math.min(list.size(), (long) from + pageSize);
+        return new Page<>(new ArrayList<>(list.subList(from, to)),
+                          to < list.size() ? Page.cursor(listing, dataGeneration, to) : null);
+    }
+    
+    private static void checkPageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1, not " + pageSize);
+        }
+    }
+    
+    /**
+     * Get the number of tasks in each status, read from counters without scanning the tasks
+     * 
+     * @return Status to count, every status is present
+     */
+    public Map<TaskStatus, Long> getTaskStatusCounts() {
+        taskLock.readLock().lock();
+        try {
+            return taskStatusCounters.getCounts();
+        } finally {
+            taskLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Get the number of tasks in each status for one customer
+     * 
+     * @param customerId The customer ID
+     * @return Status to count, every status is present
+     */
+    public Map<TaskStatus, Long> getTaskStatusCountsForCustomer(String customerId) {
+        taskLock.readLock().lock();
+        try {
+            return taskStatusCounters.getCountsForCustomer(customerId);
+        } finally {
+            taskLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Get the number of tasks in each status for one assignee
+     * 
+     * @param assignedTo The assignee
+     * @return Status to count, every status is present
+     */
+    public Map<TaskStatus, Long> getTaskStatusCountsForAssignee(String assignedTo) {
+        taskLock.readLock().lock();
+        try {
+            return taskStatusCounters.getCountsForAssignee(assignedTo);
+        } finally {
+            taskLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Get the task status counts of every assignee
+     * 
+     * @return Assignee to status counts, sorted by assignee
+     */
+    public Map<String, Map<TaskStatus, Long>> getTaskStatusCountsByAssignee() {
+        taskLock.readLock().lock();
+        try {
+            return taskStatusCounters.getCountsByAssignee();
+        } finally {
+            taskLock.readLock().unlock();
+        }
+    }
+    
+    // Bulk Import Methods
+    
+    /**
+     * Import many customers at once
+     * Every record is validated and gets a new ID unless it brings an unused one, then
+     * the whole batch is indexed, saved with one write (or one journal append) and
+     * announced with one bulk_import notification instead of one per customer
+     * 
+     * @param records Customer parameters as for createCustomer (name, email, phone, company, notes),
+     *                optionally id and createdDate, name is required
+     * @return How many customers were imported and why others were skipped
+     */
+    public ImportResult importCustomers(Iterable<Map<String, Object>> records) {
+        long start = System.nanoTime();
+        ImportResult result = new ImportResult("customers");
+        List<Customer> batch = new ArrayList<>();
+        List<Integer> batchRecords = new ArrayList<>();
+        int record = 0;
+        Set<String> batchIds = new HashSet<>();
+        for (Map<String, Object> params : records) {
+            record++;
+            String id = stringParam(params, "id");
+            if (!id.isEmpty() && (getCustomerById(id) != null || !batchIds.add(id))) {
+                result.skip(record, "duplicate id " + id);
+                continue;
+            }
+            if (stringParam(params, "name").isEmpty()) {
+                result.skip(record, "name is required");
+                continue;
+            }
+            Customer customer = customerFactory.create(params);
+            if (!id.isEmpty()) {
+                customer.setId(id);
+            }
+            CRMDate createdDate = CRMDate.parse(stringParam(params, "createdDate"));
+            if (createdDate.isValid()) {
+                customer.setCreatedDate(createdDate.toString());
+            }
+            batch.add(customer);
+            batchRecords.add(record);
+        }
+        applyChanges(customerLock, () -> {
+            dropStoredIds(batch, batchRecords, Customer::getId, customersById::containsKey, result);
+            batch.forEach(this::addCustomer);
+        },
+                     CRMJournal.CUSTOMER, batch, Customer::toCSVArray, customerCommit);
+        return finishImport(result, batch.size(), start);
+    }
+    
+    /**
+     * Import many communications at once, see importCustomers
+     * 
+     * @param records Communication parameters as for logCommunication (customerId, type, subject, notes, tags),
+     *                type may be a CommunicationType or its name, optionally id and date,
+     *                the customer must exist
+     * @return How many communications were imported and why others were skipped
+     */
+    public ImportResult importCommunications(Iterable<Map<String, Object>> records) {
+        long start = System.nanoTime();
+        ImportResult result = new ImportResult("communications");
+        List<Communication> batch = new ArrayList<>();
+        List<Integer> batchRecords = new ArrayList<>();
+        int record = 0;
+        Set<String> batchIds = new HashSet<>();
+        for (Map<String, Object> params : records) {
+            record++;
+            String id = stringParam(params, "id");
+            if (!id.isEmpty() && !batchIds.add(id)) {
+                result.skip(record, "duplicate id " + id);
+                continue;
+            }
+            String customerId = stringParam(params, "customerId");
+            if (getCustomerById(customerId) == null) {
+                result.skip(record, "unknown customer " + customerId);
+                continue;
+            }
+            Object typeParam = params.get("type");
+            CommunicationType type;
+            try {
+                type = typeParam instanceof CommunicationType ? (CommunicationType) typeParam
+                     : CommunicationType.valueOf(stringParam(params, "type").toUpperCase());
+            } catch (IllegalArgumentException e) {
+                result.skip(record, "invalid type " + typeParam);
+                continue;
+            }
+            Map<String, Object> factoryParams = new HashMap<>(params);
+            factoryParams.put("type", type);
+            Communication comm = communicationFactory.create(factoryParams);
+            if (!id.isEmpty()) {
+                comm.setId(id);
+            }
+            CRMDate date = CRMDate.parse(stringParam(params, "date"));
+            if (date.isValid()) {
+                comm.setDate(date.toString());
+            }
+            batch.add(comm);
+            batchRecords.add(record);
+        }
+        applyChanges(communicationLock, () -> {
+            dropStoredIds(batch, batchRecords, Communication::getId, storedCommunicationIds(batchIds)::contains, result);
+            batch.forEach(this::addCommunication);
+        },
+                     CRMJournal.COMMUNICATION, batch, Communication::toCSVArray, communicationCommit);
+        return finishImport(result, batch.size(), start);
+    }
+    
+    /**
+     * Import many tasks at once, see importCustomers
+     * 
+     * @param records Task parameters as for createTask (customerId, title, description, dueDate, assignedTo),
+     *                optionally id, status and createdDate, the customer must exist, title and a due date
+     *                are required
+     * @return How many tasks were imported and why others were skipped
+     */
+    public ImportResult importTasks(Iterable<Map<String, Object>> records) {
+        long start = System.nanoTime();
+        ImportResult result = new ImportResult("tasks");
+        List<Task> batch = new ArrayList<>();
+        List<Integer> batchRecords = new ArrayList<>();
+        int record = 0;
+        Set<String> batchIds = new HashSet<>();
+        for (Map<String, Object> params : records) {
+            record++;
+            String id = stringParam(params, "id");
+            if (!id.isEmpty() && (getTaskById(id) != null || !batchIds.add(id))) {
+                result.skip(record, "duplicate id " + id);
+                continue;
+            }
+            String customerId = stringParam(params, "customerId");
+            if (getCustomerById(customerId) == null) {
+                result.skip(record, "unknown customer " + customerId);
+                continue;
+            }
+            if (stringParam(params, "title").isEmpty()) {
+                result.skip(record, "title is required");
+                continue;
+            }
+            if (!CRMDate.parse(stringParam(params, "dueDate")).isValid()) {
+                result.skip(record, "invalid due date " + params.get("dueDate"));
+                continue;
+            }
+            String createdText = stringParam(params, "createdDate");
+            CRMDate createdDate = CRMDate.parse(createdText);
+            if (!createdText.isEmpty() && !createdDate.isValid()) {
+                result.skip(record, "invalid created date " + params.get("createdDate"));
+                continue;
+            }
+            TaskStatus status = TaskStatus.PENDING;
+            if (!stringParam(params, "status").isEmpty()) {
+                try {
+                    status = TaskStatus.valueOf(stringParam(params, "status").toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    result.skip(record, "invalid status " + params.get("status"));
+                    continue;
+                }
+            }
+            Task task = taskFactory.create(params);
+            if (!id.isEmpty()) {
+                task.setId(id);
+            }
+            task.setStatus(status);
+            if (createdDate.isValid()) {
+                task.setCreatedDate(createdDate.toString());
+            }
+            batch.add(task);
+            batchRecords.add(record);
+        }
+        applyChanges(taskLock, () -> {
+            dropStoredIds(batch, batchRecords, Task::getId, tasksById::containsKey, result);
+            batch.forEach(this::addTask);
+        },
+                     CRMJournal.TASK, batch, Task::toCSVArray, taskCommit);
+        return finishImport(result, batch.size(), start);
+    }
+    
+    /**
+     * Skip the records of a batch whose id is already stored
+     * Called under the write lock just before the batch is added and journaled, the check before
+     * taking the lock alone would let a concurrent create or import add the same id in between
+     * 
+     * @param batch The entities to add, the stored ones are removed
+     * @param records The record number of each entity, kept in step with batch
+     * @param idOf Gets the id of an entity
+     * @param stored Tells whether an id is already stored
+     * @param result Where the skipped records are reported
+     */
+    private static <T> void dropStoredIds(List<T> batch, List<Integer> records, Function<T, String> idOf,
+                                          Predicate<String> stored, ImportResult result) {
+        int kept = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            T item = batch.get(i);
+            String id = idOf.apply(item);
+            if (stored.test(id)) {
+                result.skip(records.get(i), "duplicate id " + id);
+            } else {
+                batch.set(kept, item);
+                records.set(kept, records.get(i));
+                kept++;
+            }
+        }
+        batch.subList(kept, batch.size()).clear();
+        records.subList(kept, records.size()).clear();
+    }
+    
+    // which of the given ids are stored, communications have no id index so the store is scanned once
+    // the caller holds the communication lock
+    private Set<String> storedCommunicationIds(Set<String> ids) {
+        Set<String> stored = new HashSet<>();
+        if (ids.isEmpty()) {
+            return stored;
+        }
+        for (int i = 0; i < communications.size(); i++) {
+            String id = communications.getId(i);
+            if (ids.contains(id)) {
+                stored.add(id);
+            }
+        }
+        return stored;
+    }
+    
+    // a parameter as trimmed text, empty if missing
+    private static String stringParam(Map<String, Object> params, String name) {
+        Object value = params.get(name);
+        return value != null ? value.toString().trim() : "";
+    }
+    
+    // complete the result and send the single notification for the batch
+    private ImportResult finishImport(ImportResult result, int imported, long startNanos) {
+        result.setImported(imported);
+        result.setElapsedNanos(System.nanoTime() - startNanos);
+        metrics.record("import." + result.getEntity(), startNanos);
+        if (imported > 0) {
+            Map<String, Object> notificationData = new HashMap<>();
+            notificationData.put("entity", result.getEntity());
+            notificationData.put("count", imported);
+            notifyObservers("bulk_import", notificationData);
+        }
+        return result;
+    }
+    
+    // Reporting Methods
+    
+    // Generate customer activity report
+    public void generateCustomerActivityReport() {
+        System.out.println("\n=== CUSTOMER ACTIVITY REPORT ===");
+        for (Customer customer : getAllCustomers()) {
+            int commCount = getCommunicationCount(customer.getId());
+            int taskCount = getTaskCount(customer.getId());
+            
+            System.out.printf("Customer: %s (%s)\n", customer.getName(), customer.getCompany());
+            System.out.printf("  Communications: %d\n", commCount);
+            System.out.printf("  Tasks: %d\n", taskCount);
+            System.out.println();
+        }
+    }
+    
+    /**
+     * Get the operation and persistence metrics collected since startup
+     * 
+     * @return A copy of every latency histogram, size histogram and counter
+     */
+    public MetricsSnapshot getMetrics() {
+        return metrics.snapshot();
+    }
+    
+    // print the metrics collected since startup
+    public void generateMetricsReport() {
+        System.out.println("\n=== SYSTEM METRICS ===");
+        if (!metrics.isEnabled()) {
+            System.out.println("Metrics are turned off (crm.metrics=false)");
+            return;
+        }
+        System.out.print(metrics.snapshot().format());
+    }
+    
+    @Override
+    protected void observersNotified(String eventType, boolean queued, long nanos) {
+        metrics.recordValue(queued ? "observers.enqueue" : "observers.dispatch", Histogram.NANOS, nanos);
+    }
+    
+    // print the group commit statistics of every data file
+    public void generatePersistenceReport() {
+        System.out.println("\n=== PERSISTENCE REPORT ===");
+        System.out.println("Mode: " + (journalMode ? "journal" : "snapshot") + ", durability: " + durability
+                           + ", layout: " + describeLayout(partitions));
+        for (CommitStats stats : getCommitStats()) {
+            System.out.printf("\n%s\n", stats.getName());
+            System.out.printf("  Writes: %d (%d fsynced, %d failed)\n", stats.getWrites(), stats.getSyncs(),
+                              stats.getFailures());
+            System.out.printf("  Changes: %d, per write avg %.1f max %d\n", stats.getRecords(),
+                              stats.getAverageBatch(), stats.getMaxBatch());
+            System.out.printf("  Write time: avg %.3f ms, max %.3f ms\n", stats.getAverageWriteMillis(),
+                              stats.getMaxWriteMillis());
+            System.out.printf("  Commit latency: avg %.3f ms, max %.3f ms over %d commits\n",
+                              stats.getAverageCommitMillis(), stats.getMaxCommitMillis(), stats.getCommits());
+        }
+    }
+    
+    //Generate task completion report
+    public void generateTaskCompletionReport() {
+        System.out.println("\n=== TASK COMPLETION REPORT ===");
+        Map<TaskStatus, Long> counts;
+        Map<String, Map<TaskStatus, Long>> byAssignee;
+        
+        // both come from the counters, no task is looked at
+        taskLock.readLock().lock();
+        try {
+            counts = taskStatusCounters.getCounts();
+            byAssignee = taskStatusCounters.getCountsByAssignee();
+        } finally {
+            taskLock.readLock().unlock();
+        }
+        
+        long completedTasks = counts.get(TaskStatus.COMPLETED);
+        long totalTasks = totalOf(counts);
+        System.out.printf("Pending Tasks: %d\n", counts.get(TaskStatus.PENDING));
+        System.out.printf("Completed Tasks: %d\n", completedTasks);
+        System.out.printf("Overdue Tasks: %d\n", counts.get(TaskStatus.OVERDUE));
+        System.out.printf("Total Tasks: %d\n", totalTasks);
+        
+        if (totalTasks > 0) {
+            double completionRate = (double) completedTasks / totalTasks * 100;
+            System.out.printf("Completion Rate: %.1f%%\n", completionRate);
+        }
+        
+        if (!byAssignee.isEmpty()) {
+            System.out.println("\nBy assignee:");
+            for (Map.Entry<String, Map<TaskStatus, Long>> entry : byAssignee.entrySet()) {
+                Map<TaskStatus, Long> assigneeCounts = entry.getValue();
+                long assigneeTotal = totalOf(assigneeCounts);
+                if (assigneeTotal == 0) {
+                    continue;
+                }
+                System.out.printf("  %s: %d pending, %d completed, %d overdue (%.1f%% complete)\n",
+                                  entry.getKey().isEmpty() ? "(unassigned)" : entry.getKey(),
+                                  assigneeCounts.get(TaskStatus.PENDING), assigneeCounts.get(TaskStatus.COMPLETED),
+                                  assigneeCounts.get(TaskStatus.OVERDUE),
+                                  (double) assigneeCounts.get(TaskStatus.COMPLETED) / assigneeTotal * 100);
+            }
+        }
+    }
+    
+    /**
+     * Compute the communication frequency report in one pass over the communications
+     * The customers are split into chunks counted in parallel, each chunk walks the
+     * communications of its customers through the per-customer index and counts them
+     * by type into a plain long array, so nothing is copied or boxed
+     * 
+     * @return The report figures
+     */
+    public CommunicationFrequencyReport generateCommunicationFrequencyReport() {
+        long started = metrics.start();
+        customerLock.readLock().lock();
+        communicationLock.readLock().lock();
+        try {
+            int[] perCustomer = new int[customers.size()];
+            // the workers only read, writers are kept out by the read locks held here
+            List<ForkJoinTask<long[]>> chunks = new ArrayList<>();
+            for (int start = 0; start < perCustomer.length; start += REPORT_CHUNK) {
+                final int from = start, to = Math.min(start + REPORT_CHUNK, perCustomer.length);
+                chunks.add(ForkJoinPool.commonPool().submit(() -> countCommunications(from, to, perCustomer)));
+            }
+            long[] typeCounts = new long[CommunicationType.values().length];
+            for (ForkJoinTask<long[]> chunk : chunks) {
+                long[] counts = chunk.join();
+                for (int i = 0; i < typeCounts.length; i++) {
+                    typeCounts[i] += counts[i];
+                }
+            }
+            Arrays.sort(perCustomer);
+            return new CommunicationFrequencyReport(typeCounts, perCustomer);
+        } finally {
+            communicationLock.readLock().unlock();
+            customerLock.readLock().unlock();
+            metrics.record("generateCommunicationFrequencyReport", started);
+        }
+    }
+    
+    // count the communications of customers from..to by type, and per customer into perCustomer
+    private long[] countCommunications(int from, int to, int[] perCustomer) {
+        long[] counts = new long[CommunicationType.values().length];
+        for (int i = from; i < to; i++) {
+            perCustomer[i] = communications.countTypes(customers.get(i).getId(), counts);
+        }
+        return counts;
+    }
+    
+    // sum of the counts of every status
+    private static long totalOf(Map<TaskStatus, Long> counts) {
+        long total = 0;
+        for (long count : counts.values()) {
+            total += count;
+        }
+        return total;
+    }
+    
+    // Query Methods
+    
+    /**
+     * Run a query, see Query
+     * The planner looks at each condition joined by and for an index that narrows it:
+     * the primary keys for id, the per-customer lists for customerId, the customers found
+     * through their own indexes for customer.<field>, the trigram index for customer
+     * name, email and company, the tag index for tags and type and the date indexes for
+     * date and dueDate ranges. It takes the one estimated to give the fewest rows, or
+     * scans all rows in parallel chunks when none gives fewer, and checks every
+     * condition on each row it gives. The plan and its figures come with the result
+     * 
+     * @param query The query
+     * @return The rows found and the plan used
+     */
+    @SuppressWarnings("unchecked")
+    public <T> QueryResult<T> query(Query<T> query) {
+        long started = metrics.start();
+        try {
+            switch (query.getEntity()) {
+                case "customers": return (QueryResult<T>) queryCustomers((Query<Customer>) query);
+                case "communications": return (QueryResult<T>) queryCommunications((Query<Communication>) query);
+                default: return (QueryResult<T>) queryTasks((Query<Task>) query);
+            }
+        } finally {
+            metrics.record("query." + query.getEntity(), started);
+        }
+    }
+    
+    private QueryResult<Customer> queryCustomers(Query<Customer> query) {
+        customerLock.readLock().lock();
+        try {
+            return runQuery(query, customerAccessPaths(query.getConjuncts()), customers::get, customers.size());
+        } finally {
+            customerLock.readLock().unlock();
+        }
+    }
+    
+    private QueryResult<Communication> queryCommunications(Query<Communication> query) {
+        // the customer lock is only needed to look at the customers of the rows
+        boolean joinCustomers = query.usesCustomerFields();
+        if (joinCustomers) {
+            customerLock.readLock().lock();
+        }
+        communicationLock.readLock().lock();
+        try {
+            List<QueryPredicate> conjuncts = query.getConjuncts();
+            List<QueryPlan.Access<Communication>> paths = new ArrayList<>();
+            Predicate<CommunicationRow> rowMatcher = Query.rowMatcher(query, customersById::get);
+            for (QueryPredicate conjunct : conjuncts) {
+                List<String> values = equalValues(conjunct);
+                if (values == null) {
+                    continue;
+                }
+                long estimate = 0;
+                switch (conjunct.getField()) {
+                    case "customerId":
+                        for (String customerId : values) {
+                            estimate += communications.countByCustomer(customerId);
+                        }
+                        // the conditions are checked on the rows in place, only matches are built
+                        long[] ruledOut = {0};
+                        paths.add(new QueryPlan.Access<>("per-customer index for " + conjunct, estimate, action -> {
+                            for (String customerId : values) {
+                                communications.forEachRowOfCustomer(customerId, row -> {
+                                    if (rowMatcher.test(row)) {
+                                        action.accept(row.toCommunication());
+                                    } else {
+                                        ruledOut[0]++;
+                                    }
+                                });
+                            }
+                        }, () -> ruledOut[0]));
+                        break;
+                    case "tags":
+                        for (String tag : values) {
+                            estimate += tagIndex.count(tag);
+                        }
+                        paths.add(new QueryPlan.Access<>("tag index for " + conjunct, estimate,
+                            action -> feed(tagIndex.find(values, false, null), communications::get, action)));
+                        break;
+                    case "type": {
+                        IntList positions = new IntList();
+                        for (String type : values) {
+                            positions = IntList.union(positions, tagIndex.findType(CommunicationType.valueOf(type.toUpperCase())));
+                        }
+                        final IntList ofTypes = positions;
+                        paths.add(new QueryPlan.Access<>("type index for " + conjunct, ofTypes.size(),
+                            action -> feed(ofTypes, communications::get, action)));
+                        break;
+                    }
+                    default:
+                        break;
+                }
+            }
+            addDatePath(paths, conjuncts, "date", communicationDateIndex, communications::get);
+            if (joinCustomers) {
+                addCustomerPath(paths, conjuncts, "communications", communications::countByCustomer,
+                                communications::forEachOfCustomer);
+            }
+            return runQuery(query, paths, communications::get, communications.size());
+        } finally {
+            communicationLock.readLock().unlock();
+            if (joinCustomers) {
+                customerLock.readLock().unlock();
+            }
+        }
+    }
+    
+    private QueryResult<Task> queryTasks(Query<Task> query) {
+        boolean joinCustomers = query.usesCustomerFields();
+        if (joinCustomers) {
+            customerLock.readLock().lock();
+        }
+        taskLock.readLock().lock();
+        try {
+            List<QueryPredicate> conjuncts = query.getConjuncts();
+            List<QueryPlan.Access<Task>> paths = new ArrayList<>();
+            for (QueryPredicate conjunct : conjuncts) {
+                List<String> values = equalValues(conjunct);
+                if (values == null) {
+                    continue;
+                }
+                if (conjunct.getField().equals("id")) {
+                    paths.add(new QueryPlan.Access<>("primary key for " + conjunct, values.size(), action -> {
+                        for (String id : values) {
+                            Task task = tasksById.get(id);
+                            if (task != null) {
+                                action.accept(task);
+                            }
+                        }
+                    }));
+                } else if (conjunct.getField().equals("customerId")) {
+                    long estimate = 0;
+                    for (String customerId : values) {
+                        estimate += tasksOfCustomer(customerId).size();
+                    }
+                    paths.add(new QueryPlan.Access<>("per-customer index for " + conjunct, estimate, action -> {
+                        for (String customerId : values) {
+                            tasksOfCustomer(customerId).forEach(action);
+                        }
+                    }));
+                }
+            }
+            addDatePath(paths, conjuncts, "dueDate", taskDueDateIndex, tasks::get);
+            if (joinCustomers) {
+                addCustomerPath(paths, conjuncts, "tasks", customerId -> tasksOfCustomer(customerId).size(),
+                                (customerId, action) -> tasksOfCustomer(customerId).forEach(action));
+            }
+            return runQuery(query, paths, tasks::get, tasks.size());
+        } finally {
+            taskLock.readLock().unlock();
+            if (joinCustomers) {
+                customerLock.readLock().unlock();
+            }
+        }
+    }
+    
+    // the tasks of a customer, called with the task read lock held
+    private List<Task> tasksOfCustomer(String customerId) {
+        return tasksByCustomer.getOrDefault(customerId, Collections.emptyList());
+    }
+    
+    // the ways of finding customers for conditions on their fields, called with the customer read lock held
+    private List<QueryPlan.Access<Customer>> customerAccessPaths(List<QueryPredicate> conjuncts) {
+        List<QueryPlan.Access<Customer>> paths = new ArrayList<>();
+        for (QueryPredicate conjunct : conjuncts) {
+            String field = conjunct.getField();
+            List<String> values = equalValues(conjunct);
+            if ("id".equals(field) && values != null) {
+                paths.add(new QueryPlan.Access<>("primary key for " + conjunct, values.size(), action -> {
+                    for (String id : values) {
+                        Customer customer = customersById.get(id);
+                        if (customer != null) {
+                            action.accept(customer);
+                        }
+                    }
+                }));
+            } else if (("name".equals(field) || "email".equals(field) || "company".equals(field))
+                       && (conjunct.getOp() == QueryPredicate.Op.EQ || conjunct.getOp() == QueryPredicate.Op.CONTAINS)) {
+                // equal text also contains it, so the trigram index narrows both
+                String term = conjunct.getValues().get(0);
+                int estimate = customerSearchIndex.estimate(term);
+                if (estimate >= 0) {
+                    paths.add(new QueryPlan.Access<>("customer search index for " + conjunct, estimate,
+                        action -> feed(customerSearchIndex.find(term), customers::get, action)));
+                }
+            }
+        }
+        return paths;
+    }
+    
+    /**
+     * Add the path through the customers the customer.<field> conditions match, when an index finds those customers
+     * The customers are found while planning, so the estimate is the exact number of their rows
+     * 
+     * @param paths The paths of the query so far
+     * @param conjuncts The conditions of the query
+     * @param entity What the rows are, for the plan
+     * @param countOf The number of rows of a customer
+     * @param rowsOf Feeds the rows of a customer to an action
+     */
+    private <T> void addCustomerPath(List<QueryPlan.Access<T>> paths, List<QueryPredicate> conjuncts, String entity,
+                                     ToIntFunction<String> countOf, BiConsumer<String, Consumer<T>> rowsOf) {
+        Query<Customer> customerQuery = Query.customers();
+        List<QueryPredicate> customerConjuncts = new ArrayList<>();
+        for (QueryPredicate conjunct : conjuncts) {
+            if (conjunct.getField() != null && conjunct.getField().startsWith("customer.")) {
+                QueryPredicate onCustomer = conjunct.withField(conjunct.getField().substring("customer.".length()));
+                customerConjuncts.add(onCustomer);
+                customerQuery.where(onCustomer);
+            }
+        }
+        List<QueryPlan.Access<Customer>> customerPaths = customerAccessPaths(customerConjuncts);
+        if (customerPaths.isEmpty()) {
+            return;
+        }
+        QueryPlan.Access<Customer> best = customerPaths.get(0);
+        for (QueryPlan.Access<Customer> path : customerPaths) {
+            if (path.estimate < best.estimate) {
+                best = path;
+            }
+        }
+        Predicate<Customer> matcher = customerQuery.matcher(null);
+        List<String> customerIds = new ArrayList<>();
+        best.rows.accept(customer -> {
+            if (matcher.test(customer)) {
+                customerIds.add(customer.getId());
+            }
+        });
+        long estimate = 0;
+        for (String customerId : customerIds) {
+            estimate += countOf.applyAsInt(customerId);
+        }
+        paths.add(new QueryPlan.Access<>(entity + " of " + customerIds.size() + " customers found by " + best.description,
+                                         estimate, action -> {
+            for (String customerId : customerIds) {
+                rowsOf.accept(customerId, action);
+            }
+        }));
+    }
+    
+    // add the date index path for the range the conditions on a date field leave, if any limit it
+    private <T> void addDatePath(List<QueryPlan.Access<T>> paths, List<QueryPredicate> conjuncts, String field,
+                                 DateIndex index, IntFunction<T> rowAt) {
+        long from = Long.MIN_VALUE + 1, to = Long.MAX_VALUE;
+        StringJoiner conditions = new StringJoiner(" and ");
+        for (QueryPredicate conjunct : conjuncts) {
+            long[] range = field.equals(conjunct.getField()) ? conjunct.dateRange() : null;
+            if (range != null) {
+                from = Math.max(from, range[0]);
+                to = Math.min(to, range[1]);
+                conditions.add(conjunct.toString());
+            }
+        }
+        if (conditions.length() == 0) {
+            return;
+        }
+        final long first = from, last = to;
+        paths.add(new QueryPlan.Access<>(field + " index for " + conditions, index.count(first, last),
+                                         action -> feed(index.find(first, last), rowAt, action)));
+    }
+    
+    // the values of an = or in condition without repeats, null for any other condition
+    private static List<String> equalValues(QueryPredicate conjunct) {
+        if (conjunct.getOp() == QueryPredicate.Op.EQ) {
+            return conjunct.getValues();
+        }
+        if (conjunct.getOp() == QueryPredicate.Op.IN) {
+            return new ArrayList<>(new LinkedHashSet<>(conjunct.getValues()));
+        }
+        return null;
+    }
+    
+    private static <T> void feed(IntList positions, IntFunction<T> rowAt, Consumer<T> action) {
+        for (int i = 0; i < positions.size(); i++) {
+            action.accept(rowAt.apply(positions.get(i)));
+        }
+    }
+    
+    /**
+     * Run a query along the cheapest of its access paths, called with the read locks it needs held
+     * 
+     * @param query The query
+     * @param paths The index paths found for it, the parallel scan is added here
+     * @param rowAt The row at a position, for the scan
+     * @param size The number of rows
+     * @return The result with its plan
+     */
+    private <T> QueryResult<T> runQuery(Query<T> query, List<QueryPlan.Access<T>> paths, IntFunction<T> rowAt, int size) {
+        long started = System.nanoTime();
+        QueryPlan plan = new QueryPlan(query.toString());
+        int chunks = (size + QUERY_CHUNK - 1) / QUERY_CHUNK;
+        paths.add(new QueryPlan.Access<>("parallel scan of " + size + " " + query.getEntity() + " in " + chunks
+                                         + (chunks == 1 ? " chunk" : " chunks"), size, null));
+        QueryPlan.Access<T> chosen = plan.choose(paths);
+        
+        Function<String, Customer> customerOf = customersById::get;
+        Predicate<T> matcher = query.matcher(customerOf);
+        List<T> matches;
+        long examined;
+        if (chosen.rows == null) {
+            // without an order any rows that match will do, so the scan may stop at the limit
+            LongAdder scanned = new LongAdder();
+            matches = scanInParallel(rowAt, size, matcher, query.isSorted() ? Integer.MAX_VALUE : query.getLimit(), scanned);
+            examined = scanned.sum();
+        } else {
+            List<T> found = new ArrayList<>();
+            long[] candidates = {0};
+            chosen.rows.accept(row -> {
+                candidates[0]++;
+                if (matcher.test(row)) {
+                    found.add(row);
+                }
+            });
+            matches = found;
+            examined = candidates[0] + chosen.ruledOut.getAsLong();
+        }
+        int matched = matches.size();
+        
+        Comparator<T> comparator = query.comparator(customerOf);
+        if (comparator != null) {
+            matches.sort(comparator);
+        }
+        if (matches.size() > query.getLimit()) {
+            matches = new ArrayList<>(matches.subList(0, query.getLimit()));
+        }
+        List<Map<String, Object>> rows = null;
+        if (query.getSelect() != null) {
+            rows = new ArrayList<>(matches.size());
+            for (T item : matches) {
+                rows.add(query.project(item, customerOf));
+            }
+        }
+        plan.finish(examined, matched, matches.size(), System.nanoTime() - started);
+        metrics.increment(chosen.rows == null ? "query.scans" : "query.indexLookups", 1);
+        metrics.increment("query.rowsExamined", examined);
+        return new QueryResult<>(query, matches, rows, plan);
+    }
+    
+    /**
+     * Test every row in chunks run in parallel on the common pool, like the frequency report
+     * Once the chunks finished so far, taken in order, hold stopAfter matches, chunks that
+     * have not started skip their rows
+     * 
+     * @return The matching rows in the order they were added
+     */
+    private <T> List<T> scanInParallel(IntFunction<T> rowAt, int size, Predicate<T> matcher, int stopAfter,
+                                       LongAdder examined) {
+        AtomicBoolean enough = new AtomicBoolean();
+        List<ForkJoinTask<List<T>>> chunks = new ArrayList<>();
+        for (int start = 0; start < size; start += QUERY_CHUNK) {
+            final int from = start, to = Math.min(start + QUERY_CHUNK, size);
+            chunks.add(ForkJoinPool.commonPool().submit(() -> {
+                List<T> found = new ArrayList<>();
+                if (enough.get()) {
+                    return found;
+                }
+                for (int i = from; i < to; i++) {
+                    T row = rowAt.apply(i);
+                    if (matcher.test(row)) {
+                        found.add(row);
+                    }
+                }
+                examined.add(to - from);
+                return found;
+            }));
+        }
+        // every chunk is joined, so none is still reading rows once the caller releases its locks
+        List<T> matches = new ArrayList<>();
+        for (ForkJoinTask<List<T>> chunk : chunks) {
+            List<T> found = chunk.join();
+            if (matches.size() < stopAfter) {
+                matches.addAll(found);
+                if (matches.size() >= stopAfter) {
+                    enough.set(true);
+                }
+            }
+        }
+        return matches;
+    }
+    
+    // Data Persistence Methods
+    
+    //Save customers to CSV file, readers may run meanwhile
+    private void saveCustomers(boolean sync) throws IOException {
+        customerLock.readLock().lock();
+        try {
+            if (customerPartitions == null) {
+                writeCustomers(new File(customersFile), customers, sync);
+            } else {
+                writeChangedPartitions(customerPartitions, customers::get, customersFile, this::writeCustomers, sync);
+            }
+        } finally {
+            customerLock.readLock().unlock();
+        }
+    }
+    
+    //Save communications to CSV file, readers may run meanwhile
+    private void saveCommunications(boolean sync) throws IOException {
+        communicationLock.readLock().lock();
+        try {
+            if (communicationPartitions == null) {
+                writeCommunications(new File(communicationsFile), communications.asList(), sync);
+            } else {
+                writeChangedPartitions(communicationPartitions, communications::get, communicationsFile,
+                                       this::writeCommunications, sync);
+            }
+        } finally {
+            communicationLock.readLock().unlock();
+        }
+    }
+    
+    //Save tasks to CSV file, readers may run meanwhile
+    private void saveTasks(boolean sync) throws IOException {
+        taskLock.readLock().lock();
+        try {
+            if (taskPartitions == null) {
+                writeTasks(new File(tasksFile), tasks, sync);
+            } else {
+                writeChangedPartitions(taskPartitions, tasks::get, tasksFile, this::writeTasks, sync);
+            }
+        } finally {
+            taskLock.readLock().unlock();
+        }
+    }
+    
+    // writes the rows of one data file, given by its csv path, in the configured format
+    private interface SnapshotWriter<T> {
+        void write(File csvFile, List<T> rows, boolean sync) throws IOException;
+    }
+    
+    // the rows of one data file copied under the read lock, to be written once it is released
+    private static class PendingWrite<T> {
+        private final File csvFile;
+        private final List<T> rows;
+        private final SnapshotWriter<T> writer;
+        private final PartitionIndex index;  // null in the single file layout
+        private final int partition;
+        
+        PendingWrite(File csvFile, List<T> rows, SnapshotWriter<T> writer, PartitionIndex index, int partition) {
+            this.csvFile = csvFile;
+            this.rows = rows;
+            this.writer = writer;
+            this.index = index;
+            this.partition = partition;
+        }
+        
+        void write(boolean sync) throws IOException {
+            writer.write(csvFile, rows, sync);
+        }
+        
+        // the write failed or was never made, so the partition is written by the next save
+        void putBack() {
+            if (index != null) {
+                index.markDirty(partition);
+            }
+        }
+    }
+    
+    // write the partitions changed since the last save, the caller holds the read lock
+    // a failure leaves the partitions not written yet marked changed
+    private <T> void writeChangedPartitions(PartitionIndex index, IntFunction<T> rowAt, String csvFile,
+                                            SnapshotWriter<T> writer, boolean sync) throws IOException {
+        int[] changed = index.takeDirty();
+        for (int i = 0; i < changed.length; i++) {
+            try {
+                writer.write(PartitionIndex.fileOf(new File(csvFile), changed[i], index.getCount()),
+                             rowsOf(index, changed[i], rowAt), sync);
+            } catch (IOException | RuntimeException e) {
+                for (int j = i; j < changed.length; j++) {
+                    index.markDirty(changed[j]);
+                }
+                throw e;
+            }
+        }
+    }
+    
+    // copy the data files that need writing, every row in the single file layout or the changed partitions
+    private <T> void takePendingWrites(List<PendingWrite<?>> pending, PartitionIndex index, IntFunction<T> rowAt,
+                                       Supplier<List<T>> allRows, String csvFile, SnapshotWriter<T> writer) {
+        if (index == null) {
+            pending.add(new PendingWrite<>(new File(csvFile), allRows.get(), writer, null, 0));
+            return;
+        }
+        for (int partition : index.takeDirty()) {
+            pending.add(new PendingWrite<>(PartitionIndex.fileOf(new File(csvFile), partition, index.getCount()),
+                                           rowsOf(index, partition, rowAt), writer, index, partition));
+        }
+    }
+    
+    // write every data file of a layout, the caller holds the write lock
+    private <T> void writeLayout(PartitionIndex index, IntFunction<T> rowAt, List<T> allRows, String csvFile,
+                                 SnapshotWriter<T> writer) throws IOException {
+        if (index == null) {
+            writer.write(new File(csvFile), allRows, true);
+            return;
+        }
+        for (int partition : index.all()) {
+            writer.write(PartitionIndex.fileOf(new File(csvFile), partition, index.getCount()),
+                         rowsOf(index, partition, rowAt), true);
+        }
+    }
+    
+    // copy the rows of a partition in storage order
+    private static <T> List<T> rowsOf(PartitionIndex index, int partition, IntFunction<T> rowAt) {
+        IntList positions = index.positions(partition);
+        List<T> rows = new ArrayList<>(positions.size());
+        for (int i = 0; i < positions.size(); i++) {
+            rows.add(rowAt.apply(positions.get(i)));
+        }
+        return rows;
+    }
+    
+    // write a customers snapshot in the configured format
+    // snapshots are always replaced atomically and fsynced, sync also fsyncs the directory
+    private void writeCustomers(File csvFile, List<Customer> snapshot, boolean sync) throws IOException {
+        long started = metrics.start();
+        File file = binaryFormat ? snapshotFile(csvFile.getPath()) : csvFile;
+        if (binaryFormat) {
+            BinarySnapshot.writeCustomers(file, snapshot, sync);
+        } else {
+            CSVFormat.writeSnapshot(file, CSVFormat.CUSTOMERS_HEADER, snapshot, Customer::toCSVArray, sync);
+        }
+        recordSave(file, started);
+    }
+    
+    // write a communications snapshot in the configured format
+    private void writeCommunications(File csvFile, List<Communication> snapshot, boolean sync) throws IOException {
+        long started = metrics.start();
+        File file = binaryFormat ? snapshotFile(csvFile.getPath()) : csvFile;
+        if (binaryFormat) {
+            BinarySnapshot.writeCommunications(file, snapshot, sync);
+        } else {
+            CSVFormat.writeSnapshot(file, CSVFormat.COMMUNICATIONS_HEADER, snapshot, Communication::toCSVArray, sync);
+        }
+        recordSave(file, started);
+    }
+    
+    // write a tasks snapshot in the configured format
+    private void writeTasks(File csvFile, List<Task> snapshot, boolean sync) throws IOException {
+        long started = metrics.start();
+        File file = binaryFormat ? snapshotFile(csvFile.getPath()) : csvFile;
+        if (binaryFormat) {
+            BinarySnapshot.writeTasks(file, snapshot, sync);
+        } else {
+            CSVFormat.writeSnapshot(file, CSVFormat.TASKS_HEADER, snapshot, Task::toCSVArray, sync);
+        }
+        recordSave(file, started);
+    }
+    
+    // time and size of a snapshot just written
+    private void recordSave(File file, long started) {
+        metrics.record("save." + file.getName(), started);
+        if (metrics.isEnabled()) {
+            long bytes = file.length();
+            metrics.recordValue("save." + file.getName(), Histogram.BYTES, bytes);
+            metrics.increment("save.bytes", bytes);
+        }
+    }
+    
+    /**
+     * Export all data as csv files, whatever the configured storage format
+     * 
+     * @param dir The directory to write customers.csv, communications.csv and tasks.csv to
+     * @throws IOException If a file cannot be written
+     */
+    public void exportCSV(File dir) throws IOException {
+        dir.mkdirs();
+        List<Customer> customerSnapshot = getAllCustomers();
+        List<Communication> communicationSnapshot;
+        List<Task> taskSnapshot;
+        communicationLock.readLock().lock();
+        try {
+            communicationSnapshot = communications.snapshot();
+        } finally {
+            communicationLock.readLock().unlock();
+        }
+        taskLock.readLock().lock();
+        try {
+            taskSnapshot = new ArrayList<>(tasks);
+        } finally {
+            taskLock.readLock().unlock();
+        }
+        CSVFormat.writeFile(new File(dir, "customers.csv"), CSVFormat.CUSTOMERS_HEADER,
+                            customerSnapshot, Customer::toCSVArray);
+        CSVFormat.writeFile(new File(dir, "communications.csv"), CSVFormat.COMMUNICATIONS_HEADER,
+                            communicationSnapshot, Communication::toCSVArray);
+        CSVFormat.writeFile(new File(dir, "tasks.csv"), CSVFormat.TASKS_HEADER, taskSnapshot, Task::toCSVArray);
+    }
+    
+    // apply a change under the write lock of its entity type, then persist it through its group commit
+    // in journal mode the record is appended while the write lock is held so the journal order matches memory,
+    // the commit itself waits outside the lock so concurrent changes can join the same write
+    // and readers are not held up by the file write
+    private void applyChange(ReentrantReadWriteLock lock, Runnable change,
+                             String journalKind, String[] journalRecord, GroupCommit commit) {
+        applyChanges(lock, change, journalKind, Collections.singletonList(journalRecord), record -> record, commit);
+    }
+    
+    // apply a batch of changes like applyChange, with one journal append and one ticket for the whole batch
+    private <T> void applyChanges(ReentrantReadWriteLock lock, Runnable change, String journalKind,
+                                  List<T> items, Function<T, String[]> toRecord, GroupCommit commit) {
+        long ticket;
+        lock.writeLock().lock();
+        try {
+            change.run();
+            if (journalMode) {
+                long appendStarted = metrics.start();
+                List<String> lines = new ArrayList<>(items.size());
+                long chars = 0;
+                for (T item : items) {
+                    String line = journalLine(journalKind, toRecord.apply(item));
+                    lines.add(line);
+                    chars += line.length() + 1;
+                }
+                try {
+                    journal.appendAll(lines);
+                } catch (IOException e) {
+                    System.err.println("Error writing journal: " + e.getMessage());
+                }
+                metrics.record("journal.append", appendStarted);
+                metrics.increment("journal.records", lines.size());
+                metrics.increment("journal.chars", chars);
+            }
+            ticket = commit.register();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        long commitStarted = metrics.start();
+        commit.commit(ticket);
+        metrics.record("commit." + commit.getName(), commitStarted);
+    }
+    
+    // write buffered journal records, timing fsynced and unsynced flushes apart
+    private void flushJournal(boolean sync) throws IOException {
+        long started = metrics.start();
+        journal.flush(sync);
+        metrics.record(sync ? "journal.flush+fsync" : "journal.flush", started);
+    }
+    
+    // create the group commits that persist each kind of change
+    private void initCommits() {
+        if (journalMode) {
+            GroupCommit journalCommit = new GroupCommit("journal", durability, false, groupWindowMicros,
+                                                        this::flushJournal);
+            customerCommit = journalCommit;
+            communicationCommit = journalCommit;
+            taskCommit = journalCommit;
+        } else {
+            // under the interval policy the snapshots are only rewritten by the flusher
+            customerCommit = new GroupCommit("customers", durability, true, groupWindowMicros, this::saveCustomers);
+            communicationCommit = new GroupCommit("communications", durability, true, groupWindowMicros,
+                                                  this::saveCommunications);
+            taskCommit = new GroupCommit("tasks", durability, true, groupWindowMicros, this::saveTasks);
+        }
+        if (durability == DurabilityPolicy.INTERVAL) {
+            durabilityFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "crm-durability-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            durabilityFlusher.scheduleWithFixedDelay(() -> flushCommits(true), durabilityIntervalMillis,
+                                                     durabilityIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    // the distinct group commits, one in journal mode
+    private Collection<GroupCommit> commits() {
+        return new LinkedHashSet<>(Arrays.asList(customerCommit, communicationCommit, taskCommit));
+    }
+    
+    // write every change not persisted yet, sync fsyncs them as well
+    private void flushCommits(boolean sync) {
+        for (GroupCommit commit : commits()) {
+            commit.flush(sync);
+        }
+    }
+    
+    /**
+     * Get the group commit statistics: writes, changes per write and commit latency
+     * 
+     * @return One entry per data file, or one for the journal in journal mode
+     */
+    public List<CommitStats> getCommitStats() {
+        List<CommitStats> stats = new ArrayList<>();
+        for (GroupCommit commit : commits()) {
+            stats.add(commit.getStats());
+        }
+        return stats;
+    }
+    
+    // which policy decides when persisted changes are fsynced
+    public DurabilityPolicy getDurabilityPolicy() {
+        return durability;
+    }
+    
+    // Journal Methods
+    
+    // append one mutation to the journal buffer, prefixed with its record kind, a group commit writes it
+    private void appendToJournal(String kind, String[] fields) {
+        try {
+            journal.appendAll(Collections.singletonList(journalLine(kind, fields)));
+        } catch (IOException e) {
+            System.err.println("Error writing journal: " + e.getMessage());
+        }
+    }
+    
+    // one journal line, the record kind followed by the entity fields
+    private static String journalLine(String kind, String[] fields) {
+        String[] record = new String[fields.length + 1];
+        record[0] = kind;
+        System.arraycopy(fields, 0, record, 1, fields.length);
+        return CSVFormat.formatLine(record);
+    }
+    
+    // run compaction in the background every compactIntervalSeconds
+    private void startCompactor() {
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "crm-journal-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(this::compactJournal, compactIntervalSeconds,
+                                         compactIntervalSeconds, TimeUnit.SECONDS);
+    }
+    
+    // Task Scheduler Methods
+    
+    // start the thread that marks tasks overdue and sends due soon reminders
+    private void startTaskScheduler() {
+        taskScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "crm-task-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        taskLock.readLock().lock();
+        try {
+            scheduleDueCheck(taskDueIndex.nextBoundary());
+        } finally {
+            taskLock.readLock().unlock();
+        }
+    }
+    
+    // make sure a due check runs at the given moment, unless one is already scheduled by then
+    private void scheduleDueCheck(long at) {
+        synchronized (dueCheckLock) {
+            if (taskScheduler == null || taskScheduler.isShutdown()) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            long wakeAt = Math.min(at, now + MAX_DUE_CHECK_DELAY);
+            if (dueCheck != null && dueCheckAt <= wakeAt) {
+                return;
+            }
+            if (dueCheck != null) {
+                dueCheck.cancel(false);
+            }
+            dueCheckAt = wakeAt;
+            dueCheck = taskScheduler.schedule(this::checkDueTasks, Math.max(0, wakeAt - now), TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    // mark pending tasks past their due date OVERDUE, remind about tasks due soon and sleep until the next one
+    private void checkDueTasks() {
+        synchronized (dueCheckLock) {
+            dueCheck = null;
+            dueCheckAt = Long.MAX_VALUE;
+        }
+        List<Task> overdue;
+        List<Task> dueSoon;
+        long next;
+        long ticket = 0;
+        taskLock.writeLock().lock();
+        try {
+            long now = System.currentTimeMillis();
+            overdue = taskDueIndex.pollOverdue(now);
+            for (Task task : overdue) {
+                setTaskStatus(task, TaskStatus.OVERDUE);
+                if (journalMode) {
+                    appendToJournal(CRMJournal.TASK_STATUS, new String[]{task.getId(), TaskStatus.OVERDUE.toString()});
+                }
+            }
+            dueSoon = taskDueIndex.pollDueSoon(now);
+            next = taskDueIndex.nextBoundary();
+            if (!overdue.isEmpty()) {
+                ticket = taskCommit.register();
+            }
+        } finally {
+            taskLock.writeLock().unlock();
+        }
+        if (ticket > 0) {
+            taskCommit.commit(ticket);
+        }
+        
+        for (Task task : dueSoon) {
+            Map<String, Object> notificationData = new HashMap<>();
+            notificationData.put("title", task.getTitle());
+            notificationData.put("dueDate", task.getDueDate());
+            notifyObservers("task_due_soon", notificationData);
+        }
+        scheduleDueCheck(next);
+    }
+    
+    // fold the journal back into the csv snapshots
+    // the data is copied and the journal rotated together so every rotated record is in the copy,
+    // the slow snapshot write then runs without blocking new changes
+    // in the partitioned layout only the partitions changed since the last compaction are copied and written
+    private void compactJournal() {
+        long started = metrics.start();
+        List<PendingWrite<?>> pending = new ArrayList<>();
+        // read locks keep writers out while the journal is rotated and the data copied
+        customerLock.readLock().lock();
+        communicationLock.readLock().lock();
+        taskLock.readLock().lock();
+        try {
+            if (!journal.rotate()) {
+                return;
             }
+            takePendingWrites(pending, customerPartitions, customers::get, () -> new ArrayList<>(customers),
+                              customersFile, this::writeCustomers);
+            takePendingWrites(pending, communicationPartitions, communications::get, communications::snapshot,
+                              communicationsFile, this::writeCommunications);
+            takePendingWrites(pending, taskPartitions, tasks::get, () -> new ArrayList<>(tasks),
+                              tasksFile, this::writeTasks);
         } catch (IOException e) {
-            System.err.println("Error saving tasks: " + e.getMessage());
+            System.err.println("Error rotating journal: " + e.getMessage());
+            return;
+        } finally {
+            taskLock.readLock().unlock();
+            communicationLock.readLock().unlock();
+            customerLock.readLock().unlock();
+        }
+        
+        // the rotated journal is deleted next, so the snapshots must be as durable as it was
+        boolean sync = durability != DurabilityPolicy.OS;
+        try {
+            for (PendingWrite<?> write : pending) {
+                write.write(sync);
+            }
+            journal.discardRotated();
+            metrics.record("journal.compact", started);
+        } catch (IOException e) {
+            // rotated journal is kept and retried on the next compaction
+            System.err.println("Error compacting journal: " + e.getMessage());
+            for (PendingWrite<?> write : pending) {
+                write.putBack();
+            }
+        }
+    }
+    
+    /**
+     * Move the data files to a new layout: the single files, or count partition files per
+     * entity split by a hash of customer id
+     * Every file of the new layout is written and fsynced before partitions.properties is
+     * switched to it, so a crash part way leaves the old layout in use. The new files are named
+     * by their count and never overwrite the old ones, which are moved to a pre-partition
+     * directory once the new layout is in use. Changes wait until the move is done
+     * 
+     * @param count The number of partitions, 1 to go back to single files
+     * @return The directory the old layout's files were moved to
+     * @throws IOException If the new layout cannot be written, the old layout is then still in use
+     * @throws IllegalArgumentException If count is not between 1 and 999 or is the current layout
+     */
+    public File repartition(int count) throws IOException {
+        if (count < 1 || count > 999) {
+            throw new IllegalArgumentException("Partitions must be between 1 and 999, not " + count);
+        }
+        // deferred saves go to the old layout before it is copied
+        flushCommits(true);
+        customerLock.writeLock().lock();
+        communicationLock.writeLock().lock();
+        taskLock.writeLock().lock();
+        try {
+            int old = partitions;
+            if (count == old) {
+                throw new IllegalArgumentException("Data is already stored in " + describeLayout(count));
+            }
+            long started = metrics.start();
+            PartitionIndex newCustomers = count > 1 ? new PartitionIndex(count) : null;
+            PartitionIndex newCommunications = count > 1 ? new PartitionIndex(count) : null;
+            PartitionIndex newTasks = count > 1 ? new PartitionIndex(count) : null;
+            if (count > 1) {
+                for (int i = 0; i < customers.size(); i++) {
+                    newCustomers.add(i, customers.get(i).getId());
+                }
+                for (int i = 0; i < communications.size(); i++) {
+                    newCommunications.add(i, communications.get(i).getCustomerId());
+                }
+                for (int i = 0; i < tasks.size(); i++) {
+                    newTasks.add(i, tasks.get(i).getCustomerId());
+                }
+            }
+            writeLayout(newCustomers, customers::get, customers, customersFile, this::writeCustomers);
+            writeLayout(newCommunications, communications::get, communications.asList(), communicationsFile,
+                        this::writeCommunications);
+            writeLayout(newTasks, tasks::get, tasks, tasksFile, this::writeTasks);
+            
+            // the switch, from here on the new files are the data
+            writePartitionManifest(count);
+            partitions = count;
+            customerPartitions = newCustomers;
+            communicationPartitions = newCommunications;
+            taskPartitions = newTasks;
+            for (PartitionIndex index : new PartitionIndex[]{newCustomers, newCommunications, newTasks}) {
+                if (index != null) {
+                    index.clearDirty();
+                }
+            }
+            // the journal only holds changes already in the new files
+            if (journalMode && journal.hasRecords()) {
+                try {
+                    if (journal.rotate()) {
+                        journal.discardRotated();
+                    }
+                } catch (IOException e) {
+                    // replaying records already in the files changes nothing, the next compaction drops them
+                    System.err.println("Error rotating journal: " + e.getMessage());
+                }
+            }
+            
+            File moved = new File(dataDir, "pre-partition-" + System.currentTimeMillis());
+            moved.mkdirs();
+            for (String csvFile : new String[]{customersFile, communicationsFile, tasksFile}) {
+                for (File file : dataFiles(csvFile, old)) {
+                    File binary = snapshotFile(file.getPath());
+                    for (File oldFile : new File[]{file, SnapshotFiles.backupFile(file), SnapshotFiles.corruptFile(file),
+                                                   binary, SnapshotFiles.backupFile(binary),
+                                                   SnapshotFiles.corruptFile(binary)}) {
+                        if (oldFile.exists()) {
+                            Files.move(oldFile.toPath(), new File(moved, oldFile.getName()).toPath(),
+                                       StandardCopyOption.REPLACE_EXISTING);
+                        }
+                    }
+                }
+            }
+            metrics.record("partition.migrate", started);
+            return moved;
+        } finally {
+            taskLock.writeLock().unlock();
+            communicationLock.writeLock().unlock();
+            customerLock.writeLock().unlock();
         }
     }
     
-    //Format array of strings for CSV output
-    private String formatCSVLine(String[] fields) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < fields.length; i++) {
-            if (i > 0) sb.append(",");
-            String field = fields[i];
-            if (field.contains(",") || field.contains("\"") || field.contains("\n")) {
-                field = "\"" + field.replace("\"", "\"\"") + "\"";
+    // Getter for the storage layout, the number of data files per entity
+    public int getPartitionCount() {
+        return partitions;
+    }
+    
+    private static String describeLayout(int count) {
+        return count == 1 ? "single files" : count + " partitions";
+    }
+    
+    /**
+     * Stop background work and make sure all changes are in the snapshots
+     * Called when the application exits
+     */
+    public void shutdown() {
+        if (taskScheduler != null) {
+            synchronized (dueCheckLock) {
+                taskScheduler.shutdownNow();
+            }
+            try {
+                taskScheduler.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (compactor != null) {
+            compactor.shutdown();
+            try {
+                compactor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-            sb.append(field);
         }
-        return sb.toString();
+        if (durabilityFlusher != null) {
+            durabilityFlusher.shutdown();
+            try {
+                durabilityFlusher.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushCommits(durability != DurabilityPolicy.OS);
+        if (journal.hasRecords()) {
+            compactJournal();
+        }
+        journal.close();
+        shutdownDispatch();
+        metrics.stopDump();
     }
     
     // Getters for application state
     public String getCurrentUser() { return currentUser; }
     public boolean isSessionActive() { return sessionActive; }
     public void setSessionActive(boolean active) { this.sessionActive = active; }
+    public String getDataDir() { return dataDir; }
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * CSVFormat holds the csv helpers shared by the loaders, the savers and the journal
+ * Fields containing a comma, quote or newline are wrapped in quotes when written
+ */
+public class CSVFormat {
+    // header line of each data file
+    public static final String CUSTOMERS_HEADER = "id,name,email,phone,company,notes,created_date";
+    public static final String COMMUNICATIONS_HEADER = "id,customer_id,type,date,subject,notes,tags";
+    public static final String TASKS_HEADER = "id,customer_id,title,description,due_date,status,created_date,assigned_to";
+    // start of the last line of a snapshot written by writeSnapshot
+    public static final String TRAILER_PREFIX = "#crm-snapshot";
+
+    private CSVFormat() {
+    }
+
+    // parses CSV line handling quotes and commas
+    public static String[] parseLine(String line) {
+        List<String> result = new ArrayList<>();
+        boolean inQuotes = false;
+        StringBuilder currentField = new StringBuilder();
+        
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                inQuotes = !inQuotes;
+            } else if (c == ',' && !inQuotes) {
+                result.add(currentField.toString().trim());
+                currentField = new StringBuilder();
+            } else {
+                currentField.append(c);
+            }
+        }
+        result.add(currentField.toString().trim());
+        
+        return result.toArray(new String[0]);
+    }
+
+    //Format array of strings for CSV output
+    public static String formatLine(String[] fields) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) sb.append(",");
+            String field = fields[i];
+            if (field.contains(",") || field.contains("\"") || field.contains("\n")) {
+                field = "\"" + field.replace("\"", "\"\"") + "\"";
+            }
+            sb.append(field);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write a whole csv file, header first
+     *
+     * @param file The file to write
+     * @param header The header line
+     * @param rows The entities to write
+     * @param toFields Turns an entity into its csv fields
+     * @throws IOException If the file cannot be written
+     */
+    public static <T> void writeFile(File file, String header, Collection<T> rows,
+                                     Function<T, String[]> toFields) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(
+                new FileWriter(file, StandardCharsets.UTF_8), 1 << 16))) {
+            writer.println(header);
+            for (T row : rows) {
+                writer.println(formatLine(toFields.apply(row)));
+            }
+            if (writer.checkError()) {
+                throw new IOException("write to " + file + " failed");
+            }
+        }
+    }
+
+    /**
+     * Write a csv data file as a snapshot: atomically through SnapshotFiles and with a
+     * trailer line "#crm-snapshot,rows=N,crc32=X" holding the row count and the CRC32 of
+     * every byte before it, which CSVLoader.loadSnapshot checks
+     *
+     * @param file The file to replace
+     * @param header The header line
+     * @param rows The entities to write
+     * @param toFields Turns an entity into its csv fields
+     * @param syncDirectory true to also fsync the directory after the rename
+     * @throws IOException If the file cannot be written, the old file is then left alone
+     */
+    public static <T> void writeSnapshot(File file, String header, Collection<T> rows,
+                                         Function<T, String[]> toFields, boolean syncDirectory) throws IOException {
+        SnapshotFiles.replace(file, syncDirectory, stream -> {
+            CRC32 crc = new CRC32();
+            PrintWriter writer = new PrintWriter(new BufferedWriter(
+                    new OutputStreamWriter(new CheckedOutputStream(stream, crc), StandardCharsets.UTF_8), 1 << 16));
+            writer.println(header);
+            long count = 0;
+            for (T row : rows) {
+                writer.println(formatLine(toFields.apply(row)));
+                count++;
+            }
+            writer.flush();
+            writer.println(TRAILER_PREFIX + ",rows=" + count + ",crc32=" + Long.toHexString(crc.getValue()));
+            writer.flush();
+            if (writer.checkError()) {
+                throw new IOException("write to " + file + " failed");
+            }
+        });
+    }
+}
@@ -0,0 +1,259 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * CSVLoader reads a whole csv data file in parallel
+ * The file is memory-mapped and split into chunks that end on record boundaries,
+ * a record only ends at a newline outside quotes so quoted fields may contain
+ * commas and newlines. Chunks are parsed on the fork-join pool straight from the
+ * mapped bytes and the results are joined back together in file order
+ * Fields follow the same rules as CSVFormat.parseLine: quotes are removed and
+ * surrounding spaces trimmed. A snapshot trailer line (see CSVFormat.writeSnapshot)
+ * is never returned as a record, loadSnapshot also checks it against the file
+ */
+public class CSVLoader {
+    private static final long MIN_CHUNK = 1 << 20;     // 1 MB
+    private static final long MAX_CHUNK = 64L << 20;   // 64 MB, keeps each mapping small
+    private static final long SCAN_WINDOW = 256L << 20;
+
+    private CSVLoader() {
+    }
+
+    /**
+     * Load every record after the header line
+     *
+     * @param file The csv file
+     * @param mapper Turns the fields of a record into an entity, may return null to skip the record,
+     *               called from several threads at once
+     * @return The mapped records in file order
+     * @throws IOException If the file cannot be read
+     */
+    public static <T> List<T> load(File file, Function<String[], T> mapper) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = dataEnd(channel, channel.size());
+            if (size == 0) {
+                return new ArrayList<>();
+            }
+            int parallelism = ForkJoinPool.commonPool().getParallelism();
+            long target = Math.min(MAX_CHUNK, Math.max(MIN_CHUNK, size / (parallelism * 4L)));
+            long[] bounds = findChunkBounds(channel, size, target);
+
+            List<ForkJoinTask<List<T>>> tasks = new ArrayList<>();
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                final long start = bounds[i], end = bounds[i + 1];
+                final boolean skipHeader = i == 0;
+                tasks.add(ForkJoinPool.commonPool().submit(() -> parseChunk(channel, start, end, skipHeader, mapper)));
+            }
+
+            List<T> result = new ArrayList<>();
+            for (ForkJoinTask<List<T>> task : tasks) {
+                try {
+                    result.addAll(task.join());
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Load a snapshot written by CSVFormat.writeSnapshot, checking the checksum and row
+     * count in its trailer first. Files without a trailer, written by hand or by older
+     * versions, are loaded unchecked
+     *
+     * @param file The csv file
+     * @param mapper Turns the fields of a record into an entity, as for load
+     * @return The mapped records in file order
+     * @throws IOException If the file cannot be read or does not match its trailer
+     */
+    public static <T> List<T> loadSnapshot(File file, Function<String[], T> mapper) throws IOException {
+        long expectedRows = verify(file);
+        LongAdder rows = new LongAdder();
+        List<T> result = load(file, fields -> {
+            rows.increment();
+            return mapper.apply(fields);
+        });
+        if (expectedRows >= 0 && rows.sum() != expectedRows) {
+            throw new IOException(file.getName() + " should hold " + expectedRows + " rows but has " + rows.sum());
+        }
+        return result;
+    }
+
+    /**
+     * Check a snapshot's bytes against the CRC32 in its trailer, the checksum runs over
+     * the mapped file so this costs a small part of a load
+     *
+     * @param file The csv file
+     * @return The row count from the trailer, or -1 if the file has no trailer
+     * @throws IOException If the file cannot be read or the checksum does not match
+     */
+    public static long verify(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long end = dataEnd(channel, size);
+            if (end == size) {
+                return -1;
+            }
+            ByteBuffer tail = ByteBuffer.allocate((int) (size - end));
+            readFully(channel, tail, end);
+            String trailer = new String(tail.array(), StandardCharsets.UTF_8).trim();
+            long rows = -1;
+            long expectedCrc = -1;
+            for (String part : trailer.split(",")) {
+                try {
+                    if (part.startsWith("rows=")) {
+                        rows = Long.parseLong(part.substring(5));
+                    } else if (part.startsWith("crc32=")) {
+                        expectedCrc = Long.parseLong(part.substring(6), 16);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IOException(file.getName() + " has a damaged trailer: " + trailer);
+                }
+            }
+            if (rows < 0 || expectedCrc < 0) {
+                throw new IOException(file.getName() + " has a damaged trailer: " + trailer);
+            }
+            CRC32 crc = new CRC32();
+            for (long position = 0; position < end; position += SCAN_WINDOW) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SCAN_WINDOW, end - position)));
+            }
+            if (crc.getValue() != expectedCrc) {
+                throw new IOException(file.getName() + " is corrupt, checksum mismatch");
+            }
+            return rows;
+        }
+    }
+
+    // where the records end: before the trailer line if the file ends with one, else the file size
+    private static long dataEnd(FileChannel channel, long size) throws IOException {
+        int tailLength = (int) Math.min(size, 256);
+        ByteBuffer tail = ByteBuffer.allocate(tailLength);
+        readFully(channel, tail, size - tailLength);
+        byte[] bytes = tail.array();
+        int end = tailLength;
+        while (end > 0 && (bytes[end - 1] == '\n' || bytes[end - 1] == '\r')) {
+            end--;
+        }
+        int lineStart = end;
+        while (lineStart > 0 && bytes[lineStart - 1] != '\n') {
+            lineStart--;
+        }
+        byte[] prefix = CSVFormat.TRAILER_PREFIX.getBytes(StandardCharsets.US_ASCII);
+        if (end - lineStart < prefix.length || (lineStart == 0 && size > tailLength)) {
+            return size;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[lineStart + i] != prefix[i]) {
+                return size;
+            }
+        }
+        return size - tailLength + lineStart;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    // walk the file once tracking quotes and pick a record start roughly every target bytes
+    private static long[] findChunkBounds(FileChannel channel, long size, long target) throws IOException {
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        long next = target;
+        boolean inQuotes = false;
+        for (long windowStart = 0; windowStart < size && next < size; windowStart += SCAN_WINDOW) {
+            long windowSize = Math.min(SCAN_WINDOW, size - windowStart);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+            for (int i = 0; i < windowSize; i++) {
+                byte b = buffer.get(i);
+                if (b == '"') {
+                    inQuotes = !inQuotes;
+                } else if (b == '\n' && !inQuotes && windowStart + i + 1 >= next) {
+                    long boundary = windowStart + i + 1;
+                    if (boundary < size) {
+                        bounds.add(boundary);
+                    }
+                    next = boundary + target;
+                }
+            }
+        }
+        bounds.add(size);
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    // parse the records between two boundaries
+    private static <T> List<T> parseChunk(FileChannel channel, long start, long end, boolean skipHeader,
+                                          Function<String[], T> mapper) {
+        MappedByteBuffer buffer;
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        List<T> result = new ArrayList<>();
+        List<String> fields = new ArrayList<>();
+        byte[] field = new byte[256];
+        int fieldLength = 0;
+        boolean inQuotes = false;
+        boolean recordHasData = false;
+        boolean skip = skipHeader;
+        int length = (int) (end - start);
+
+        for (int i = 0; i <= length; i++) {
+            byte b = i < length ? buffer.get(i) : (byte) '\n';
+            if (b == '"') {
+                inQuotes = !inQuotes;
+                recordHasData = true;
+            } else if (b == ',' && !inQuotes) {
+                fields.add(decode(field, fieldLength));
+                fieldLength = 0;
+                recordHasData = true;
+            } else if ((b == '\n' || b == '\r') && !inQuotes) {
+                if (recordHasData || fieldLength > 0) {
+                    fields.add(decode(field, fieldLength));
+                    if (skip) {
+                        skip = false;
+                    } else {
+                        T value = mapper.apply(fields.toArray(new String[0]));
+                        if (value != null) {
+                            result.add(value);
+                        }
+                    }
+                }
+                fields.clear();
+                fieldLength = 0;
+                recordHasData = false;
+            } else {
+                if (fieldLength == field.length) {
+                    field = Arrays.copyOf(field, field.length * 2);
+                }
+                field[fieldLength++] = b;
+                recordHasData = true;
+            }
+        }
+        return result;
+    }
+
+    private static String decode(byte[] bytes, int length) {
+        return new String(bytes, 0, length, StandardCharsets.UTF_8).trim();
+    }
+}
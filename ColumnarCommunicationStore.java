@@ -0,0 +1,467 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * ColumnarCommunicationStore keeps communications as columns instead of objects
+ *   id, subject, notes   UTF-8 bytes packed into shared 1 MB pages, one int address per row
+ *   customer id, tags    dictionary encoded, every distinct value is stored once and each row holds its code
+ *   type                 the CommunicationType ordinal, one byte per row
+ *   date                 the CRMDate kind and its epoch seconds or epoch day, text dates in a dictionary
+ * The rows of each customer are found through a posting list per customer code
+ * get builds a Communication from the columns on every call, the customer id and tags
+ * strings it hands out are the dictionary's so they are shared rather than copied
+ * forEachRowOfCustomer instead moves one Cursor over the rows, which reads a column only
+ * when its field is asked for, so counts and filters never decode the rest of a row
+ * Columns only ever grow, so a snapshot can share them with the live store, the snapshot
+ * is a read-only Snapshot list rather than a store so nothing can add to it
+ */
+public class ColumnarCommunicationStore implements CommunicationStore {
+    private static final CommunicationType[] TYPES = CommunicationType.values();
+    private static final byte NO_TYPE = -1;
+    private static final byte NO_DATE = -1;
+
+    private int size = 0;
+    private final StringColumn ids;
+    private final DictionaryColumn customerIds;
+    private byte[] types;
+    private byte[] dateKinds;
+    private long[] dateValues;
+    private final DictionaryColumn dateTexts;
+    private final StringColumn subjects;
+    private final StringColumn notes;
+    private final DictionaryColumn tags;
+    // rows of each customer by customer code
+    private IntList[] byCustomer;
+
+    // Create an empty store
+    public ColumnarCommunicationStore() {
+        ids = new StringColumn();
+        customerIds = new DictionaryColumn();
+        types = new byte[1024];
+        dateKinds = new byte[1024];
+        dateValues = new long[1024];
+        dateTexts = new DictionaryColumn();
+        subjects = new StringColumn();
+        notes = new StringColumn();
+        tags = new DictionaryColumn();
+        byCustomer = new IntList[64];
+    }
+
+    @Override
+    public int add(Communication comm) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            dateKinds = Arrays.copyOf(dateKinds, capacity);
+            dateValues = Arrays.copyOf(dateValues, capacity);
+        }
+        ids.add(comm.getId());
+        int customer = customerIds.add(comm.getCustomerId());
+        types[size] = comm.getType() != null ? (byte) comm.getType().ordinal() : NO_TYPE;
+        CRMDate date = comm.getDateValue();
+        if (date == null) {
+            dateKinds[size] = NO_DATE;
+        } else if (date.isValid()) {
+            dateKinds[size] = date.getKind();
+            dateValues[size] = date.getValue();
+        } else {
+            dateKinds[size] = CRMDate.TEXT;
+            dateValues[size] = dateTexts.encode(date.toString());
+        }
+        subjects.add(comm.getSubject());
+        notes.add(comm.getNotes());
+        tags.add(comm.getTags());
+
+        // null customer ids have no posting list, like the object store they are never looked up
+        if (customer >= 0) {
+            if (customer >= byCustomer.length) {
+                byCustomer = Arrays.copyOf(byCustomer, Math.max(byCustomer.length * 2, customer + 1));
+            }
+            if (byCustomer[customer] == null) {
+                byCustomer[customer] = new IntList(2);
+            }
+            byCustomer[customer].add(size);
+        }
+        return size++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Communication get(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position " + position + " of " + size);
+        }
+        return new Communication(ids.get(position), customerIds.get(position), typeOf(types[position]),
+                                 dateOf(dateKinds[position], dateValues[position], dateTexts),
+                                 subjects.get(position), notes.get(position), tags.get(position));
+    }
+
+    @Override
+    public String getId(int position) {
+        return ids.get(position);
+    }
+
+    @Override
+    public List<Communication> getByCustomer(String customerId) {
+        IntList rows = rowsOf(customerId);
+        List<Communication> result = new ArrayList<>(rows != null ? rows.size() : 0);
+        if (rows != null) {
+            for (int i = 0; i < rows.size(); i++) {
+                result.add(get(rows.get(i)));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Communication> getByCustomer(String customerId, int from, int limit) {
+        IntList rows = rowsOf(customerId);
+        int size = rows != null ? rows.size() : 0;
+        int start = Math.min(from, size);
+        int end = (int) Math.min(size, (long) start + limit);
+        List<Communication> result = new ArrayList<>(end - start);
+        for (int i = start; i < end; i++) {
+            result.add(get(rows.get(i)));
+        }
+        return result;
+    }
+
+    @Override
+    public void forEachOfCustomer(String customerId, Consumer<? super Communication> action) {
+        IntList rows = rowsOf(customerId);
+        if (rows != null) {
+            for (int i = 0; i < rows.size(); i++) {
+                action.accept(get(rows.get(i)));
+            }
+        }
+    }
+
+    @Override
+    public void forEachRowOfCustomer(String customerId, Consumer<? super CommunicationRow> action) {
+        IntList rows = rowsOf(customerId);
+        if (rows != null) {
+            Cursor cursor = new Cursor();
+            for (int i = 0; i < rows.size(); i++) {
+                cursor.row = rows.get(i);
+                action.accept(cursor);
+            }
+        }
+    }
+
+    @Override
+    public int countByCustomer(String customerId) {
+        IntList rows = rowsOf(customerId);
+        return rows != null ? rows.size() : 0;
+    }
+
+    @Override
+    public int countTypes(String customerId, long[] typeCounts) {
+        IntList rows = rowsOf(customerId);
+        if (rows == null) {
+            return 0;
+        }
+        for (int i = 0; i < rows.size(); i++) {
+            byte type = types[rows.get(i)];
+            if (type >= 0) {
+                typeCounts[type]++;
+            }
+        }
+        return rows.size();
+    }
+
+    @Override
+    public List<Communication> asList() {
+        return new AbstractList<Communication>() {
+            @Override
+            public Communication get(int index) {
+                return ColumnarCommunicationStore.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public List<Communication> snapshot() {
+        return new Snapshot(this);
+    }
+
+    private IntList rowsOf(String customerId) {
+        int code = customerIds.find(customerId);
+        return code >= 0 && code < byCustomer.length ? byCustomer[code] : null;
+    }
+
+    private static CommunicationType typeOf(byte type) {
+        return type >= 0 ? TYPES[type] : null;
+    }
+
+    private static CRMDate dateOf(byte kind, long value, DictionaryColumn dateTexts) {
+        if (kind == NO_DATE) {
+            return null;
+        }
+        if (kind == CRMDate.TEXT) {
+            return CRMDate.parse(dateTexts.value((int) value));
+        }
+        return CRMDate.of(kind, value);
+    }
+
+    // a view of the row at row, reading each field from its column when it is asked for
+    private final class Cursor implements CommunicationRow {
+        private int row;
+
+        @Override
+        public String getId() { return ids.get(row); }
+
+        @Override
+        public String getCustomerId() { return customerIds.get(row); }
+
+        @Override
+        public CommunicationType getType() { return typeOf(types[row]); }
+
+        @Override
+        public CRMDate getDateValue() { return dateOf(dateKinds[row], dateValues[row], dateTexts); }
+
+        @Override
+        public String getSubject() { return subjects.get(row); }
+
+        @Override
+        public String getNotes() { return notes.get(row); }
+
+        @Override
+        public String getTags() { return tags.get(row); }
+
+        @Override
+        public Communication toCommunication() { return get(row); }
+    }
+
+    /**
+     * Snapshot is the first size rows of a store as a read-only list. It holds frozen
+     * copies of the string columns and the type and date arrays as they were, later adds
+     * only write past size or into grown copies of the arrays so it never sees them
+     */
+    private static final class Snapshot extends AbstractList<Communication> implements RandomAccess {
+        private final int size;
+        private final StringColumn ids;
+        private final DictionaryColumn customerIds;
+        private final byte[] types;
+        private final byte[] dateKinds;
+        private final long[] dateValues;
+        private final DictionaryColumn dateTexts;
+        private final StringColumn subjects;
+        private final StringColumn notes;
+        private final DictionaryColumn tags;
+
+        Snapshot(ColumnarCommunicationStore store) {
+            size = store.size;
+            ids = store.ids.freeze();
+            customerIds = store.customerIds.freeze();
+            types = store.types;
+            dateKinds = store.dateKinds;
+            dateValues = store.dateValues;
+            dateTexts = store.dateTexts.freeze();
+            subjects = store.subjects.freeze();
+            notes = store.notes.freeze();
+            tags = store.tags.freeze();
+        }
+
+        @Override
+        public Communication get(int position) {
+            if (position < 0 || position >= size) {
+                throw new IndexOutOfBoundsException("Position " + position + " of " + size);
+            }
+            return new Communication(ids.get(position), customerIds.get(position), typeOf(types[position]),
+                                     dateOf(dateKinds[position], dateValues[position], dateTexts),
+                                     subjects.get(position), notes.get(position), tags.get(position));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * StringColumn stores one string per row as a varint of its UTF-8 length + 1 (0 for null)
+     * followed by the bytes, packed into 1 MB pages. A row's address is its page number
+     * shifted left 20 bits plus its offset in the page, a string longer than a page gets
+     * a page of its own
+     */
+    static final class StringColumn {
+        private static final int PAGE_BITS = 20;
+        private static final int PAGE_SIZE = 1 << PAGE_BITS;
+        private static final int MAX_PAGES = 1 << (31 - PAGE_BITS);
+
+        private byte[][] pages = new byte[16][];
+        private int pageCount = 0;
+        private int pageUsed = 0;
+        private int[] addresses = new int[1024];
+        private int size = 0;
+
+        void add(String value) {
+            if (size == addresses.length) {
+                addresses = Arrays.copyOf(addresses, size * 2);
+            }
+            if (value == null) {
+                byte[] page = reserve(1);
+                page[pageUsed] = 0;
+                addresses[size++] = address();
+                pageUsed += 1;
+                return;
+            }
+            int length = value.length();
+            boolean ascii = true;
+            for (int i = 0; i < length && ascii; i++) {
+                ascii = value.charAt(i) < 0x80;
+            }
+            byte[] utf8 = ascii ? null : value.getBytes(StandardCharsets.UTF_8);
+            int byteLength = ascii ? length : utf8.length;
+            byte[] page = reserve(5 + byteLength);
+            int start = pageUsed;
+            int position = writeVarint(page, start, byteLength + 1);
+            if (ascii) {
+                for (int i = 0; i < length; i++) {
+                    page[position + i] = (byte) value.charAt(i);
+                }
+            } else {
+                System.arraycopy(utf8, 0, page, position, byteLength);
+            }
+            addresses[size++] = address();
+            pageUsed = position + byteLength;
+        }
+
+        String get(int row) {
+            if (row >= size) {
+                throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+            }
+            int address = addresses[row];
+            byte[] page = pages[address >>> PAGE_BITS];
+            int position = address & (PAGE_SIZE - 1);
+            int lengthPlusOne = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = page[position++];
+                lengthPlusOne |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            if (lengthPlusOne == 0) {
+                return null;
+            }
+            return new String(page, position, lengthPlusOne - 1, StandardCharsets.UTF_8);
+        }
+
+        // the same rows, sharing pages that later adds only append to
+        StringColumn freeze() {
+            StringColumn copy = new StringColumn();
+            copy.pages = pages;
+            copy.pageCount = pageCount;
+            copy.pageUsed = PAGE_SIZE;
+            copy.addresses = addresses;
+            copy.size = size;
+            return copy;
+        }
+
+        // the address of the next string, in the current page at pageUsed
+        private int address() {
+            return ((pageCount - 1) << PAGE_BITS) | pageUsed;
+        }
+
+        // the page to write bytes into at pageUsed, starting a new page if they do not fit
+        private byte[] reserve(int bytes) {
+            if (pageCount == 0 || pageUsed >= PAGE_SIZE || pageUsed + bytes > pages[pageCount - 1].length) {
+                if (pageCount == MAX_PAGES) {
+                    throw new IllegalStateException("String column is full");
+                }
+                if (pageCount == pages.length) {
+                    pages = Arrays.copyOf(pages, pageCount * 2);
+                }
+                pages[pageCount++] = new byte[Math.max(PAGE_SIZE, bytes)];
+                pageUsed = 0;
+            }
+            return pages[pageCount - 1];
+        }
+
+        private static int writeVarint(byte[] page, int position, int value) {
+            while ((value & ~0x7f) != 0) {
+                page[position++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            page[position++] = (byte) value;
+            return position;
+        }
+    }
+
+    /**
+     * DictionaryColumn stores each distinct string once and a code per row, -1 for null
+     */
+    static final class DictionaryColumn {
+        private Map<String, Integer> lookup = new HashMap<>();
+        private String[] values = new String[64];
+        private int valueCount = 0;
+        private int[] codes = new int[1024];
+        private int size = 0;
+
+        // add a row holding value and return its code
+        int add(String value) {
+            int code = encode(value);
+            if (size == codes.length) {
+                codes = Arrays.copyOf(codes, size * 2);
+            }
+            codes[size++] = code;
+            return code;
+        }
+
+        // the code of a value, adding it to the dictionary if it is new
+        int encode(String value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer code = lookup.get(value);
+            if (code == null) {
+                if (valueCount == values.length) {
+                    values = Arrays.copyOf(values, valueCount * 2);
+                }
+                code = valueCount;
+                values[valueCount++] = value;
+                lookup.put(value, code);
+            }
+            return code;
+        }
+
+        // the code of a value, -1 if it is not in the dictionary
+        int find(String value) {
+            Integer code = value != null ? lookup.get(value) : null;
+            return code != null ? code : -1;
+        }
+
+        String get(int row) {
+            if (row >= size) {
+                throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+            }
+            return value(codes[row]);
+        }
+
+        String value(int code) {
+            return code >= 0 ? values[code] : null;
+        }
+
+        // the same rows, sharing arrays that later adds only append to
+        DictionaryColumn freeze() {
+            DictionaryColumn copy = new DictionaryColumn();
+            copy.lookup = Collections.emptyMap();
+            copy.values = values;
+            copy.valueCount = valueCount;
+            copy.codes = codes;
+            copy.size = size;
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,375 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * CommandRunner executes CRM commands without the interactive menus
+ * Commands come from the command line or a script file, one per line, arguments
+ * are separated by spaces and may be quoted ("Jane Doe"). Blank lines and lines
+ * starting with # are ignored
+ * Output goes through one buffered stream that is flushed at the end, and the
+ * time taken by every command is reported after the run
+ *
+ * Usage: java CRMApplication --run "command" ["command" ...]
+ *        java CRMApplication --script file.txt   (- reads the script from standard input)
+ */
+public class CommandRunner {
+    private static final String HELP =
+        "Commands:\n"
+        + "  search <term> [limit]\n"
+        + "  add-customer <name> <email> <phone> <company> [notes]\n"
+        + "  list-customers\n"
+        + "  customer <customerId>\n"
+        + "  log <customerId> <PHONE|EMAIL|MEETING|OTHER> <subject> [notes] [tags]\n"
+        + "  communications <customerId>\n"
+        + "  tags <tag[,tag...]> [all|any]\n"
+        + "  add-task <customerId> <title> <description> <dueDate> <assignedTo>\n"
+        + "  task-status <taskId> <PENDING|COMPLETED|OVERDUE>\n"
+        + "  tasks <customerId>\n"
+        + "  pending-tasks\n"
+        + "  report <customers|tasks|communications|persistence|metrics>\n"
+        + "  query <customers|communications|tasks> [field<op>value ...] [order [-]field[,...]]\n"
+        + "        [limit n] [select field[,...]] [explain]\n"
+        + "        op is = != ~ (contains) < <= > >=, a|b means either, customer.<field> for the customer\n"
+        + "  import <file.csv>\n"
+        + "  help\n";
+
+    private final CRMSystem crm;
+    private final PrintStream out;
+    private final List<String> timings = new ArrayList<>();
+    private int failures = 0;
+
+    /**
+     * Create a runner writing to a stream
+     *
+     * @param crm The system to run commands against
+     * @param out Where command output goes
+     */
+    public CommandRunner(CRMSystem crm, PrintStream out) {
+        this.crm = crm;
+        this.out = out;
+    }
+
+    /**
+     * Run every command from a reader, a failing command does not stop the ones after it
+     *
+     * @param script The commands, one per line
+     * @return true if every command succeeded
+     * @throws IOException If the script cannot be read
+     */
+    public boolean runScript(Reader script) throws IOException {
+        BufferedReader reader = new BufferedReader(script);
+        String line;
+        int lineNumber = 0;
+        long start = System.nanoTime();
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            run(line, lineNumber);
+        }
+        printTimings(System.nanoTime() - start);
+        return failures == 0;
+    }
+
+    /**
+     * Run commands given as separate strings, for example from the command line
+     *
+     * @param commands The commands
+     * @return true if every command succeeded
+     */
+    public boolean runCommands(List<String> commands) {
+        long start = System.nanoTime();
+        for (int i = 0; i < commands.size(); i++) {
+            run(commands.get(i), i + 1);
+        }
+        printTimings(System.nanoTime() - start);
+        return failures == 0;
+    }
+
+    // run one command line and remember how long it took
+    private void run(String line, int lineNumber) {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return;
+        }
+        List<String> args = tokenize(trimmed);
+        long start = System.nanoTime();
+        String status = "ok";
+        try {
+            execute(args.get(0).toLowerCase(), args.subList(1, args.size()));
+        } catch (IllegalArgumentException e) {
+            out.println("Error on line " + lineNumber + ": " + e.getMessage());
+            status = "failed";
+            failures++;
+        }
+        timings.add(String.format("%4d  %-16s %10.3f ms  %s", lineNumber, args.get(0),
+                                  (System.nanoTime() - start) / 1e6, status));
+    }
+
+    private void execute(String command, List<String> args) {
+        switch (command) {
+            case "search": {
+                need(args, 1, "search <term> [limit]");
+                int limit = args.size() > 1 ? parseInt(args.get(1)) : Integer.MAX_VALUE;
+                List<Customer> results = crm.searchCustomers(args.get(0), limit);
+                if (results.isEmpty()) {
+                    out.println("No customers found matching your search.");
+                }
+                for (Customer customer : results) {
+                    printCustomer(customer);
+                }
+                break;
+            }
+            case "add-customer":
+                need(args, 4, "add-customer <name> <email> <phone> <company> [notes]");
+                crm.createCustomer(args.get(0), args.get(1), args.get(2), args.get(3), optional(args, 4));
+                out.println("Customer added successfully!");
+                break;
+            case "list-customers":
+                crm.streamCustomers().forEach(this::printCustomer);
+                break;
+            case "customer": {
+                need(args, 1, "customer <customerId>");
+                Customer customer = crm.getCustomerById(args.get(0));
+                if (customer == null) {
+                    throw new IllegalArgumentException("Customer not found: " + args.get(0));
+                }
+                out.printf("ID: %s\nName: %s\nEmail: %s\nPhone: %s\nCompany: %s\nNotes: %s\nCreated: %s\n",
+                           customer.getId(), customer.getName(), customer.getEmail(), customer.getPhone(),
+                           customer.getCompany(), customer.getNotes(), customer.getCreatedDate());
+                out.printf("Communications: %d, Tasks: %d\n",
+                           crm.getCommunicationCount(customer.getId()), crm.getTaskCount(customer.getId()));
+                break;
+            }
+            case "log":
+                need(args, 3, "log <customerId> <type> <subject> [notes] [tags]");
+                crm.logCommunication(args.get(0), parseEnum(CommunicationType.class, args.get(1)),
+                                     args.get(2), optional(args, 3), optional(args, 4));
+                out.println("Communication logged successfully!");
+                break;
+            case "communications":
+                need(args, 1, "communications <customerId>");
+                printCommunications(crm.streamCommunicationsByCustomer(args.get(0)));
+                break;
+            case "tags":
+                need(args, 1, "tags <tag[,tag...]> [all|any]");
+                printCommunications(crm.findCommunicationsByTags(Arrays.asList(args.get(0).split(",")),
+                                                                 !"any".equalsIgnoreCase(optional(args, 1)),
+                                                                 null, null).stream());
+                break;
+            case "add-task":
+                need(args, 5, "add-task <customerId> <title> <description> <dueDate> <assignedTo>");
+                crm.createTask(args.get(0), args.get(1), args.get(2), args.get(3), args.get(4));
+                out.println("Task created successfully!");
+                break;
+            case "task-status":
+                need(args, 2, "task-status <taskId> <status>");
+                if (crm.getTaskById(args.get(0)) == null) {
+                    throw new IllegalArgumentException("Task not found: " + args.get(0));
+                }
+                crm.updateTaskStatus(args.get(0), parseEnum(TaskStatus.class, args.get(1)));
+                out.println("Task status updated successfully!");
+                break;
+            case "tasks":
+                need(args, 1, "tasks <customerId>");
+                printTasks(crm.streamTasksByCustomer(args.get(0)));
+                break;
+            case "pending-tasks":
+                printTasks(crm.streamPendingTasks());
+                break;
+            case "report":
+                need(args, 1, "report <customers|tasks|communications|persistence|metrics>");
+                switch (args.get(0).toLowerCase()) {
+                    case "customers": crm.generateCustomerActivityReport(); break;
+                    case "tasks": crm.generateTaskCompletionReport(); break;
+                    case "communications": CRMApplication.generateCommunicationFrequencyReport(); break;
+                    case "persistence": crm.generatePersistenceReport(); break;
+                    case "metrics": crm.generateMetricsReport(); break;
+                    default: throw new IllegalArgumentException("Unknown report: " + args.get(0));
+                }
+                break;
+            case "query":
+                need(args, 1, "query <customers|communications|tasks> [conditions] [order f] [limit n] [select f] [explain]");
+                query(args);
+                break;
+            case "import":
+                need(args, 1, "import <file.csv>");
+                if (!CRMApplication.importFiles(args.toArray(new String[0]))) {
+                    throw new IllegalArgumentException("Import failed");
+                }
+                break;
+            case "help":
+                out.print(HELP);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command: " + command + " (try help)");
+        }
+    }
+
+    // build a query from the arguments after the entity, run it and print the selected fields of each row
+    private void query(List<String> args) {
+        Query<?> query = Query.of(args.get(0));
+        boolean explain = false;
+        for (int i = 1; i < args.size(); i++) {
+            String arg = args.get(i);
+            switch (arg.toLowerCase()) {
+                case "order":
+                    need(args, i + 2, "order [-]field[,...]");
+                    for (String field : args.get(++i).split(",")) {
+                        if (field.startsWith("-")) {
+                            query.orderByDescending(field.substring(1));
+                        } else {
+                            query.orderBy(field);
+                        }
+                    }
+                    break;
+                case "limit":
+                    need(args, i + 2, "limit <n>");
+                    query.limit(parseInt(args.get(++i)));
+                    break;
+                case "select":
+                    need(args, i + 2, "select field[,...]");
+                    query.select(args.get(++i).split(","));
+                    break;
+                case "explain":
+                    explain = true;
+                    break;
+                default:
+                    query.where(QueryPredicate.parse(arg));
+                    break;
+            }
+        }
+        QueryResult<?> result = crm.query(query);
+        for (Map<String, Object> row : result.getRows()) {
+            StringJoiner line = new StringJoiner(" | ");
+            row.forEach((field, value) -> line.add(field + ": " + value));
+            out.println(line);
+        }
+        out.println(result.size() + (result.size() == 1 ? " row" : " rows"));
+        if (explain) {
+            out.print(result.explain());
+        }
+    }
+
+    private void printCustomer(Customer customer) {
+        out.printf("ID: %s | Name: %s | Email: %s | Company: %s\n",
+                   customer.getId(), customer.getName(), customer.getEmail(), customer.getCompany());
+    }
+
+    // listings are streamed a page at a time so long ones are never copied whole
+    private void printCommunications(Stream<Communication> communications) {
+        communications.forEachOrdered(comm ->
+            out.printf("%s | %s | %s | %s | %s\n", comm.getId(), comm.getDate(), comm.getType(),
+                       comm.getSubject(), comm.getTags()));
+    }
+
+    private void printTasks(Stream<Task> tasks) {
+        tasks.forEachOrdered(task ->
+            out.printf("%s | %s | %s | %s | Due: %s\n", task.getId(), task.getTitle(), task.getStatus(),
+                       task.getAssignedTo(), task.getDueDate()));
+    }
+
+    private void printTimings(long totalNanos) {
+        out.println("\n=== COMMAND TIMINGS ===");
+        for (String timing : timings) {
+            out.println(timing);
+        }
+        out.printf("%d commands, %d failed, %.3f ms total\n", timings.size(), failures, totalNanos / 1e6);
+    }
+
+    private static void need(List<String> args, int count, String usage) {
+        if (args.size() < count) {
+            throw new IllegalArgumentException("Usage: " + usage);
+        }
+    }
+
+    private static String optional(List<String> args, int index) {
+        return args.size() > index ? args.get(index) : "";
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + value);
+        }
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String value) {
+        try {
+            return Enum.valueOf(type, value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid " + type.getSimpleName() + ": " + value);
+        }
+    }
+
+    // split on spaces, double quotes group words and \" is a literal quote
+    static List<String> tokenize(String line) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inQuotes = false;
+        boolean hasToken = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                current.append('"');
+                hasToken = true;
+                i++;
+            } else if (c == '"') {
+                inQuotes = !inQuotes;
+                hasToken = true;
+            } else if (Character.isWhitespace(c) && !inQuotes) {
+                if (hasToken) {
+                    tokens.add(current.toString());
+                    current.setLength(0);
+                    hasToken = false;
+                }
+            } else {
+                current.append(c);
+                hasToken = true;
+            }
+        }
+        if (hasToken) {
+            tokens.add(current.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * Run commands from the command line arguments after --run or --script
+     * System.out is replaced by a buffered stream for the run so reports and
+     * notifications are not written line by line
+     *
+     * @param crm The system to run against
+     * @param mode "--run" or "--script"
+     * @param args The commands, or the script file name
+     * @return true if every command succeeded
+     */
+    public static boolean runFromArgs(CRMSystem crm, String mode, String[] args) {
+        PrintStream console = System.out;
+        PrintStream buffered = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16),
+                                               false);
+        System.setOut(buffered);
+        try {
+            CommandRunner runner = new CommandRunner(crm, buffered);
+            if (mode.equals("--run")) {
+                return runner.runCommands(Arrays.asList(args));
+            }
+            if (args.length == 0) {
+                buffered.println("Usage: java CRMApplication --script <file|->");
+                return false;
+            }
+            try (Reader script = args[0].equals("-")
+                    ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+                    : new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8)) {
+                return runner.runScript(script);
+            } catch (IOException e) {
+                System.err.println("Error reading script " + args[0] + ": " + e.getMessage());
+                return false;
+            }
+        } finally {
+            buffered.flush();
+            System.setOut(console);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * CommitStats tells how the group commits of one data file went
+ * A write is one rewrite of a snapshot or one flush of the journal, its batch is
+ * the number of changes it wrote (0 when it only fsynced earlier writes)
+ * Commit latency is how long a change waited in GroupCommit.commit before returning
+ */
+public class CommitStats {
+    private final String name;
+    private long writes = 0;
+    private long records = 0;
+    private long maxBatch = 0;
+    private long syncs = 0;
+    private long failures = 0;
+    private long writeNanos = 0;
+    private long maxWriteNanos = 0;
+    private long commits = 0;
+    private long commitNanos = 0;
+    private long maxCommitNanos = 0;
+
+    // Constructor for CommitStats
+    public CommitStats(String name) {
+        this.name = name;
+    }
+
+    // copy of the figures so far
+    CommitStats(CommitStats other) {
+        this.name = other.name;
+        this.writes = other.writes;
+        this.records = other.records;
+        this.maxBatch = other.maxBatch;
+        this.syncs = other.syncs;
+        this.failures = other.failures;
+        this.writeNanos = other.writeNanos;
+        this.maxWriteNanos = other.maxWriteNanos;
+        this.commits = other.commits;
+        this.commitNanos = other.commitNanos;
+        this.maxCommitNanos = other.maxCommitNanos;
+    }
+
+    // record one write covering batch changes
+    void write(long batch, boolean sync, boolean failed, long nanos) {
+        writes++;
+        records += batch;
+        maxBatch = Math.max(maxBatch, batch);
+        if (sync) {
+            syncs++;
+        }
+        if (failed) {
+            failures++;
+        }
+        writeNanos += nanos;
+        maxWriteNanos = Math.max(maxWriteNanos, nanos);
+    }
+
+    // record how long one change waited to be committed
+    void commit(long nanos) {
+        commits++;
+        commitNanos += nanos;
+        maxCommitNanos = Math.max(maxCommitNanos, nanos);
+    }
+
+    // Getters
+    public String getName() { return name; }
+    public long getWrites() { return writes; }
+    public long getRecords() { return records; }
+    public long getMaxBatch() { return maxBatch; }
+    public long getSyncs() { return syncs; }
+    public long getFailures() { return failures; }
+    public long getCommits() { return commits; }
+
+    // changes made durable per write
+    public double getAverageBatch() {
+        return writes > 0 ? (double) records / writes : 0;
+    }
+
+    public double getAverageWriteMillis() {
+        return writes > 0 ? writeNanos / 1e6 / writes : 0;
+    }
+
+    public double getMaxWriteMillis() {
+        return maxWriteNanos / 1e6;
+    }
+
+    public double getAverageCommitMillis() {
+        return commits > 0 ? commitNanos / 1e6 / commits : 0;
+    }
+
+    public double getMaxCommitMillis() {
+        return maxCommitNanos / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d writes, %d changes (batch avg %.1f, max %d), %d fsyncs, %d failed, "
+                             + "write avg %.3f ms max %.3f ms, commit avg %.3f ms max %.3f ms",
+                             name, writes, records, getAverageBatch(), maxBatch, syncs, failures,
+                             getAverageWriteMillis(), getMaxWriteMillis(),
+                             getAverageCommitMillis(), getMaxCommitMillis());
+    }
+}
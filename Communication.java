@@ -1,9 +1,9 @@
 //Communication data class representing a communication log entry
-public class Communication {
+public class Communication implements CommunicationRow {
     private String id;
     private String customerId;
     private CommunicationType type;
-    private String date;
+    private CRMDate date;
     private String subject;
     private String notes;
     private String tags;
@@ -11,6 +11,12 @@ public class Communication {
     //Constructor for Communication
     public Communication(String id, String customerId, CommunicationType type, 
                         String date, String subject, String notes, String tags) {
+        this(id, customerId, type, CRMDate.parse(date), subject, notes, tags);
+    }
+
+    //Constructor for Communication with an already parsed date
+    public Communication(String id, String customerId, CommunicationType type,
+                        CRMDate date, String subject, String notes, String tags) {
         this.id = id;
         this.customerId = customerId;
         this.type = type;
@@ -24,23 +30,35 @@ public class Communication {
     public String getId() { return id; }
     public String getCustomerId() { return customerId; }
     public CommunicationType getType() { return type; }
-    public String getDate() { return date; }
+    public String getDate() { return date != null ? date.toString() : null; }
+    public CRMDate getDateValue() { return date; }
     public String getSubject() { return subject; }
     public String getNotes() { return notes; }
     public String getTags() { return tags; }
+    public Communication toCommunication() { return this; }
 
     // Setters
     public void setId(String id) { this.id = id; }
     public void setCustomerId(String customerId) { this.customerId = customerId; }
     public void setType(CommunicationType type) { this.type = type; }
-    public void setDate(String date) { this.date = date; }
+    public void setDate(String date) { this.date = CRMDate.parse(date); }
     public void setSubject(String subject) { this.subject = subject; }
     public void setNotes(String notes) { this.notes = notes; }
     public void setTags(String tags) { this.tags = tags; }
 
     //Convert communication data to CSV array format
     public String[] toCSVArray() {
-        return new String[]{id, customerId, type.toString(), date, subject, notes, tags};
+        return new String[]{id, customerId, type.toString(), getDate(), subject, notes, tags};
+    }
+
+    //Create a communication from CSV array format, null if there are too few fields
+    //throws IllegalArgumentException if the type is not a CommunicationType
+    public static Communication fromCSVArray(String[] parts) {
+        if (parts.length < 7) {
+            return null;
+        }
+        CommunicationType type = CommunicationType.valueOf(parts[2].toUpperCase());
+        return new Communication(parts[0], parts[1], type, parts[3], parts[4], parts[5], parts[6]);
     }
 
     @Override
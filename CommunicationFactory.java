@@ -1,5 +1,3 @@
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.Map;
 
 // Factory pattern for creating Communication objects
@@ -14,7 +12,7 @@ public class CommunicationFactory extends EntityFactory<Communication> {
     @Override
     public Communication create(Map<String, Object> params) {
         String id = generateId("COMM");
-        String date = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+        CRMDate date = CRMDate.now();
         
         return new Communication(
             id,
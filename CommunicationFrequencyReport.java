@@ -0,0 +1,69 @@
+import java.util.*;
+
+/**
+ * CommunicationFrequencyReport holds the figures of the communication frequency report
+ * Only communications of known customers are counted, the distribution is over the
+ * number of communications per customer, customers without any included
+ * Created by CRMSystem.generateCommunicationFrequencyReport
+ */
+public class CommunicationFrequencyReport {
+    private final long totalCommunications;
+    private final long[] typeCounts;        // indexed by CommunicationType ordinal
+    private final int customerCount;
+    private final int[] sortedCustomerCounts;  // communications per customer, ascending
+
+    // Constructor for CommunicationFrequencyReport
+    public CommunicationFrequencyReport(long[] typeCounts, int[] sortedCustomerCounts) {
+        this.typeCounts = typeCounts.clone();
+        this.sortedCustomerCounts = sortedCustomerCounts;
+        this.customerCount = sortedCustomerCounts.length;
+        long total = 0;
+        for (long count : typeCounts) {
+            total += count;
+        }
+        this.totalCommunications = total;
+    }
+
+    // Getters
+    public long getTotalCommunications() { return totalCommunications; }
+    public int getCustomerCount() { return customerCount; }
+
+    public long getCount(CommunicationType type) {
+        return typeCounts[type.ordinal()];
+    }
+
+    // share of all communications with this type, 0 to 100
+    public double getPercentage(CommunicationType type) {
+        return totalCommunications > 0 ? (double) getCount(type) / totalCommunications * 100 : 0;
+    }
+
+    public Map<CommunicationType, Long> getCountsByType() {
+        Map<CommunicationType, Long> result = new EnumMap<>(CommunicationType.class);
+        for (CommunicationType type : CommunicationType.values()) {
+            result.put(type, getCount(type));
+        }
+        return result;
+    }
+
+    public double getAveragePerCustomer() {
+        return customerCount > 0 ? (double) totalCommunications / customerCount : 0;
+    }
+
+    /**
+     * Get a percentile of the number of communications per customer (nearest rank)
+     *
+     * @param percentile Between 0 and 100, for example 50 for the median
+     * @return The number of communications, 0 if there are no customers
+     */
+    public int getPercentile(double percentile) {
+        if (customerCount == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * customerCount);
+        return sortedCustomerCounts[Math.min(Math.max(rank, 1), customerCount) - 1];
+    }
+
+    public int getMaxPerCustomer() {
+        return customerCount > 0 ? sortedCustomerCounts[customerCount - 1] : 0;
+    }
+}
@@ -0,0 +1,19 @@
+/**
+ * CommunicationRow is read access to the fields of one stored communication
+ * Communication is one, and a store may hand out a view that reads its columns in
+ * place, so a visit that only needs a few fields does not build a Communication per row
+ * A view handed to an action is only valid during that call, it may be reused for the
+ * next row, use toCommunication to keep a row
+ */
+public interface CommunicationRow {
+    String getId();
+    String getCustomerId();
+    CommunicationType getType();
+    CRMDate getDateValue();
+    String getSubject();
+    String getNotes();
+    String getTags();
+
+    // the row as a Communication that stays valid after the visit
+    Communication toCommunication();
+}
@@ -0,0 +1,81 @@
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * CommunicationStore holds the communications of CRMSystem in the order they were added
+ * A communication's position in the store is the id used by the tag and date indexes
+ * Implementations are not thread safe, CRMSystem guards them with its communication lock
+ *
+ * crm.communications.store picks the implementation:
+ *   "objects" (default)  ObjectCommunicationStore, one Communication object per row
+ *   "columnar"           ColumnarCommunicationStore, primitive and dictionary encoded columns
+ */
+public interface CommunicationStore {
+
+    /**
+     * Add a communication at the end of the store, only CRMSystem calls this and only
+     * while it holds the communication write lock
+     *
+     * @param comm The communication
+     * @return Its position
+     */
+    int add(Communication comm);
+
+    // number of communications stored
+    int size();
+
+    // the communication at a position, a columnar store builds a new object for every call
+    Communication get(int position);
+
+    // the id of the communication at a position
+    String getId(int position);
+
+    /**
+     * Get the communications of a customer in the order they were added
+     *
+     * @param customerId The customer
+     * @return A new list, empty if the customer has none
+     */
+    List<Communication> getByCustomer(String customerId);
+
+    /**
+     * Get part of the communications of a customer, for paging
+     *
+     * @param customerId The customer
+     * @param from Index of the first one among the customer's communications
+     * @param limit Most to return
+     * @return A new list, empty past the customer's last communication
+     */
+    List<Communication> getByCustomer(String customerId, int from, int limit);
+
+    // run an action on each communication of a customer, in the order they were added
+    void forEachOfCustomer(String customerId, Consumer<? super Communication> action);
+
+    /**
+     * Visit the communications of a customer in the order they were added without building them,
+     * for callers that only read a few fields or keep only some of the rows
+     *
+     * @param customerId The customer
+     * @param action Gets each row, a view only valid during the call, see CommunicationRow
+     */
+    void forEachRowOfCustomer(String customerId, Consumer<? super CommunicationRow> action);
+
+    // number of communications of a customer
+    int countByCustomer(String customerId);
+
+    /**
+     * Count the communications of a customer by type without building them
+     *
+     * @param customerId The customer
+     * @param typeCounts Incremented at the ordinal of each communication's type
+     * @return The number of communications of the customer
+     */
+    int countTypes(String customerId, long[] typeCounts);
+
+    // every communication as a list, reads go to the store so it must be used under the lock
+    List<Communication> asList();
+
+    // the communications stored now as a list that later adds do not change, usable without the lock
+    // the list is a copy or a read-only view, it is never a store that could be added to
+    List<Communication> snapshot();
+}
@@ -7,11 +7,17 @@ public class Customer {
     private String phone;
     private String company;
     private String notes;
-    private String createdDate;
+    private CRMDate createdDate;
 
     // Constructor for Customer
     public Customer(String id, String name, String email, String phone, 
                    String company, String notes, String createdDate) {
+        this(id, name, email, phone, company, notes, CRMDate.parse(createdDate));
+    }
+
+    // Constructor for Customer with an already parsed date
+    public Customer(String id, String name, String email, String phone,
+                   String company, String notes, CRMDate createdDate) {
         this.id = id;
         this.name = name;
         this.email = email;
@@ -28,7 +34,8 @@ public class Customer {
     public String getPhone() { return phone; }
     public String getCompany() { return company; }
     public String getNotes() { return notes; }
-    public String getCreatedDate() { return createdDate; }
+    public String getCreatedDate() { return createdDate != null ? createdDate.toString() : null; }
+    public CRMDate getCreatedDateValue() { return createdDate; }
 
     // Setters
     public void setId(String id) { this.id = id; }
@@ -37,11 +44,19 @@ public class Customer {
     public void setPhone(String phone) { this.phone = phone; }
     public void setCompany(String company) { this.company = company; }
     public void setNotes(String notes) { this.notes = notes; }
-    public void setCreatedDate(String createdDate) { this.createdDate = createdDate; }
+    public void setCreatedDate(String createdDate) { this.createdDate = CRMDate.parse(createdDate); }
 
     // Convert customer data to CSV array format
     public String[] toCSVArray() {
-        return new String[]{id, name, email, phone, company, notes, createdDate};
+        return new String[]{id, name, email, phone, company, notes, getCreatedDate()};
+    }
+
+    // Create a customer from CSV array format, null if there are too few fields
+    public static Customer fromCSVArray(String[] parts) {
+        if (parts.length < 7) {
+            return null;
+        }
+        return new Customer(parts[0], parts[1], parts[2], parts[3], parts[4], parts[5], parts[6]);
     }
 
     @Override
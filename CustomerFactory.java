@@ -1,5 +1,3 @@
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.Map;
 
 /**
@@ -16,7 +14,7 @@ public class CustomerFactory extends EntityFactory<Customer> {
     @Override
     public Customer create(Map<String, Object> params) {
         String id = generateId("CUST");
-        String createdDate = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+        CRMDate createdDate = CRMDate.now();
         
         return new Customer(
             id,
@@ -0,0 +1,164 @@
+import java.util.*;
+
+/**
+ * CustomerSearchIndex is an in-memory trigram index over customer name, email and company
+ * Every 3 character substring of the lowercased fields maps to the positions of the
+ * customers containing it, so a search only checks customers that have all the
+ * trigrams of the search term instead of lowercasing every customer on every query
+ * Terms shorter than 3 characters fall back to a scan of the pre-lowercased fields
+ * Matching stays case-insensitive substring matching as before
+ */
+public class CustomerSearchIndex {
+    // field weights used for ranking, a name hit ranks above an email hit above a company hit
+    private static final int[] FIELD_WEIGHTS = {3, 2, 1};
+
+    // lowercased name, email and company per customer position
+    private final List<String[]> fields = new ArrayList<>();
+    private final Map<Long, IntList> trigrams = new HashMap<>();
+
+    /**
+     * Index a customer, positions are assigned in the order customers are added
+     *
+     * @param customer The customer to index
+     */
+    public void add(Customer customer) {
+        int position = fields.size();
+        String[] lowered = {
+            lower(customer.getName()),
+            lower(customer.getEmail()),
+            lower(customer.getCompany())
+        };
+        fields.add(lowered);
+        for (String field : lowered) {
+            for (int i = 0; i + 3 <= field.length(); i++) {
+                trigrams.computeIfAbsent(trigramKey(field, i), k -> new IntList()).addIfLast(position);
+            }
+        }
+    }
+
+    /**
+     * Find customers whose name, email or company contains the term, ignoring case
+     *
+     * @param searchTerm The text to look for
+     * @param limit The maximum number of results
+     * @return Matching customer positions, best match first
+     */
+    public List<Integer> search(String searchTerm, int limit) {
+        String term = searchTerm.toLowerCase();
+        List<int[]> matches = new ArrayList<>();  // {position, score}
+
+        IntList candidates = candidates(term);
+        if (candidates == null) {
+            for (int position = 0; position < fields.size(); position++) {
+                addIfMatch(matches, position, term);
+            }
+        } else {
+            for (int i = 0; i < candidates.size(); i++) {
+                addIfMatch(matches, candidates.get(i), term);
+            }
+        }
+
+        // highest score first, ties keep insertion order
+        matches.sort((a, b) -> a[1] != b[1] ? Integer.compare(b[1], a[1]) : Integer.compare(a[0], b[0]));
+        List<Integer> result = new ArrayList<>(Math.min(limit, matches.size()));
+        for (int i = 0; i < matches.size() && i < limit; i++) {
+            result.add(matches.get(i)[0]);
+        }
+        return result;
+    }
+
+    /**
+     * Find every customer whose name, email or company contains the term, ignoring case, unranked
+     *
+     * @param searchTerm The text to look for
+     * @return Matching customer positions in the order the customers were added
+     */
+    public IntList find(String searchTerm) {
+        String term = searchTerm.toLowerCase();
+        IntList candidates = candidates(term);
+        IntList result = new IntList();
+        int count = candidates != null ? candidates.size() : fields.size();
+        for (int i = 0; i < count; i++) {
+            int position = candidates != null ? candidates.get(i) : i;
+            for (String field : fields.get(position)) {
+                if (field.contains(term)) {
+                    result.add(position);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Estimate how many customers a search checks without checking any, for the query planner
+     *
+     * @param searchTerm The text to look for
+     * @return The size of the smallest posting list of the term's trigrams, -1 if the term is too short for the index
+     */
+    public int estimate(String searchTerm) {
+        String term = searchTerm.toLowerCase();
+        if (term.length() < 3) {
+            return -1;
+        }
+        int smallest = Integer.MAX_VALUE;
+        for (int i = 0; i + 3 <= term.length(); i++) {
+            IntList posting = trigrams.get(trigramKey(term, i));
+            if (posting == null) {
+                return 0;
+            }
+            smallest = Math.min(smallest, posting.size());
+        }
+        return smallest;
+    }
+
+    // intersect the posting lists of every trigram in the term, smallest first
+    // returns null when the term is too short to use the index
+    private IntList candidates(String term) {
+        if (term.length() < 3) {
+            return null;
+        }
+        List<IntList> postings = new ArrayList<>();
+        for (int i = 0; i + 3 <= term.length(); i++) {
+            IntList posting = trigrams.get(trigramKey(term, i));
+            if (posting == null) {
+                return new IntList();
+            }
+            postings.add(posting);
+        }
+        postings.sort(Comparator.comparingInt(IntList::size));
+        IntList result = postings.get(0);
+        for (int i = 1; i < postings.size() && !result.isEmpty(); i++) {
+            result = IntList.intersect(result, postings.get(i));
+        }
+        return result;
+    }
+
+    // verify a candidate and score it, exact field match > prefix > substring
+    private void addIfMatch(List<int[]> matches, int position, String term) {
+        String[] lowered = fields.get(position);
+        int score = 0;
+        for (int f = 0; f < lowered.length; f++) {
+            String field = lowered[f];
+            if (field.equals(term)) {
+                score += 100 * FIELD_WEIGHTS[f];
+            } else if (field.startsWith(term)) {
+                score += 50 * FIELD_WEIGHTS[f];
+            } else if (field.contains(term)) {
+                score += 10 * FIELD_WEIGHTS[f];
+            }
+        }
+        if (score > 0 || term.isEmpty()) {
+            matches.add(new int[]{position, score});
+        }
+    }
+
+    private static String lower(String value) {
+        return value == null ? "" : value.toLowerCase();
+    }
+
+    // pack three chars into one key
+    private static long trigramKey(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+}
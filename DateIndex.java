@@ -0,0 +1,133 @@
+import java.util.Arrays;
+
+/**
+ * DateIndex maps dates to the positions of entities in storage, sorted by date
+ * Keys are CRMDate local epoch seconds held in a primitive array next to the
+ * positions, so a range query is two binary searches. New entries usually arrive
+ * in date order and are appended, entries out of order (for example a csv file
+ * not sorted by date) only mark the index unsorted and it is sorted once by the
+ * next query. Entries with the same date keep the order they were added in
+ * Adding needs the caller's write lock, queries may run together under its read lock
+ */
+public class DateIndex {
+    private long[] keys = new long[16];
+    private int[] positions = new int[16];
+    private int size = 0;
+    private boolean sorted = true;
+
+    /**
+     * Index an entity by date, dates that are only text are ignored
+     *
+     * @param date The date, may be null
+     * @param position The position of the entity in storage
+     */
+    public synchronized void add(CRMDate date, int position) {
+        if (date == null || !date.isValid()) {
+            return;
+        }
+        long key = date.toLocalEpochSecond();
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            positions = Arrays.copyOf(positions, size * 2);
+        }
+        if (size > 0 && key < keys[size - 1]) {
+            sorted = false;
+        }
+        keys[size] = key;
+        positions[size] = position;
+        size++;
+    }
+
+    /**
+     * Find the entities dated within a range, both ends included
+     *
+     * @param from The earliest local epoch second
+     * @param to The latest local epoch second
+     * @return The positions, ordered by date
+     */
+    public IntList find(long from, long to) {
+        ensureSorted();
+        IntList result = new IntList();
+        if (from > to) {
+            return result;
+        }
+        for (int i = lowerBound(from); i < size && keys[i] <= to; i++) {
+            result.add(positions[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Count the entities dated within a range without collecting them, for the query planner
+     *
+     * @param from The earliest local epoch second
+     * @param to The latest local epoch second
+     * @return The number of entities find would return
+     */
+    public int count(long from, long to) {
+        ensureSorted();
+        if (from > to) {
+            return 0;
+        }
+        // first index with a key > to
+        int end = to == Long.MAX_VALUE ? size : lowerBound(to + 1);
+        return end - lowerBound(from);
+    }
+
+    // first index with a key >= key
+    private int lowerBound(long key) {
+        int low = 0, high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // sort by key, stable so equal keys stay in insertion order, readers wait for the one sorting
+    private synchronized void ensureSorted() {
+        if (sorted) {
+            return;
+        }
+        long[] keyBuffer = new long[size];
+        int[] positionBuffer = new int[size];
+        mergeSort(0, size, keyBuffer, positionBuffer);
+        sorted = true;
+    }
+
+    private void mergeSort(int from, int to, long[] keyBuffer, int[] positionBuffer) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(from, mid, keyBuffer, positionBuffer);
+        mergeSort(mid, to, keyBuffer, positionBuffer);
+        if (keys[mid - 1] <= keys[mid]) {
+            return;  // already in order, the common case for mostly sorted data
+        }
+        System.arraycopy(keys, from, keyBuffer, from, to - from);
+        System.arraycopy(positions, from, positionBuffer, from, to - from);
+        int left = from, right = mid, out = from;
+        while (left < mid && right < to) {
+            if (keyBuffer[right] < keyBuffer[left]) {
+                keys[out] = keyBuffer[right];
+                positions[out++] = positionBuffer[right++];
+            } else {
+                keys[out] = keyBuffer[left];
+                positions[out++] = positionBuffer[left++];
+            }
+        }
+        while (left < mid) {
+            keys[out] = keyBuffer[left];
+            positions[out++] = positionBuffer[left++];
+        }
+        while (right < to) {
+            keys[out] = keyBuffer[right];
+            positions[out++] = positionBuffer[right++];
+        }
+    }
+}
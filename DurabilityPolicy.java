@@ -0,0 +1,14 @@
+// when persisted changes are forced to disk, set with crm.durability
+// EVERY_WRITE fsyncs before a change returns, INTERVAL fsyncs every crm.durability.intervalMillis
+// (in snapshot mode the files are also only rewritten then), OS leaves it to the operating system
+// a snapshot file is always fsynced before it replaces the old one, the policy decides whether the
+// rename is fsynced too and how the journal is written
+
+public enum DurabilityPolicy {
+    EVERY_WRITE, INTERVAL, OS;
+
+    // parse the property value, "every-write" and "EVERY_WRITE" are both accepted
+    public static DurabilityPolicy parse(String value) {
+        return valueOf(value.trim().toUpperCase().replace('-', '_'));
+    }
+}
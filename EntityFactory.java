@@ -1,5 +1,3 @@
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.Map;
 
 /**
@@ -19,13 +17,24 @@ public abstract class EntityFactory<T> {
     public abstract T create(Map<String, Object> params);
     
     /**
-     * Generate a unique ID with a prefix and timestamp
+     * Generate a unique ID with a prefix, timestamp and sequence number
      * 
      * @param prefix The prefix for the ID
      * @return A unique ID string
      */
     protected String generateId(String prefix) {
-        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss"));
-        return prefix + "_" + timestamp;
+        return IdGenerator.forPrefix(prefix).next();
+    }
+    
+    /**
+     * Tell the generator about an existing ID so new IDs are created after it
+     * 
+     * @param id An ID loaded from storage
+     */
+    public void observeId(String id) {
+        int separator = id.indexOf('_');
+        if (separator > 0) {
+            IdGenerator.forPrefix(id.substring(0, separator)).observe(id);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,190 @@
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * EventDispatcher delivers observer events on a dedicated thread
+ * Events are put into a bounded ring buffer by the thread raising them and the
+ * dispatcher thread takes everything queued at once and hands it to each observer
+ * as one batch, so the caller never waits for observer work such as console output
+ * When the buffer is full the configured BackpressurePolicy decides what happens
+ * Queued events are always delivered before shutdown returns, also on JVM exit
+ */
+public class EventDispatcher {
+    private final CRMEvent[] buffer;
+    private final BackpressurePolicy policy;
+    private final int maxBatch;
+    private final Supplier<List<Observer>> observers;
+
+    private int head = 0;   // index of the oldest queued event
+    private int count = 0;  // number of queued events
+    private boolean running = true;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private final Thread thread;
+    private final Thread shutdownHook;
+
+    // statistics
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    /**
+     * Create and start a dispatcher
+     *
+     * @param capacity The number of events the ring buffer holds
+     * @param policy What to do when the buffer is full
+     * @param maxBatch The most events handed to observers in one batch
+     * @param observers Supplies the observers to deliver to
+     */
+    public EventDispatcher(int capacity, BackpressurePolicy policy, int maxBatch,
+                           Supplier<List<Observer>> observers) {
+        this.buffer = new CRMEvent[Math.max(capacity, 1)];
+        this.policy = policy;
+        this.maxBatch = Math.max(maxBatch, 1);
+        this.observers = observers;
+
+        thread = new Thread(this::run, "crm-event-dispatcher");
+        thread.setDaemon(true);
+        thread.start();
+        shutdownHook = new Thread(this::shutdown, "crm-event-dispatcher-flush");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Queue an event for delivery
+     *
+     * @param event The event to deliver
+     * @return false if the dispatcher is shut down and the event was not queued
+     */
+    public boolean publish(CRMEvent event) {
+        lock.lock();
+        try {
+            while (running && count == buffer.length) {
+                if (policy == BackpressurePolicy.DROP_OLDEST) {
+                    buffer[head] = null;
+                    head = (head + 1) % buffer.length;
+                    count--;
+                    dropped.incrementAndGet();
+                } else if (policy == BackpressurePolicy.COALESCE && coalesceInto(event)) {
+                    return true;
+                } else {
+                    notFull.awaitUninterruptibly();
+                }
+            }
+            if (!running) {
+                return false;
+            }
+            buffer[(head + count) % buffer.length] = event;
+            count++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // merge the event into the newest queued event of the same type
+    private boolean coalesceInto(CRMEvent event) {
+        for (int i = count - 1; i >= 0; i--) {
+            CRMEvent queued = buffer[(head + i) % buffer.length];
+            if (queued.getEventType().equals(event.getEventType())) {
+                queued.addCoalesced();
+                coalesced.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // dispatcher thread, takes whole batches and delivers them until shut down and drained
+    private void run() {
+        List<CRMEvent> batch = new ArrayList<>(maxBatch);
+        while (true) {
+            lock.lock();
+            try {
+                while (count == 0 && running) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (count == 0) {
+                    return;
+                }
+                while (count > 0 && batch.size() < maxBatch) {
+                    batch.add(buffer[head]);
+                    buffer[head] = null;
+                    head = (head + 1) % buffer.length;
+                    count--;
+                }
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            deliver(batch);
+            batch.clear();
+        }
+    }
+
+    // hand one batch to every observer, a failing observer does not stop the others
+    private void deliver(List<CRMEvent> batch) {
+        List<CRMEvent> view = Collections.unmodifiableList(batch);
+        for (Observer observer : observers.get()) {
+            try {
+                observer.updateBatch(view);
+            } catch (RuntimeException e) {
+                System.err.println("Observer failed: " + e.getMessage());
+            }
+        }
+        delivered.addAndGet(batch.size());
+        batches.incrementAndGet();
+    }
+
+    /**
+     * Stop accepting events and wait until every queued event has been delivered
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            running = false;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // JVM is already shutting down
+            }
+        }
+    }
+
+    // Getters for statistics
+    public long getDelivered() { return delivered.get(); }
+    public long getDropped() { return dropped.get(); }
+    public long getCoalesced() { return coalesced.get(); }
+    public long getBatches() { return batches.get(); }
+
+    // number of events waiting for delivery
+    public int getQueued() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * GroupCommit turns many concurrent changes to one data file into one write
+ * A writer registers a ticket while it still holds the write lock of its data,
+ * then waits in commit after releasing it. The first waiter becomes the leader,
+ * waits out the group window and writes everything registered up to then, while
+ * that write runs new changes queue up for the next one. So a burst of N changes
+ * costs a few writes (and fsyncs) instead of N
+ *
+ * EVERY_WRITE: commit returns once the change is written and fsynced
+ * INTERVAL:    commit returns once the change is written (or at once for deferred
+ *              writers such as the snapshots), flush(true) runs on a timer
+ * OS:          commit returns once the change is written, nothing is fsynced
+ */
+public class GroupCommit {
+
+    // writes the data file, sync asks for an fsync before returning
+    public interface Writer {
+        void write(boolean sync) throws IOException;
+    }
+
+    private final String name;
+    private final DurabilityPolicy policy;
+    private final boolean deferred;
+    private final long windowNanos;
+    private final Writer writer;
+    private final CommitStats stats;
+
+    // guarded by this
+    private long registered = 0;
+    private long written = 0;
+    private long synced = 0;
+    private boolean writing = false;
+
+    /**
+     * Create a group commit for one data file
+     *
+     * @param name The name shown in the statistics
+     * @param policy When writes are fsynced
+     * @param deferred true to leave all writing to flush under the INTERVAL policy
+     * @param windowMicros How long a leader waits for more changes before writing
+     * @param writer Writes the file
+     */
+    public GroupCommit(String name, DurabilityPolicy policy, boolean deferred, long windowMicros, Writer writer) {
+        this.name = name;
+        this.policy = policy;
+        this.deferred = deferred && policy == DurabilityPolicy.INTERVAL;
+        this.windowNanos = windowMicros * 1000;
+        this.writer = writer;
+        this.stats = new CommitStats(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Register a change, called after the change is made and before its lock is released
+     *
+     * @return The ticket to pass to commit
+     */
+    public synchronized long register() {
+        return ++registered;
+    }
+
+    /**
+     * Wait until the change with this ticket is as durable as the policy asks
+     *
+     * @param ticket The ticket from register
+     */
+    public void commit(long ticket) {
+        long start = System.nanoTime();
+        if (!deferred) {
+            await(ticket, policy == DurabilityPolicy.EVERY_WRITE, true);
+        }
+        synchronized (this) {
+            stats.commit(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Write every registered change that is not written yet
+     * Used by the interval timer and on shutdown
+     *
+     * @param sync true to fsync as well
+     */
+    public void flush(boolean sync) {
+        long target;
+        synchronized (this) {
+            target = registered;
+        }
+        await(target, sync, false);
+    }
+
+    // true if changes are registered but not yet written (or fsynced)
+    public synchronized boolean isDirty(boolean sync) {
+        return (sync ? synced : written) < registered;
+    }
+
+    // copy of the statistics so far
+    public synchronized CommitStats getStats() {
+        return new CommitStats(stats);
+    }
+
+    // wait for a write covering ticket, becoming the leader that writes it if nobody is writing
+    private void await(long ticket, boolean sync, boolean useWindow) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                synchronized (this) {
+                    while ((sync ? synced : written) < ticket && writing) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                    if ((sync ? synced : written) >= ticket) {
+                        return;
+                    }
+                    writing = true;
+                }
+                lead(sync, useWindow);
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // write everything registered so far, the leader's own change included
+    private void lead(boolean sync, boolean useWindow) {
+        if (useWindow && windowNanos > 0) {
+            LockSupport.parkNanos(windowNanos);
+        }
+        long target;
+        long batch;
+        synchronized (this) {
+            target = registered;
+            // changes already written and only fsynced now are not counted again
+            batch = target - written;
+        }
+        long start = System.nanoTime();
+        boolean failed = false;
+        try {
+            writer.write(sync);
+        } catch (IOException e) {
+            // reported like any other save failure, the changes stay in memory
+            System.err.println("Error writing " + stats.getName() + ": " + e.getMessage());
+            failed = true;
+        } finally {
+            synchronized (this) {
+                written = Math.max(written, target);
+                if (sync) {
+                    synced = Math.max(synced, target);
+                }
+                writing = false;
+                stats.write(batch, sync, failed, System.nanoTime() - start);
+                notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram counts recorded values, latencies in nanoseconds or sizes in bytes,
+ * in log-linear buckets so any percentile can be read back within about 6%
+ * Values below 16 get a bucket each, above that each power of two is split into
+ * 16 buckets. Recording is lock free, one atomic increment per bucket plus the
+ * count, sum and max, so it can be called on every operation from many threads
+ */
+public class Histogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // enough buckets for any positive long
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    public static final String NANOS = "ns";
+    public static final String BYTES = "bytes";
+
+    private final String name;
+    private final String unit;
+    private final AtomicLongArray buckets;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Constructor for Histogram
+     *
+     * @param name What is measured, for example "searchCustomers"
+     * @param unit NANOS or BYTES
+     */
+    public Histogram(String name, String unit) {
+        this.name = name;
+        this.unit = unit;
+        this.buckets = new AtomicLongArray(BUCKETS);
+    }
+
+    // a copy of the counts so far, the copy is not changed by later records
+    Histogram(Histogram other) {
+        this.name = other.name;
+        this.unit = other.unit;
+        this.buckets = new AtomicLongArray(BUCKETS);
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = other.buckets.get(i);
+            buckets.set(i, n);
+            total += n;
+        }
+        // count from the buckets so percentiles agree with it even while others record
+        this.count.add(total);
+        this.sum.add(other.sum.sum());
+        this.max.set(other.max.get());
+    }
+
+    /**
+     * Record one value
+     *
+     * @param value The value, negative values count as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    // Getters
+    public String getName() { return name; }
+    public String getUnit() { return unit; }
+    public long getCount() { return count.sum(); }
+    public long getSum() { return sum.sum(); }
+    public long getMax() { return max.get(); }
+
+    public double getMean() {
+        long n = count.sum();
+        return n > 0 ? (double) sum.sum() / n : 0;
+    }
+
+    /**
+     * Get a percentile, as the highest value of the bucket it falls in
+     *
+     * @param percentile From 0 to 100, for example 99.9
+     * @return The value at that percentile, never more than the max, 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += buckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    // the bucket holding a value, exact below SUB_COUNT and then SUB_COUNT buckets per power of two
+    static int bucketOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_COUNT + (int) ((value >>> shift) & (SUB_COUNT - 1));
+    }
+
+    // the largest value that falls in a bucket
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_COUNT - 1;
+        long lowest = (long) (SUB_COUNT + bucket % SUB_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,126 @@
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IdGenerator creates unique, increasing ids such as CUST_20261017120000_000042
+ * The id is the prefix, the local time to the second and a sequence number within
+ * that second, so ids stay readable and sort in creation order
+ * The last id handed out is kept in one AtomicLong, a new id is always greater than
+ * the previous one so two threads or two ids in the same second never collide,
+ * even if the clock goes backwards. No formatter is created per id, the time digits
+ * are only recomputed when the second changes
+ * There is one generator per prefix shared by the whole application
+ */
+public class IdGenerator {
+    private static final long SEQ_LIMIT = 1_000_000L;  // sequence numbers per second
+    private static final Map<String, IdGenerator> GENERATORS = new ConcurrentHashMap<>();
+
+    private final String prefix;
+    // last id as local time in epoch seconds * SEQ_LIMIT + sequence,
+    // local time rather than UTC so the value orders the same way as the id text
+    private final AtomicLong last = new AtomicLong();
+    // {epoch second, local epoch second} for the current second
+    private volatile long[] cachedClock = {Long.MIN_VALUE, 0};
+    // {local epoch second, yyyyMMddHHmmss} for the last second formatted
+    private volatile long[] cachedStamp = {Long.MIN_VALUE, 0};
+
+    private IdGenerator(String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * Get the shared generator for a prefix
+     *
+     * @param prefix The id prefix, for example CUST
+     * @return The generator for that prefix
+     */
+    public static IdGenerator forPrefix(String prefix) {
+        return GENERATORS.computeIfAbsent(prefix, IdGenerator::new);
+    }
+
+    /**
+     * Generate the next id
+     * When more than a million ids are needed in one second the sequence moves on
+     * into the next second, so ids stay unique and in order
+     *
+     * @return A unique id greater than every id generated or observed before
+     */
+    public String next() {
+        long candidate = currentLocalSecond() * SEQ_LIMIT;
+        long previous, next;
+        do {
+            previous = last.get();
+            next = Math.max(candidate, previous + 1);
+        } while (!last.compareAndSet(previous, next));
+        return format(next);
+    }
+
+    /**
+     * Make sure future ids are greater than an existing id, used for ids loaded from disk
+     * Ids from before the sequence number was added (PREFIX_yyyyMMddHHmmss) are understood too
+     *
+     * @param id An id created earlier
+     */
+    public void observe(String id) {
+        int start = prefix.length() + 1;
+        if (!id.startsWith(prefix) || id.length() < start + 14 || id.charAt(start - 1) != '_') {
+            return;
+        }
+        try {
+            long stamp = Long.parseLong(id.substring(start, start + 14));
+            LocalDateTime time = LocalDateTime.of((int) (stamp / 10_000_000_000L), (int) (stamp / 100_000_000L % 100),
+                                                  (int) (stamp / 1_000_000L % 100), (int) (stamp / 10_000L % 100),
+                                                  (int) (stamp / 100L % 100), (int) (stamp % 100));
+            long value = time.toEpochSecond(ZoneOffset.UTC) * SEQ_LIMIT;
+            if (id.length() > start + 15 && id.charAt(start + 14) == '_') {
+                value += Long.parseLong(id.substring(start + 15));
+            }
+            last.accumulateAndGet(value, Math::max);
+        } catch (NumberFormatException | DateTimeException e) {
+            // not an id from this generator
+        }
+    }
+
+    // the current local time in epoch seconds, the zone offset is looked up once per second
+    private long currentLocalSecond() {
+        long epochSecond = System.currentTimeMillis() / 1000;
+        long[] cached = cachedClock;
+        if (cached[0] != epochSecond) {
+            int offset = ZoneId.systemDefault().getRules().getOffset(Instant.ofEpochSecond(epochSecond)).getTotalSeconds();
+            cached = new long[]{epochSecond, epochSecond + offset};
+            cachedClock = cached;
+        }
+        return cached[1];
+    }
+
+    // the local second as the number yyyyMMddHHmmss, cached for the last second formatted
+    private long stamp(long localSecond) {
+        long[] cached = cachedStamp;
+        if (cached[0] != localSecond) {
+            LocalDateTime time = LocalDateTime.ofEpochSecond(localSecond, 0, ZoneOffset.UTC);
+            long stamp = time.getYear() * 10_000_000_000L + time.getMonthValue() * 100_000_000L
+                       + time.getDayOfMonth() * 1_000_000L + time.getHour() * 10_000L
+                       + time.getMinute() * 100L + time.getSecond();
+            cached = new long[]{localSecond, stamp};
+            cachedStamp = cached;
+        }
+        return cached[1];
+    }
+
+    // PREFIX_yyyyMMddHHmmss_nnnnnn
+    private String format(long value) {
+        StringBuilder sb = new StringBuilder(prefix.length() + 22);
+        sb.append(prefix).append('_').append(stamp(value / SEQ_LIMIT)).append('_');
+        long seq = value % SEQ_LIMIT;
+        for (long digit = SEQ_LIMIT / 10; digit > 1 && seq < digit; digit /= 10) {
+            sb.append('0');
+        }
+        return sb.append(seq).toString();
+    }
+}
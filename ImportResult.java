@@ -0,0 +1,50 @@
+import java.util.*;
+
+/**
+ * ImportResult tells how a bulk import went
+ * Holds the number of records imported and skipped and the reasons for the
+ * first skipped records, returned by the CRMSystem import methods
+ */
+public class ImportResult {
+    private static final int MAX_ERRORS = 20;
+
+    private final String entity;
+    private int imported = 0;
+    private int skipped = 0;
+    private final List<String> errors = new ArrayList<>();
+    private long elapsedNanos = 0;
+
+    // Constructor for ImportResult
+    public ImportResult(String entity) {
+        this.entity = entity;
+    }
+
+    // record that a record was not imported, only the first few reasons are kept
+    void skip(int record, String reason) {
+        skipped++;
+        if (errors.size() < MAX_ERRORS) {
+            errors.add("record " + record + ": " + reason);
+        }
+    }
+
+    void setImported(int imported) { this.imported = imported; }
+    void setElapsedNanos(long elapsedNanos) { this.elapsedNanos = elapsedNanos; }
+
+    // Getters
+    public String getEntity() { return entity; }
+    public int getImported() { return imported; }
+    public int getSkipped() { return skipped; }
+    public List<String> getErrors() { return Collections.unmodifiableList(errors); }
+    public long getElapsedMillis() { return elapsedNanos / 1_000_000; }
+
+    // imported records per second
+    public double getThroughput() {
+        return elapsedNanos > 0 ? imported / (elapsedNanos / 1e9) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Imported %d %s, skipped %d, in %d ms (%.0f records/sec)",
+                             imported, entity, skipped, getElapsedMillis(), getThroughput());
+    }
+}
@@ -0,0 +1,104 @@
+import java.util.Arrays;
+
+/**
+ * IntList is a growable array of primitive ints
+ * Used as a compact posting list by the in-memory indexes, where values are
+ * entity positions appended in increasing order so the list stays sorted
+ */
+public class IntList {
+    private int[] values;
+    private int size;
+
+    // Create an empty list
+    public IntList() {
+        this(4);
+    }
+
+    // Create an empty list with room for the given number of values
+    public IntList(int capacity) {
+        values = new int[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Add a value to the end of the list
+     *
+     * @param value The value to add
+     */
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    // Add a value unless it is already the last one, keeps sorted lists free of duplicates
+    public void addIfLast(int value) {
+        if (size == 0 || values[size - 1] != value) {
+            add(value);
+        }
+    }
+
+    // Getters
+    public int get(int index) { return values[index]; }
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    // true if the sorted list contains the value
+    public boolean contains(int value) {
+        return Arrays.binarySearch(values, 0, size, value) >= 0;
+    }
+
+    /**
+     * Intersect two sorted lists
+     *
+     * @param a First sorted list
+     * @param b Second sorted list
+     * @return A new sorted list with the values present in both
+     */
+    public static IntList intersect(IntList a, IntList b) {
+        IntList result = new IntList(Math.min(a.size, b.size));
+        int i = 0, j = 0;
+        while (i < a.size && j < b.size) {
+            int x = a.values[i], y = b.values[j];
+            if (x == y) {
+                result.add(x);
+                i++;
+                j++;
+            } else if (x < y) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Union of two sorted lists
+     *
+     * @param a First sorted list
+     * @param b Second sorted list
+     * @return A new sorted list with the values present in either
+     */
+    public static IntList union(IntList a, IntList b) {
+        IntList result = new IntList(a.size + b.size);
+        int i = 0, j = 0;
+        while (i < a.size || j < b.size) {
+            if (j == b.size || (i < a.size && a.values[i] < b.values[j])) {
+                result.addIfLast(a.values[i++]);
+            } else if (i == a.size || b.values[j] < a.values[i]) {
+                result.addIfLast(b.values[j++]);
+            } else {
+                result.addIfLast(a.values[i]);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    // copy of the values as a plain array
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
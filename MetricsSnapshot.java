@@ -0,0 +1,93 @@
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * MetricsSnapshot is a copy of every counter and histogram of CRMMetrics at one moment
+ * Later operations do not change it, so it can be read and formatted at leisure
+ */
+public class MetricsSnapshot {
+    private final CRMDate taken;
+    private final long uptimeMillis;
+    private final Map<String, Histogram> histograms;
+    private final Map<String, Long> counters;
+
+    /**
+     * Constructor for MetricsSnapshot
+     *
+     * @param uptimeMillis How long the metrics have been collected
+     * @param histograms Copies of the histograms, by name
+     * @param counters Counter values, by name
+     */
+    public MetricsSnapshot(long uptimeMillis, Map<String, Histogram> histograms, Map<String, Long> counters) {
+        this.taken = CRMDate.of(LocalDateTime.now().withNano(0));
+        this.uptimeMillis = uptimeMillis;
+        this.histograms = Collections.unmodifiableMap(new TreeMap<>(histograms));
+        this.counters = Collections.unmodifiableMap(new TreeMap<>(counters));
+    }
+
+    // Getters
+    public CRMDate getTaken() { return taken; }
+    public long getUptimeMillis() { return uptimeMillis; }
+    public Map<String, Histogram> getHistograms() { return histograms; }
+    public Map<String, Long> getCounters() { return counters; }
+
+    // a histogram by name, null if nothing was recorded under it
+    public Histogram getHistogram(String name) {
+        return histograms.get(name);
+    }
+
+    // a counter by name, 0 if it was never incremented
+    public long getCounter(String name) {
+        return counters.getOrDefault(name, 0L);
+    }
+
+    /**
+     * Format the snapshot as text tables, latencies first, then sizes and counters
+     *
+     * @return The report, one line per histogram or counter
+     */
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Metrics at %s, collected for %.1f s\n", taken, uptimeMillis / 1000.0));
+        for (String unit : new String[]{Histogram.NANOS, Histogram.BYTES}) {
+            boolean header = false;
+            for (Histogram histogram : histograms.values()) {
+                if (!histogram.getUnit().equals(unit) || histogram.getCount() == 0) {
+                    continue;
+                }
+                if (!header) {
+                    sb.append(String.format("\n%-38s %9s %10s %10s %10s %10s %10s\n",
+                                            unit.equals(Histogram.NANOS) ? "Latency" : "Size",
+                                            "Count", "Mean", "p50", "p99", "p99.9", "Max"));
+                    header = true;
+                }
+                sb.append(String.format("%-38s %9d %10s %10s %10s %10s %10s\n", histogram.getName(),
+                                        histogram.getCount(), value((long) histogram.getMean(), unit),
+                                        value(histogram.getPercentile(50), unit),
+                                        value(histogram.getPercentile(99), unit),
+                                        value(histogram.getPercentile(99.9), unit),
+                                        value(histogram.getMax(), unit)));
+            }
+        }
+        if (!counters.isEmpty()) {
+            sb.append(String.format("\n%-38s %9s\n", "Counter", "Value"));
+            for (Map.Entry<String, Long> counter : counters.entrySet()) {
+                sb.append(String.format("%-38s %9d\n", counter.getKey(), counter.getValue()));
+            }
+        }
+        return sb.toString();
+    }
+
+    // a value in the most readable unit
+    private static String value(long value, String unit) {
+        if (unit.equals(Histogram.BYTES)) {
+            if (value < 10_000) return value + " B";
+            if (value < 10_000_000) return String.format("%.1f KB", value / 1024.0);
+            return String.format("%.1f MB", value / 1048576.0);
+        }
+        if (value < 1_000) return value + " ns";
+        if (value < 1_000_000) return String.format("%.1f us", value / 1e3);
+        if (value < 1_000_000_000) return String.format("%.2f ms", value / 1e6);
+        return String.format("%.2f s", value / 1e9);
+    }
+}
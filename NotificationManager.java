@@ -1,12 +1,12 @@
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.ZoneId;
+import java.util.List;
 import java.util.Map;
-import java.util.Observer;
 
 //NotificationManager implements Observer pattern 
 //Handles notifications for various CRM system events
 public class NotificationManager implements Observer {
-    
     /**
      * Update method called when events occur in the CRM system
      * 
@@ -15,28 +15,60 @@ public class NotificationManager implements Observer {
      */
     @Override
     public void update(String eventType, Map<String, Object> data) {
-        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
-        
+        String timestamp = LocalDateTime.now().format(CRMDate.DATE_TIME_FORMAT);
+        StringBuilder sb = new StringBuilder();
+        appendMessage(sb, timestamp, eventType, data, 0);
+        System.out.print(sb);
+    }
+    
+    /**
+     * Print a whole batch of events with a single write to the console
+     * 
+     * @param events The events in the order they were raised
+     */
+    @Override
+    public void updateBatch(List<CRMEvent> events) {
+        StringBuilder sb = new StringBuilder();
+        for (CRMEvent event : events) {
+            String timestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(event.getTimestamp()),
+                                                       ZoneId.systemDefault()).format(CRMDate.DATE_TIME_FORMAT);
+            appendMessage(sb, timestamp, event.getEventType(), event.getData(), event.getCoalesced());
+        }
+        System.out.print(sb);
+        System.out.flush();
+    }
+    
+    // format the message for one event
+    private void appendMessage(StringBuilder sb, String timestamp, String eventType,
+                               Map<String, Object> data, int coalesced) {
         switch (eventType) {
             case "task_created":
-                System.out.printf("\n[%s] New task created: %s (Due: %s)\n", 
-                                timestamp, data.get("title"), data.get("dueDate"));
+                sb.append(String.format("\n[%s] New task created: %s (Due: %s)", 
+                                timestamp, data.get("title"), data.get("dueDate")));
                 break;
             case "task_due_soon":
-                System.out.printf("\n[%s] Task due soon: %s (Due: %s)\n", 
-                                timestamp, data.get("title"), data.get("dueDate"));
+                sb.append(String.format("\n[%s] Task due soon: %s (Due: %s)", 
+                                timestamp, data.get("title"), data.get("dueDate")));
                 break;
             case "customer_created":
-                System.out.printf("\n[%s] New customer added: %s\n", 
-                                timestamp, data.get("name"));
+                sb.append(String.format("\n[%s] New customer added: %s", 
+                                timestamp, data.get("name")));
                 break;
             case "communication_logged":
-                System.out.printf("\n[%s] Communication logged with %s: %s\n", 
-                                timestamp, data.get("customerName"), data.get("type"));
+                sb.append(String.format("\n[%s] Communication logged with %s: %s", 
+                                timestamp, data.get("customerName"), data.get("type")));
+                break;
+            case "bulk_import":
+                sb.append(String.format("\n[%s] Imported %s %s", 
+                                timestamp, data.get("count"), data.get("entity")));
                 break;
             default:
-                System.out.printf("\n[%s] System event: %s\n", timestamp, eventType);
+                sb.append(String.format("\n[%s] System event: %s", timestamp, eventType));
                 break;
         }
+        if (coalesced > 0) {
+            sb.append(String.format(" (+%d more)", coalesced));
+        }
+        sb.append("\n");
     }
-}
\ No newline at end of file
+}
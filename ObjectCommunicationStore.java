@@ -0,0 +1,91 @@
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * ObjectCommunicationStore keeps every communication as its own object in a list,
+ * with a map from customer id to that customer's communications
+ */
+public class ObjectCommunicationStore implements CommunicationStore {
+    private final List<Communication> communications = new ArrayList<>();
+    private final Map<String, List<Communication>> byCustomer = new HashMap<>();
+
+    @Override
+    public int add(Communication comm) {
+        communications.add(comm);
+        byCustomer.computeIfAbsent(comm.getCustomerId(), k -> new ArrayList<>()).add(comm);
+        return communications.size() - 1;
+    }
+
+    @Override
+    public int size() {
+        return communications.size();
+    }
+
+    @Override
+    public Communication get(int position) {
+        return communications.get(position);
+    }
+
+    @Override
+    public String getId(int position) {
+        return communications.get(position).getId();
+    }
+
+    @Override
+    public List<Communication> getByCustomer(String customerId) {
+        List<Communication> comms = byCustomer.get(customerId);
+        return comms != null ? new ArrayList<>(comms) : new ArrayList<>();
+    }
+
+    @Override
+    public List<Communication> getByCustomer(String customerId, int from, int limit) {
+        List<Communication> comms = byCustomer.getOrDefault(customerId, Collections.emptyList());
+        int start = Math.min(from, comms.size());
+        return new ArrayList<>(comms.subList(start, (int) Math.min(comms.size(), (long) start + limit)));
+    }
+
+    @Override
+    public void forEachOfCustomer(String customerId, Consumer<? super Communication> action) {
+        List<Communication> comms = byCustomer.get(customerId);
+        if (comms != null) {
+            comms.forEach(action);
+        }
+    }
+
+    // the stored objects are the rows
+    @Override
+    public void forEachRowOfCustomer(String customerId, Consumer<? super CommunicationRow> action) {
+        List<Communication> comms = byCustomer.get(customerId);
+        if (comms != null) {
+            comms.forEach(action);
+        }
+    }
+
+    @Override
+    public int countByCustomer(String customerId) {
+        List<Communication> comms = byCustomer.get(customerId);
+        return comms != null ? comms.size() : 0;
+    }
+
+    @Override
+    public int countTypes(String customerId, long[] typeCounts) {
+        List<Communication> comms = byCustomer.get(customerId);
+        if (comms == null) {
+            return 0;
+        }
+        for (Communication comm : comms) {
+            typeCounts[comm.getType().ordinal()]++;
+        }
+        return comms.size();
+    }
+
+    @Override
+    public List<Communication> asList() {
+        return Collections.unmodifiableList(communications);
+    }
+
+    @Override
+    public List<Communication> snapshot() {
+        return new ArrayList<>(communications);
+    }
+}
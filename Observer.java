@@ -1,3 +1,4 @@
+import java.util.List;
 import java.util.Map;
 
 // Observer interface for the Observer design pattern
@@ -10,4 +11,16 @@ public interface Observer {
      * @param data Additional data about the event
      */
     void update(String eventType, Map<String, Object> data);
-}
\ No newline at end of file
+
+    /**
+     * Called by the asynchronous dispatcher with several events at once
+     * Observers can override this to handle a whole batch cheaply
+     * 
+     * @param events The events in the order they were raised
+     */
+    default void updateBatch(List<CRMEvent> events) {
+        for (CRMEvent event : events) {
+            update(event.getEventType(), event.getData());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Page is one page of a CRMSystem listing and the cursor to ask for the next one
+ * Listings are in the order entities were added. Entities are never removed, so a
+ * cursor keeps its place while other threads add entities between pages, and those
+ * added after it show up on later pages
+ * A cursor is opaque to callers, it names the listing and the position reached and
+ * is only valid for that listing until the data is reloaded
+ */
+public class Page<T> {
+    private final List<T> items;
+    private final String nextCursor;
+
+    /**
+     * Constructor for Page
+     *
+     * @param items The entities on this page
+     * @param nextCursor The cursor for the next page, null if this is the last page
+     */
+    public Page(List<T> items, String nextCursor) {
+        this.items = Collections.unmodifiableList(items);
+        this.nextCursor = nextCursor;
+    }
+
+    // Getters
+    public List<T> getItems() { return items; }
+    public String getNextCursor() { return nextCursor; }
+
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+
+    /**
+     * Make the cursor for a position in a listing
+     *
+     * @param listing Names the listing, for example "customers" or "tasks:CUST_..."
+     * @param generation The data generation of CRMSystem, changes when the data is reloaded
+     * @param position The position the next page starts at
+     * @return An opaque cursor
+     */
+    static String cursor(String listing, long generation, int position) {
+        String text = listing + "\n" + generation + "\n" + position;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Read the position back out of a cursor
+     *
+     * @param cursor A cursor from cursor(), or null or "" for the first page
+     * @param listing The listing being paged, must be the one the cursor was made for
+     * @param generation The current data generation of CRMSystem
+     * @return The position the page starts at
+     * @throws IllegalArgumentException If the cursor is damaged, for another listing or from before a reload
+     */
+    static int position(String cursor, String listing, long generation) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0;
+        }
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\n", -1);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        if (parts.length != 3 || !parts[0].equals(listing)) {
+            throw new IllegalArgumentException("Cursor is not for this listing: " + cursor);
+        }
+        try {
+            if (Long.parseLong(parts[1]) != generation) {
+                throw new IllegalArgumentException("Cursor has expired, the data was reloaded: " + cursor);
+            }
+            int position = Integer.parseInt(parts[2]);
+            if (position < 0) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+            return position;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+
+    /**
+     * Stream a whole listing by fetching it a page at a time as the stream is consumed,
+     * so only one page is ever copied and no lock is held between pages
+     *
+     * @param fetch Gets the page for a cursor, null for the first page
+     * @return The entities of every page in order
+     */
+    static <T> Stream<T> stream(Function<String, Page<T>> fetch) {
+        Iterator<T> iterator = new Iterator<T>() {
+            private Page<T> page;
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                if (page == null) {
+                    page = fetch.apply(null);
+                }
+                while (index == page.items.size() && page.hasMore()) {
+                    page = fetch.apply(page.nextCursor);
+                    index = 0;
+                }
+                return index < page.items.size();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.items.get(index++);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+    }
+}
@@ -0,0 +1,120 @@
+import java.io.File;
+import java.util.*;
+
+/**
+ * PartitionIndex splits the rows of one entity type into hash partitions by customer id
+ * In the partitioned storage layout every partition is its own data file, for example
+ * communications-003-of-008.csv, so a change only rewrites the file of its partition
+ * A customer and all its communications and tasks share a partition number
+ * The index keeps the storage positions of each partition's rows in the order they
+ * were added, and which partitions changed since their files were last written
+ * Adding needs the caller's write lock like the other indexes, the dirty set is
+ * synchronized so a failed write can put partitions back from any thread
+ */
+public class PartitionIndex {
+    private final int count;
+    private final IntList[] positions;
+    private final BitSet dirty = new BitSet();
+
+    /**
+     * Constructor for PartitionIndex
+     *
+     * @param count The number of partitions, at least 2
+     */
+    public PartitionIndex(int count) {
+        this.count = count;
+        this.positions = new IntList[count];
+        for (int i = 0; i < count; i++) {
+            positions[i] = new IntList();
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * The partition of a customer id, the same in every JVM since String.hashCode is specified
+     *
+     * @param customerId The id of the customer the row belongs to
+     * @param count The number of partitions
+     * @return The partition, 0 to count - 1
+     */
+    public static int partitionOf(String customerId, int count) {
+        return Math.floorMod(customerId == null ? 0 : customerId.hashCode(), count);
+    }
+
+    /**
+     * The data file of a partition in place of a single file
+     *
+     * @param file The single file, for example crm_data/tasks.csv
+     * @param partition The partition
+     * @param count The number of partitions, part of the name so layouts with other counts never share a file
+     * @return The partition's file, for example crm_data/tasks-003-of-008.csv
+     */
+    public static File fileOf(File file, int partition, int count) {
+        return new File(file.getParentFile(), withPart(file.getName(), String.format("-%03d-of-%03d", partition, count)));
+    }
+
+    // the names of all partition files of a file, for example tasks-*-of-008.csv
+    public static String namePattern(File file, int count) {
+        return withPart(file.getName(), String.format("-*-of-%03d", count));
+    }
+
+    private static String withPart(String name, String part) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? name + part : name.substring(0, dot) + part + name.substring(dot);
+    }
+
+    /**
+     * Add a row, marking its partition changed
+     *
+     * @param position The position of the row in storage
+     * @param customerId The id of the customer the row belongs to
+     */
+    public void add(int position, String customerId) {
+        int partition = partitionOf(customerId, count);
+        positions[partition].add(position);
+        markDirty(partition);
+    }
+
+    // mark the partition of a changed row
+    public void changed(String customerId) {
+        markDirty(partitionOf(customerId, count));
+    }
+
+    // the storage positions of a partition's rows, shared with the index so they must not be changed
+    public IntList positions(int partition) {
+        return positions[partition];
+    }
+
+    public synchronized void markDirty(int partition) {
+        dirty.set(partition);
+    }
+
+    // forget every change, called once the files match memory
+    public synchronized void clearDirty() {
+        dirty.clear();
+    }
+
+    /**
+     * Take the partitions changed since the last call, for writing their files
+     * A write that fails must give them back with markDirty
+     *
+     * @return The changed partitions in ascending order
+     */
+    public synchronized int[] takeDirty() {
+        int[] taken = dirty.stream().toArray();
+        dirty.clear();
+        return taken;
+    }
+
+    // every partition, for writing them all
+    public int[] all() {
+        int[] all = new int[count];
+        for (int i = 0; i < count; i++) {
+            all[i] = i;
+        }
+        return all;
+    }
+}
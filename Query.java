@@ -0,0 +1,304 @@
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Query describes a search of customers, communications or tasks: conditions on
+ * fields, the order of the results, how many to return and which fields to return
+ * It is run by CRMSystem.query, which picks the most selective index for one of the
+ * conditions and checks every condition on the rows that index gives, or scans all
+ * rows in parallel when no index applies. The plan it chose is returned with the results
+ *
+ * Example, the pending tasks of ACME assigned to bob due this week:
+ *   Query.tasks().where(QueryPredicate.eq("status", TaskStatus.PENDING))
+ *                .where(QueryPredicate.eq("assignedTo", "bob"))
+ *                .where(QueryPredicate.eq("customer.company", "ACME"))
+ *                .where(QueryPredicate.between("dueDate", monday, sunday))
+ *                .orderBy("dueDate")
+ *
+ * Field names are checked as the query is built, a query is not thread safe while
+ * it is being built but may be run any number of times afterwards
+ */
+public class Query<T> {
+    private static final String CUSTOMER_PREFIX = "customer.";
+
+    private final String entity;
+    private final Map<String, ? extends QueryField<? super T>> fields;
+    private final Function<? super T, String> customerIdOf;  // null when querying customers
+    private final List<QueryPredicate> conditions = new ArrayList<>();
+    private final List<String> orderFields = new ArrayList<>();
+    private final List<Boolean> orderDescending = new ArrayList<>();
+    private int limit = Integer.MAX_VALUE;
+    private List<String> select;
+
+    private Query(String entity, Map<String, ? extends QueryField<? super T>> fields,
+                  Function<? super T, String> customerIdOf) {
+        this.entity = entity;
+        this.fields = fields;
+        this.customerIdOf = customerIdOf;
+    }
+
+    public static Query<Customer> customers() {
+        return new Query<>("customers", QueryField.CUSTOMER_FIELDS, null);
+    }
+
+    public static Query<Communication> communications() {
+        return new Query<>("communications", QueryField.COMMUNICATION_FIELDS, Communication::getCustomerId);
+    }
+
+    public static Query<Task> tasks() {
+        return new Query<>("tasks", QueryField.TASK_FIELDS, Task::getCustomerId);
+    }
+
+    /**
+     * Start a query of an entity given by name, for the command line and scripts
+     *
+     * @param entity customers, communications or tasks
+     * @return The query
+     * @throws IllegalArgumentException If the entity is unknown
+     */
+    public static Query<?> of(String entity) {
+        switch (entity.toLowerCase()) {
+            case "customers": return customers();
+            case "communications": return communications();
+            case "tasks": return tasks();
+            default: throw new IllegalArgumentException("Unknown entity: " + entity
+                                                        + ", expected customers, communications or tasks");
+        }
+    }
+
+    /**
+     * Add a condition, every condition added must hold
+     *
+     * @param condition The condition
+     * @return This query
+     * @throws IllegalArgumentException If the condition names an unknown field or a value the field cannot have
+     */
+    public Query<T> where(QueryPredicate condition) {
+        List<QueryPredicate> leaves = new ArrayList<>();
+        condition.collectFields(leaves);
+        for (QueryPredicate leaf : leaves) {
+            QueryField<?> field = field(leaf.getField());
+            if (field.getType() == QueryField.Type.TAGS && leaf.getOp() != QueryPredicate.Op.EQ
+                && leaf.getOp() != QueryPredicate.Op.NE && leaf.getOp() != QueryPredicate.Op.IN
+                && leaf.getOp() != QueryPredicate.Op.CONTAINS) {
+                throw new IllegalArgumentException("Tags can only be compared with = != ~ or in: " + leaf);
+            }
+            if (leaf.getOp() != QueryPredicate.Op.CONTAINS) {
+                for (String value : leaf.getValues()) {
+                    field.check(value);
+                }
+            }
+        }
+        conditions.add(condition);
+        return this;
+    }
+
+    // sort by a field, lowest first, later calls break ties of earlier ones
+    public Query<T> orderBy(String field) {
+        return order(field, false);
+    }
+
+    // sort by a field, highest first
+    public Query<T> orderByDescending(String field) {
+        return order(field, true);
+    }
+
+    /**
+     * Return at most this many rows
+     *
+     * @param limit The most rows
+     * @return This query
+     * @throws IllegalArgumentException If limit is below 1
+     */
+    public Query<T> limit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be at least 1, not " + limit);
+        }
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Choose the fields of the rows in the result, all fields of the entity if never called
+     *
+     * @param names Field names, customer.<field> included
+     * @return This query
+     * @throws IllegalArgumentException If a field is unknown
+     */
+    public Query<T> select(String... names) {
+        for (String name : names) {
+            field(name);
+        }
+        select = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(names)));
+        return this;
+    }
+
+    // Getters
+    public String getEntity() { return entity; }
+    public int getLimit() { return limit; }
+    public List<String> getSelect() { return select; }
+
+    public boolean isSorted() {
+        return !orderFields.isEmpty();
+    }
+
+    // the conditions with their top level ands split, an index may be used for any of them
+    List<QueryPredicate> getConjuncts() {
+        List<QueryPredicate> conjuncts = new ArrayList<>();
+        for (QueryPredicate condition : conditions) {
+            condition.collectConjuncts(conjuncts);
+        }
+        return conjuncts;
+    }
+
+    // true if a condition, the order or the selected fields need the customer of each row
+    boolean usesCustomerFields() {
+        List<QueryPredicate> leaves = new ArrayList<>();
+        for (QueryPredicate condition : conditions) {
+            condition.collectFields(leaves);
+        }
+        List<String> names = new ArrayList<>(orderFields);
+        for (QueryPredicate leaf : leaves) {
+            names.add(leaf.getField());
+        }
+        if (select != null) {
+            names.addAll(select);
+        }
+        for (String name : names) {
+            if (isCustomerField(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // true for customer.<field> on communications and tasks
+    boolean isCustomerField(String name) {
+        return customerIdOf != null && name.startsWith(CUSTOMER_PREFIX);
+    }
+
+    /**
+     * Get a field by name
+     *
+     * @param name A field of the entity, or customer.<field> for communications and tasks
+     * @return The field
+     * @throws IllegalArgumentException If there is no such field
+     */
+    QueryField<?> field(String name) {
+        QueryField<?> field = isCustomerField(name)
+            ? QueryField.CUSTOMER_FIELDS.get(name.substring(CUSTOMER_PREFIX.length()))
+            : fields.get(name);
+        if (field == null) {
+            throw new IllegalArgumentException("Unknown field of " + entity + ": " + name + ", expected one of "
+                                               + fields.keySet() + (customerIdOf != null ? " or customer.<field>" : ""));
+        }
+        return field;
+    }
+
+    /**
+     * Get the value of a field in a row
+     *
+     * @param name The field name
+     * @param customers Looks up customers by ID, only used for customer.<field>
+     * @return Gets the value from a row
+     */
+    Function<T, Object> getter(String name, Function<String, Customer> customers) {
+        if (!isCustomerField(name)) {
+            QueryField<? super T> field = fields.get(name);
+            return field::get;
+        }
+        @SuppressWarnings("unchecked")
+        QueryField<Customer> field = (QueryField<Customer>) field(name);
+        return row -> {
+            Customer customer = customers.apply(customerIdOf.apply(row));
+            return customer != null ? field.get(customer) : null;
+        };
+    }
+
+    // a test of every condition, customers looks up the customer of a row by ID
+    Predicate<T> matcher(Function<String, Customer> customers) {
+        if (conditions.isEmpty()) {
+            return row -> true;
+        }
+        QueryPredicate all = conditions.size() == 1 ? conditions.get(0)
+                                                    : QueryPredicate.and(conditions.toArray(new QueryPredicate[0]));
+        return all.compile(this::field, name -> getter(name, customers));
+    }
+
+    /**
+     * A test of every condition of a communications query on rows a store has not built,
+     * so only the rows that match need to become Communication objects
+     *
+     * @param query The communications query
+     * @param customers Looks up the customer of a row by ID
+     * @return The test, taking the views of CommunicationStore.forEachRowOfCustomer
+     */
+    static Predicate<CommunicationRow> rowMatcher(Query<Communication> query, Function<String, Customer> customers) {
+        Query<CommunicationRow> rows = new Query<>(query.entity, QueryField.COMMUNICATION_FIELDS,
+                                                   CommunicationRow::getCustomerId);
+        rows.conditions.addAll(query.conditions);
+        return rows.matcher(customers);
+    }
+
+    // the order of the results, null if no order was asked for
+    Comparator<T> comparator(Function<String, Customer> customers) {
+        Comparator<T> comparator = null;
+        for (int i = 0; i < orderFields.size(); i++) {
+            QueryField<?> field = field(orderFields.get(i));
+            Function<T, Object> getter = getter(orderFields.get(i), customers);
+            Comparator<T> next = (a, b) -> field.compare(getter.apply(a), getter.apply(b));
+            if (orderDescending.get(i)) {
+                next = next.reversed();
+            }
+            comparator = comparator == null ? next : comparator.thenComparing(next);
+        }
+        return comparator;
+    }
+
+    /**
+     * Get the selected fields of a row as text
+     *
+     * @param row The row
+     * @param customers Looks up customers by ID, only used for customer.<field>
+     * @return Field name to value, in the order selected, null for missing values
+     */
+    Map<String, Object> project(T row, Function<String, Customer> customers) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (String name : select != null ? select : fields.keySet()) {
+            Object value = getter(name, customers).apply(row);
+            result.put(name, value != null ? value.toString() : null);
+        }
+        return result;
+    }
+
+    private Query<T> order(String name, boolean descending) {
+        field(name);
+        orderFields.add(name);
+        orderDescending.add(descending);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(entity);
+        if (!conditions.isEmpty()) {
+            StringJoiner joiner = new StringJoiner(" and ");
+            for (QueryPredicate condition : conditions) {
+                joiner.add(condition.toString());
+            }
+            sb.append(" where ").append(joiner);
+        }
+        for (int i = 0; i < orderFields.size(); i++) {
+            sb.append(i == 0 ? " order by " : ", ").append(orderFields.get(i))
+              .append(orderDescending.get(i) ? " desc" : "");
+        }
+        if (limit != Integer.MAX_VALUE) {
+            sb.append(" limit ").append(limit);
+        }
+        if (select != null) {
+            sb.append(" select ").append(String.join(", ", select));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,140 @@
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * QueryField is a field of an entity that queries can filter, sort and select on
+ * The field lists of customers, communications and tasks are kept here so the
+ * names a query may use are checked when it is built, not when it runs
+ * Statuses and types are text fields limited to the names of their constants
+ */
+public class QueryField<T> {
+    // how values of the field are compared
+    public enum Type {
+        TEXT,   // compared ignoring case
+        ID,     // an id or customer id, compared exactly like the keys of the indexes that find it, ~ ignores case
+        DATE,   // a CRMDate, compared by time, dates that are only text match no comparison
+        TAGS    // comma separated tags, = means the row carries the tag
+    }
+
+    public static final Map<String, QueryField<Customer>> CUSTOMER_FIELDS = fields(
+        id("id", Customer::getId),
+        text("name", Customer::getName),
+        text("email", Customer::getEmail),
+        text("phone", Customer::getPhone),
+        text("company", Customer::getCompany),
+        text("notes", Customer::getNotes),
+        date("createdDate", Customer::getCreatedDateValue));
+
+    // read through CommunicationRow so a store can test them on rows it has not built
+    public static final Map<String, QueryField<CommunicationRow>> COMMUNICATION_FIELDS = fields(
+        id("id", CommunicationRow::getId),
+        id("customerId", CommunicationRow::getCustomerId),
+        constant("type", CommunicationRow::getType, CommunicationType.values()),
+        date("date", CommunicationRow::getDateValue),
+        text("subject", CommunicationRow::getSubject),
+        text("notes", CommunicationRow::getNotes),
+        new QueryField<>("tags", Type.TAGS, CommunicationRow::getTags, null));
+
+    public static final Map<String, QueryField<Task>> TASK_FIELDS = fields(
+        id("id", Task::getId),
+        id("customerId", Task::getCustomerId),
+        text("title", Task::getTitle),
+        text("description", Task::getDescription),
+        date("dueDate", Task::getDueDateValue),
+        constant("status", Task::getStatus, TaskStatus.values()),
+        date("createdDate", Task::getCreatedDateValue),
+        text("assignedTo", Task::getAssignedTo));
+
+    private final String name;
+    private final Type type;
+    private final Function<T, Object> getter;
+    private final Set<String> allowed;  // upper case constant names, null if any text is allowed
+
+    private QueryField(String name, Type type, Function<T, Object> getter, Set<String> allowed) {
+        this.name = name;
+        this.type = type;
+        this.getter = getter;
+        this.allowed = allowed;
+    }
+
+    // Getters
+    public String getName() { return name; }
+    public Type getType() { return type; }
+
+    // the value of the field in a row, a String or a CRMDate, may be null
+    public Object get(T row) {
+        return getter.apply(row);
+    }
+
+    /**
+     * Check a value given for this field in a condition
+     *
+     * @param value The value
+     * @throws IllegalArgumentException If the field is a status or type and the value is not one of its names,
+     *                                  or the field is a date and the value is not a date
+     */
+    public void check(String value) {
+        if (allowed != null && !allowed.contains(value.toUpperCase())) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value + ", expected one of " + allowed);
+        }
+        if (type == Type.DATE && !CRMDate.parse(value).isValid()) {
+            throw new IllegalArgumentException("Invalid date for " + name + ": " + value
+                                               + ", expected yyyy-MM-dd or yyyy-MM-dd HH:mm:ss");
+        }
+    }
+
+    /**
+     * Compare two values of this field for sorting, missing values and dates that are only text last
+     *
+     * @param a A value from get
+     * @param b A value from get
+     * @return Negative, zero or positive as a sorts before, with or after b
+     */
+    public int compare(Object a, Object b) {
+        if (type == Type.DATE) {
+            long x = a != null ? ((CRMDate) a).toLocalEpochSecond() : Long.MIN_VALUE;
+            long y = b != null ? ((CRMDate) b).toLocalEpochSecond() : Long.MIN_VALUE;
+            if (x == Long.MIN_VALUE || y == Long.MIN_VALUE) {
+                return Boolean.compare(x == Long.MIN_VALUE, y == Long.MIN_VALUE);
+            }
+            return Long.compare(x, y);
+        }
+        if (a == null || b == null) {
+            return Boolean.compare(a == null, b == null);
+        }
+        return type == Type.ID ? ((String) a).compareTo((String) b) : ((String) a).compareToIgnoreCase((String) b);
+    }
+
+    private static <T> QueryField<T> text(String name, Function<T, String> getter) {
+        return new QueryField<>(name, Type.TEXT, getter::apply, null);
+    }
+
+    private static <T> QueryField<T> id(String name, Function<T, String> getter) {
+        return new QueryField<>(name, Type.ID, getter::apply, null);
+    }
+
+    private static <T> QueryField<T> date(String name, Function<T, CRMDate> getter) {
+        return new QueryField<>(name, Type.DATE, getter::apply, null);
+    }
+
+    // a status or type, held as the name of its constant
+    private static <T, E extends Enum<E>> QueryField<T> constant(String name, Function<T, E> getter, E[] values) {
+        Set<String> names = new LinkedHashSet<>();
+        for (E value : values) {
+            names.add(value.name());
+        }
+        return new QueryField<>(name, Type.TEXT, row -> {
+            E value = getter.apply(row);
+            return value != null ? value.name() : null;
+        }, names);
+    }
+
+    @SafeVarargs
+    private static <T> Map<String, QueryField<T>> fields(QueryField<T>... fields) {
+        Map<String, QueryField<T>> map = new LinkedHashMap<>();
+        for (QueryField<T> field : fields) {
+            map.put(field.name, field);
+        }
+        return Collections.unmodifiableMap(map);
+    }
+}
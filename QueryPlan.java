@@ -0,0 +1,108 @@
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * QueryPlan is how CRMSystem ran a Query, for explaining slow or surprising queries
+ * It lists every way of finding candidate rows that was considered with its
+ * estimated number of rows, the one chosen (the fewest rows, an index over a scan
+ * on a tie) and what running it cost: rows examined, matched and returned
+ */
+public class QueryPlan {
+
+    /**
+     * One way of finding the candidate rows of a query, an index lookup or a scan
+     * Every condition is still checked on each candidate, so a path may give rows
+     * that do not match but never leaves out one that does
+     */
+    static class Access<T> {
+        final String description;
+        final long estimate;
+        final Consumer<Consumer<T>> rows;  // feeds the candidates to an action, null for the parallel scan
+        final LongSupplier ruledOut;       // rows the path checked itself and did not feed, counted as examined
+
+        Access(String description, long estimate, Consumer<Consumer<T>> rows) {
+            this(description, estimate, rows, () -> 0);
+        }
+
+        Access(String description, long estimate, Consumer<Consumer<T>> rows, LongSupplier ruledOut) {
+            this.description = description;
+            this.estimate = estimate;
+            this.rows = rows;
+            this.ruledOut = ruledOut;
+        }
+    }
+
+    private final String query;
+    private final List<String> considered = new ArrayList<>();
+    private String chosen;
+    private long rowsExamined;
+    private long rowsMatched;
+    private long rowsReturned;
+    private long nanos;
+
+    // Constructor for QueryPlan
+    QueryPlan(String query) {
+        this.query = query;
+    }
+
+    /**
+     * Choose the access path with the fewest estimated rows
+     *
+     * @param paths The paths considered, the parallel scan last so an index wins a tie
+     * @return The chosen path
+     */
+    <T> Access<T> choose(List<Access<T>> paths) {
+        Access<T> best = paths.get(0);
+        for (Access<T> path : paths) {
+            if (path.estimate < best.estimate) {
+                best = path;
+            }
+        }
+        for (Access<T> path : paths) {
+            considered.add(String.format("%s %10d  %s", path == best ? "*" : " ", path.estimate, path.description));
+        }
+        chosen = best.description;
+        return best;
+    }
+
+    // the figures of the run
+    void finish(long examined, long matched, long returned, long elapsedNanos) {
+        this.rowsExamined = examined;
+        this.rowsMatched = matched;
+        this.rowsReturned = returned;
+        this.nanos = elapsedNanos;
+    }
+
+    // Getters
+    public String getQuery() { return query; }
+    public String getChosen() { return chosen; }
+    public List<String> getConsidered() { return Collections.unmodifiableList(considered); }
+    public long getRowsExamined() { return rowsExamined; }
+    public long getRowsMatched() { return rowsMatched; }
+    public long getRowsReturned() { return rowsReturned; }
+    public long getNanos() { return nanos; }
+
+    /**
+     * Format the plan as the explain output
+     *
+     * @return The plan, the considered paths with their estimated rows and the chosen one marked *
+     */
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Query:    ").append(query).append('\n');
+        sb.append("Plan:     ").append(chosen).append(", every condition checked on each row\n");
+        sb.append("Considered (estimated rows):\n");
+        for (String line : considered) {
+            sb.append("  ").append(line).append('\n');
+        }
+        sb.append(String.format("Examined: %d rows, %d matched, %d returned in %.3f ms\n",
+                                rowsExamined, rowsMatched, rowsReturned, nanos / 1e6));
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+}
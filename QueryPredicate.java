@@ -0,0 +1,390 @@
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * QueryPredicate is a condition of a Query, a comparison of one field with values
+ * or an and, or or not of other conditions
+ * Text is compared ignoring case, except ids and customer ids: they are compared exactly,
+ * as the primary keys and per-customer indexes look them up, so a plan using an index
+ * finds the same rows as a scan (~ still ignores case on them). A date given without a
+ * time stands for the whole day, so dueDate <= 2026-10-18 includes tasks due at 17:00
+ * that day. On the tags of a communication = means the communication carries the tag
+ * Fields of the customer of a communication or task are named customer.<field>,
+ * for example customer.company
+ * Predicates are immutable and are checked against the fields of an entity when
+ * they are added to a query
+ */
+public class QueryPredicate {
+    enum Op { EQ, NE, IN, CONTAINS, LT, LE, GT, GE, BETWEEN, AND, OR, NOT }
+
+    private static final long SECONDS_PER_DAY = 86_400;
+    // longest operators first so <= is not read as <
+    private static final String[] SYNTAX = {"!=", "<=", ">=", "=", "~", "<", ">"};
+    private static final Op[] SYNTAX_OPS = {Op.NE, Op.LE, Op.GE, Op.EQ, Op.CONTAINS, Op.LT, Op.GT};
+
+    private final Op op;
+    private final String field;
+    private final List<String> values;
+    private final List<QueryPredicate> children;
+
+    private QueryPredicate(Op op, String field, List<String> values, List<QueryPredicate> children) {
+        this.op = op;
+        this.field = field;
+        this.values = values;
+        this.children = children;
+    }
+
+    // field equals value
+    public static QueryPredicate eq(String field, Object value) {
+        return compare(Op.EQ, field, value);
+    }
+
+    // field does not equal value
+    public static QueryPredicate ne(String field, Object value) {
+        return compare(Op.NE, field, value);
+    }
+
+    // field equals any of the values
+    public static QueryPredicate in(String field, Object... values) {
+        if (values.length == 0) {
+            throw new IllegalArgumentException("in needs at least one value for " + field);
+        }
+        List<String> texts = new ArrayList<>();
+        for (Object value : values) {
+            texts.add(text(value));
+        }
+        return new QueryPredicate(Op.IN, field, Collections.unmodifiableList(texts), null);
+    }
+
+    // field contains text, ignoring case
+    public static QueryPredicate contains(String field, String text) {
+        return compare(Op.CONTAINS, field, text);
+    }
+
+    public static QueryPredicate lt(String field, Object value) { return compare(Op.LT, field, value); }
+    public static QueryPredicate le(String field, Object value) { return compare(Op.LE, field, value); }
+    public static QueryPredicate gt(String field, Object value) { return compare(Op.GT, field, value); }
+    public static QueryPredicate ge(String field, Object value) { return compare(Op.GE, field, value); }
+
+    // from <= field <= to
+    public static QueryPredicate between(String field, Object from, Object to) {
+        return new QueryPredicate(Op.BETWEEN, field, Arrays.asList(text(from), text(to)), null);
+    }
+
+    // the communication carries the tag
+    public static QueryPredicate hasTag(String tag) {
+        return eq("tags", tag);
+    }
+
+    public static QueryPredicate and(QueryPredicate... predicates) {
+        return combine(Op.AND, predicates);
+    }
+
+    public static QueryPredicate or(QueryPredicate... predicates) {
+        return combine(Op.OR, predicates);
+    }
+
+    public static QueryPredicate not(QueryPredicate predicate) {
+        return new QueryPredicate(Op.NOT, null, null, Collections.singletonList(predicate));
+    }
+
+    /**
+     * Parse a condition written as field, operator and value with no spaces around the operator,
+     * for example status=PENDING, customer.company~acme or dueDate<=2026-10-18
+     * Operators are = != ~ (contains) < <= > >=, values separated by | mean any of them (status=PENDING|OVERDUE)
+     *
+     * @param condition The condition
+     * @return The predicate
+     * @throws IllegalArgumentException If the condition has no operator, field or value
+     */
+    public static QueryPredicate parse(String condition) {
+        int at = -1;
+        int syntax = -1;
+        // the first operator character found, the field name holds none of them
+        for (int i = 0; i < condition.length() && at < 0; i++) {
+            for (int s = 0; s < SYNTAX.length; s++) {
+                if (condition.startsWith(SYNTAX[s], i)) {
+                    at = i;
+                    syntax = s;
+                    break;
+                }
+            }
+        }
+        if (at <= 0 || at + SYNTAX[syntax].length() == condition.length()) {
+            throw new IllegalArgumentException("Invalid condition: " + condition
+                                               + ", expected <field><op><value> with op one of = != ~ < <= > >=");
+        }
+        String field = condition.substring(0, at);
+        String value = condition.substring(at + SYNTAX[syntax].length());
+        Op op = SYNTAX_OPS[syntax];
+        if (value.contains("|") && (op == Op.EQ || op == Op.NE)) {
+            QueryPredicate any = in(field, (Object[]) value.split("\\|"));
+            return op == Op.EQ ? any : not(any);
+        }
+        return compare(op, field, value);
+    }
+
+    // Getters for the planner
+    Op getOp() { return op; }
+    String getField() { return field; }
+    List<String> getValues() { return values; }
+    List<QueryPredicate> getChildren() { return children; }
+
+    // the same comparison on another field, for conditions on customer.<field> run against customers
+    QueryPredicate withField(String name) {
+        return new QueryPredicate(op, name, values, children);
+    }
+
+    // every field a condition names, for checking them against an entity
+    void collectFields(Collection<QueryPredicate> leaves) {
+        if (children == null) {
+            leaves.add(this);
+        } else {
+            for (QueryPredicate child : children) {
+                child.collectFields(leaves);
+            }
+        }
+    }
+
+    // this condition split at its top level ands, the conditions an index may be chosen from
+    void collectConjuncts(Collection<QueryPredicate> conjuncts) {
+        if (op == Op.AND) {
+            for (QueryPredicate child : children) {
+                child.collectConjuncts(conjuncts);
+            }
+        } else {
+            conjuncts.add(this);
+        }
+    }
+
+    /**
+     * Get the local epoch seconds a condition on a date field limits the field to
+     *
+     * @return {from, to} both included, null if the condition is not a range (!=, in, ~, and, or, not)
+     */
+    long[] dateRange() {
+        switch (op) {
+            case EQ: return new long[]{startOf(values.get(0)), endOf(values.get(0))};
+            case LT: return new long[]{Long.MIN_VALUE + 1, startOf(values.get(0)) - 1};
+            case LE: return new long[]{Long.MIN_VALUE + 1, endOf(values.get(0))};
+            case GT: return new long[]{endOf(values.get(0)) + 1, Long.MAX_VALUE};
+            case GE: return new long[]{startOf(values.get(0)), Long.MAX_VALUE};
+            case BETWEEN: return new long[]{startOf(values.get(0)), endOf(values.get(1))};
+            default: return null;
+        }
+    }
+
+    /**
+     * Turn the condition into a test of rows
+     *
+     * @param fields The field of each name, customer.<field> included
+     * @param getters The value of each named field in a row
+     * @return The test
+     */
+    <T> Predicate<T> compile(Function<String, QueryField<?>> fields, Function<String, Function<T, Object>> getters) {
+        switch (op) {
+            case AND:
+            case OR: {
+                List<Predicate<T>> tests = new ArrayList<>();
+                for (QueryPredicate child : children) {
+                    tests.add(child.compile(fields, getters));
+                }
+                if (op == Op.AND) {
+                    return row -> {
+                        for (Predicate<T> test : tests) {
+                            if (!test.test(row)) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    };
+                }
+                return row -> {
+                    for (Predicate<T> test : tests) {
+                        if (test.test(row)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                };
+            }
+            case NOT:
+                return children.get(0).<T>compile(fields, getters).negate();
+            default:
+                break;
+        }
+        Function<T, Object> getter = getters.apply(field);
+        Predicate<Object> test;
+        switch (fields.apply(field).getType()) {
+            case DATE: test = dateTest(); break;
+            case TAGS: test = tagTest(); break;
+            case ID: test = idTest(); break;
+            default: test = textTest(); break;
+        }
+        return row -> test.test(getter.apply(row));
+    }
+
+    private Predicate<Object> textTest() {
+        String value = values.get(0);
+        switch (op) {
+            case EQ: return v -> v != null && value.equalsIgnoreCase((String) v);
+            case NE: return v -> v == null || !value.equalsIgnoreCase((String) v);
+            case IN: {
+                Set<String> lowered = new HashSet<>();
+                for (String text : values) {
+                    lowered.add(text.toLowerCase());
+                }
+                return v -> v != null && lowered.contains(((String) v).toLowerCase());
+            }
+            case CONTAINS: {
+                String lowered = value.toLowerCase();
+                return v -> v != null && ((String) v).toLowerCase().contains(lowered);
+            }
+            case LT: return v -> v != null && ((String) v).compareToIgnoreCase(value) < 0;
+            case LE: return v -> v != null && ((String) v).compareToIgnoreCase(value) <= 0;
+            case GT: return v -> v != null && ((String) v).compareToIgnoreCase(value) > 0;
+            case GE: return v -> v != null && ((String) v).compareToIgnoreCase(value) >= 0;
+            default: {
+                String to = values.get(1);
+                return v -> v != null && ((String) v).compareToIgnoreCase(value) >= 0
+                            && ((String) v).compareToIgnoreCase(to) <= 0;
+            }
+        }
+    }
+
+    // like textTest with case, apart from contains
+    private Predicate<Object> idTest() {
+        String value = values.get(0);
+        switch (op) {
+            case EQ: return v -> value.equals(v);
+            case NE: return v -> !value.equals(v);
+            case IN: {
+                Set<String> wanted = new HashSet<>(values);
+                return v -> v != null && wanted.contains(v);
+            }
+            case CONTAINS: return textTest();
+            case LT: return v -> v != null && ((String) v).compareTo(value) < 0;
+            case LE: return v -> v != null && ((String) v).compareTo(value) <= 0;
+            case GT: return v -> v != null && ((String) v).compareTo(value) > 0;
+            case GE: return v -> v != null && ((String) v).compareTo(value) >= 0;
+            default: {
+                String to = values.get(1);
+                return v -> v != null && ((String) v).compareTo(value) >= 0 && ((String) v).compareTo(to) <= 0;
+            }
+        }
+    }
+
+    private Predicate<Object> dateTest() {
+        if (op == Op.CONTAINS) {
+            String text = values.get(0).toLowerCase();
+            return v -> v != null && v.toString().toLowerCase().contains(text);
+        }
+        if (op == Op.NE || op == Op.IN) {
+            List<long[]> ranges = new ArrayList<>();
+            for (String value : values) {
+                ranges.add(new long[]{startOf(value), endOf(value)});
+            }
+            Predicate<Object> any = v -> {
+                long second = v != null ? ((CRMDate) v).toLocalEpochSecond() : Long.MIN_VALUE;
+                for (long[] range : ranges) {
+                    if (second >= range[0] && second <= range[1]) {
+                        return true;
+                    }
+                }
+                return false;
+            };
+            return op == Op.IN ? any : any.negate();
+        }
+        long[] range = dateRange();
+        return v -> {
+            long second = v != null ? ((CRMDate) v).toLocalEpochSecond() : Long.MIN_VALUE;
+            return second >= range[0] && second <= range[1];
+        };
+    }
+
+    private Predicate<Object> tagTest() {
+        if (op == Op.CONTAINS) {
+            String text = values.get(0).toLowerCase();
+            return v -> v != null && ((String) v).toLowerCase().contains(text);
+        }
+        Set<String> wanted = new HashSet<>();
+        for (String value : values) {
+            wanted.add(value.trim().toLowerCase());
+        }
+        Predicate<Object> any = v -> {
+            if (v == null) {
+                return false;
+            }
+            for (String tag : ((String) v).split(",")) {
+                if (wanted.contains(tag.trim().toLowerCase())) {
+                    return true;
+                }
+            }
+            return false;
+        };
+        return op == Op.NE ? any.negate() : any;
+    }
+
+    // the first second of a date value, a date without time starts at midnight
+    private static long startOf(String value) {
+        return CRMDate.parse(value).toLocalEpochSecond();
+    }
+
+    // the last second of a date value, a date without time ends at 23:59:59
+    private static long endOf(String value) {
+        CRMDate date = CRMDate.parse(value);
+        return date.toLocalEpochSecond() + (date.isDateOnly() ? SECONDS_PER_DAY - 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        switch (op) {
+            case AND:
+            case OR: {
+                StringJoiner joiner = new StringJoiner(op == Op.AND ? " and " : " or ",
+                                                       op == Op.OR ? "(" : "", op == Op.OR ? ")" : "");
+                for (QueryPredicate child : children) {
+                    joiner.add(child.toString());
+                }
+                return joiner.toString();
+            }
+            case NOT: return "not (" + children.get(0) + ")";
+            case IN: return field + " in (" + String.join(", ", values) + ")";
+            case BETWEEN: return field + " between " + values.get(0) + " and " + values.get(1);
+            default: break;
+        }
+        String symbol = SYNTAX[Arrays.asList(SYNTAX_OPS).indexOf(op)];
+        return field + " " + symbol + " " + values.get(0);
+    }
+
+    private static QueryPredicate compare(Op op, String field, Object value) {
+        return new QueryPredicate(op, field, Collections.singletonList(text(value)), null);
+    }
+
+    private static QueryPredicate combine(Op op, QueryPredicate... predicates) {
+        if (predicates.length == 0) {
+            throw new IllegalArgumentException(op.name().toLowerCase() + " needs at least one condition");
+        }
+        return new QueryPredicate(op, null, null, Collections.unmodifiableList(new ArrayList<>(Arrays.asList(predicates))));
+    }
+
+    // the text of a value, dates and date-times in the form CRMDate parses
+    private static String text(Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Query values may not be null");
+        }
+        if (value instanceof LocalDateTime) {
+            return CRMDate.of((LocalDateTime) value).toString();
+        }
+        if (value instanceof LocalDate) {
+            return CRMDate.of((LocalDate) value).toString();
+        }
+        if (value instanceof Enum) {
+            return ((Enum<?>) value).name();
+        }
+        return value.toString();
+    }
+}
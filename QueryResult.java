@@ -0,0 +1,58 @@
+import java.util.*;
+
+/**
+ * QueryResult holds the rows a Query found, in the order asked for, and the plan used
+ * Without an order the rows come in the order of the index the plan chose, or the
+ * order they were added in when all rows were scanned
+ */
+public class QueryResult<T> {
+    private final Query<T> query;
+    private final List<T> items;
+    private final List<Map<String, Object>> rows;
+    private final QueryPlan plan;
+
+    /**
+     * Constructor for QueryResult
+     *
+     * @param query The query that was run
+     * @param items The entities found
+     * @param rows The selected fields of each entity, null if the query selected none
+     * @param plan How the query was run
+     */
+    QueryResult(Query<T> query, List<T> items, List<Map<String, Object>> rows, QueryPlan plan) {
+        this.query = query;
+        this.items = Collections.unmodifiableList(items);
+        this.rows = rows != null ? Collections.unmodifiableList(rows) : null;
+        this.plan = plan;
+    }
+
+    // Getters
+    public List<T> getItems() { return items; }
+    public QueryPlan getPlan() { return plan; }
+
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Get the selected fields of each entity found, every field of the entity if none were selected
+     *
+     * @return One map of field name to value text per entity
+     */
+    public List<Map<String, Object>> getRows() {
+        if (rows != null) {
+            return rows;
+        }
+        // no customer fields were selected, so no customer lookup is needed
+        List<Map<String, Object>> all = new ArrayList<>(items.size());
+        for (T item : items) {
+            all.add(query.project(item, null));
+        }
+        return all;
+    }
+
+    // the plan as text, see QueryPlan.format
+    public String explain() {
+        return plan.format();
+    }
+}
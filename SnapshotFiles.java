@@ -0,0 +1,134 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * SnapshotFiles replaces data files so a crash never leaves a half-written snapshot
+ * A new snapshot is written to name.tmp and fsynced, the current file is renamed to
+ * name.bak and the temp file renamed into place. A crash part way leaves either the
+ * old file or the new one, and recover puts things back together on startup
+ * load falls back to name.bak when the current file fails its checks, the damaged
+ * file is kept as name.corrupt so the next save does not overwrite it
+ */
+public class SnapshotFiles {
+
+    // writes the snapshot content, the stream is closed by replace
+    public interface Body {
+        void write(OutputStream out) throws IOException;
+    }
+
+    // reads and checks a snapshot, throwing an IOException if it is damaged
+    public interface Loader<T> {
+        List<T> load(File file) throws IOException;
+    }
+
+    private SnapshotFiles() {
+    }
+
+    public static File tempFile(File file) {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    public static File backupFile(File file) {
+        return new File(file.getPath() + ".bak");
+    }
+
+    public static File corruptFile(File file) {
+        return new File(file.getPath() + ".corrupt");
+    }
+
+    /**
+     * Atomically replace a file with new content, keeping the old content as the backup
+     *
+     * @param file The file to replace
+     * @param syncDirectory true to also fsync the directory so the rename itself survives a power loss
+     * @param body Writes the new content
+     * @throws IOException If the new content cannot be written, the old file is then left alone
+     */
+    public static void replace(File file, boolean syncDirectory, Body body) throws IOException {
+        File temp = tempFile(file);
+        try (FileOutputStream stream = new FileOutputStream(temp)) {
+            body.write(stream);
+            stream.getFD().sync();
+        } catch (IOException | RuntimeException e) {
+            temp.delete();
+            throw e;
+        }
+        if (file.exists()) {
+            Files.move(file.toPath(), backupFile(file).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        if (syncDirectory) {
+            syncDirectory(file.getAbsoluteFile().getParentFile());
+        }
+    }
+
+    /**
+     * Finish or undo a replace that was interrupted by a crash, called before a file is loaded
+     * Without the file a complete temp file is the newest snapshot (it is fsynced before the
+     * old file is moved away), otherwise a temp file is an unfinished write and is deleted
+     *
+     * @param file The snapshot file
+     */
+    public static void recover(File file) {
+        File temp = tempFile(file);
+        try {
+            if (!file.exists() && temp.exists()) {
+                System.err.println("Recovering " + file.getName() + " from an interrupted save");
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } else if (!file.exists() && backupFile(file).exists()) {
+                System.err.println("Recovering " + file.getName() + " from " + backupFile(file).getName());
+                Files.copy(backupFile(file).toPath(), file.toPath());
+            } else if (temp.exists()) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            System.err.println("Error recovering " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Load a snapshot, falling back to the previous snapshot if the file is damaged
+     *
+     * @param file The snapshot file
+     * @param loader Reads and checks a snapshot file
+     * @return The loaded records, from the backup if the file was damaged, empty if both were
+     * @throws IOException If the file does not exist
+     */
+    public static <T> List<T> load(File file, Loader<T> loader) throws IOException {
+        try {
+            return loader.load(file);
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            throw e;
+        } catch (IOException e) {
+            System.err.println("Error loading " + file.getName() + ": " + e.getMessage());
+            File corrupt = corruptFile(file);
+            Files.move(file.toPath(), corrupt.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            System.err.println("Damaged file kept as " + corrupt.getName());
+            File backup = backupFile(file);
+            if (backup.exists()) {
+                try {
+                    List<T> loaded = loader.load(backup);
+                    Files.copy(backup.toPath(), file.toPath());
+                    System.err.println("Loaded the previous snapshot " + backup.getName()
+                                       + ", changes saved after it are lost");
+                    return loaded;
+                } catch (IOException backupError) {
+                    System.err.println("Error loading " + backup.getName() + ": " + backupError.getMessage());
+                }
+            }
+            System.err.println("No good snapshot of " + file.getName() + ", starting without its data");
+            return new ArrayList<>();
+        }
+    }
+
+    // fsync a directory so renames in it are durable, not supported on every platform
+    private static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // directories cannot be opened for sync on Windows, the rename is still atomic
+        }
+    }
+}
@@ -1,11 +1,17 @@
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Abstract Subject class for the Observer design pattern
  * Manages a list of observers and provides methods to notify them
+ * The list is copy-on-write so observers can be notified from many threads
+ * while others attach or detach
+ * By default observers are called on the thread raising the event, after
+ * enableAsyncDispatch they are called in batches on a dispatcher thread
  */
 public abstract class Subject {
-    private List<Observer> observers = new ArrayList<>();
+    private final List<Observer> observers = new CopyOnWriteArrayList<>();
+    private volatile EventDispatcher dispatcher;
 
     /**
      * Attach an observer to the subject
@@ -32,8 +38,53 @@ public abstract class Subject {
      * @param data Additional data about the event
      */
     protected void notifyObservers(String eventType, Map<String, Object> data) {
+        long start = System.nanoTime();
+        EventDispatcher async = dispatcher;
+        if (async != null && async.publish(new CRMEvent(eventType, data))) {
+            observersNotified(eventType, true, System.nanoTime() - start);
+            return;
+        }
         for (Observer observer : observers) {
             observer.update(eventType, data);
         }
+        observersNotified(eventType, false, System.nanoTime() - start);
+    }
+
+    /**
+     * Called after each notifyObservers with how long it kept the caller, for metrics
+     *
+     * @param eventType The type of event
+     * @param queued true if the event was queued for the dispatcher thread, false if observers were called
+     * @param nanos Time spent in notifyObservers
+     */
+    protected void observersNotified(String eventType, boolean queued, long nanos) {
+    }
+
+    /**
+     * Deliver events to observers asynchronously in batches from now on
+     * 
+     * @param capacity The number of events that can be queued
+     * @param policy What to do when the queue is full
+     * @param maxBatch The most events delivered to an observer at once
+     */
+    public synchronized void enableAsyncDispatch(int capacity, BackpressurePolicy policy, int maxBatch) {
+        if (dispatcher == null) {
+            dispatcher = new EventDispatcher(capacity, policy, maxBatch, () -> observers);
+        }
+    }
+
+    /**
+     * Deliver every queued event and go back to calling observers directly
+     */
+    public synchronized void shutdownDispatch() {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+            dispatcher = null;
+        }
+    }
+
+    // the asynchronous dispatcher, or null when observers are called directly
+    public EventDispatcher getDispatcher() {
+        return dispatcher;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,137 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Random;
+
+/**
+ * SyntheticDataGenerator writes customers.csv, communications.csv and tasks.csv
+ * with made up but realistic looking data, for benchmarks and load tests
+ * Output is deterministic for a given seed apart from the generated ids
+ *
+ * Usage: java SyntheticDataGenerator <dir> [customers] [communications] [tasks]
+ */
+public class SyntheticDataGenerator {
+    private static final String[] FIRST_NAMES = {
+        "Alice", "Bob", "Carol", "David", "Erin", "Frank", "Grace", "Heidi", "Ivan", "Judy",
+        "Mallory", "Niaj", "Olivia", "Peggy", "Rupert", "Sybil", "Trent", "Victor", "Walter", "Yasmin"
+    };
+    private static final String[] LAST_NAMES = {
+        "Smith", "Jones", "Taylor", "Brown", "Williams", "Wilson", "Johnson", "Davies", "Patel", "Wright",
+        "Robinson", "Thompson", "Evans", "Walker", "White", "Roberts", "Green", "Hall", "Wood", "Jackson"
+    };
+    private static final String[] COMPANIES = {
+        "Acme", "Globex", "Initech", "Umbrella", "Hooli", "Stark Industries", "Wayne Enterprises",
+        "Wonka", "Tyrell", "Cyberdyne", "Soylent", "Massive Dynamic", "Vandelay", "Oscorp", "Aperture"
+    };
+    private static final String[] TAGS = {
+        "renewal", "vip", "churn-risk", "upsell", "support", "billing", "onboarding", "feedback", "demo", "legal"
+    };
+    private static final String[] SUBJECTS = {
+        "Quarterly review", "Pricing question", "Follow up", "Contract renewal", "Product demo",
+        "Support ticket", "Invoice query", "Onboarding call", "Feature request", "Check in"
+    };
+    private static final String[] ASSIGNEES = {"alice", "bob", "carol", "dave", "erin", "admin"};
+
+    private final Random random;
+    private final LocalDateTime start = LocalDateTime.of(2020, 1, 1, 9, 0, 0);
+
+    // Constructor for SyntheticDataGenerator
+    public SyntheticDataGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java SyntheticDataGenerator <dir> [customers] [communications] [tasks]");
+            return;
+        }
+        int customers = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int communications = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+        int tasks = args.length > 3 ? Integer.parseInt(args[3]) : 20_000;
+        long begin = System.nanoTime();
+        new SyntheticDataGenerator(42).generate(new File(args[0]), customers, communications, tasks);
+        System.out.printf("Generated %d customers, %d communications, %d tasks in %s (%.1f s)\n",
+                          customers, communications, tasks, args[0], (System.nanoTime() - begin) / 1e9);
+    }
+
+    /**
+     * Write a full data set into a directory, replacing any existing data files
+     *
+     * @param dir The directory to write to, created if missing
+     * @param customerCount Number of customers
+     * @param communicationCount Number of communications, spread over the customers
+     * @param taskCount Number of tasks, spread over the customers
+     * @return The generated customer ids
+     * @throws IOException If a file cannot be written
+     */
+    public String[] generate(File dir, int customerCount, int communicationCount, int taskCount) throws IOException {
+        dir.mkdirs();
+        String[] customerIds = new String[customerCount];
+        IdGenerator customerIdGenerator = IdGenerator.forPrefix("CUST");
+        try (PrintWriter writer = open(new File(dir, "customers.csv"), CSVFormat.CUSTOMERS_HEADER)) {
+            for (int i = 0; i < customerCount; i++) {
+                String first = pick(FIRST_NAMES), last = pick(LAST_NAMES), company = pick(COMPANIES);
+                customerIds[i] = customerIdGenerator.next();
+                writer.println(CSVFormat.formatLine(new String[]{
+                    customerIds[i],
+                    first + " " + last,
+                    first.toLowerCase() + "." + last.toLowerCase() + i + "@" + company.toLowerCase().replace(" ", "") + ".com",
+                    String.format("555-%04d", random.nextInt(10_000)),
+                    company,
+                    "Customer number " + i,
+                    dateTime(i)
+                }));
+            }
+        }
+
+        IdGenerator communicationIdGenerator = IdGenerator.forPrefix("COMM");
+        CommunicationType[] types = CommunicationType.values();
+        try (PrintWriter writer = open(new File(dir, "communications.csv"), CSVFormat.COMMUNICATIONS_HEADER)) {
+            for (int i = 0; i < communicationCount; i++) {
+                String tags = pick(TAGS) + (random.nextBoolean() ? "," + pick(TAGS) : "");
+                writer.println(CSVFormat.formatLine(new String[]{
+                    communicationIdGenerator.next(),
+                    customerCount > 0 ? customerIds[random.nextInt(customerCount)] : "",
+                    types[random.nextInt(types.length)].toString(),
+                    dateTime(i),
+                    pick(SUBJECTS),
+                    "Notes for communication " + i,
+                    tags
+                }));
+            }
+        }
+
+        IdGenerator taskIdGenerator = IdGenerator.forPrefix("TASK");
+        TaskStatus[] statuses = TaskStatus.values();
+        try (PrintWriter writer = open(new File(dir, "tasks.csv"), CSVFormat.TASKS_HEADER)) {
+            for (int i = 0; i < taskCount; i++) {
+                writer.println(CSVFormat.formatLine(new String[]{
+                    taskIdGenerator.next(),
+                    customerCount > 0 ? customerIds[random.nextInt(customerCount)] : "",
+                    pick(SUBJECTS),
+                    "Task description " + i,
+                    start.plusDays(random.nextInt(2_000)).format(CRMDate.DATE_FORMAT),
+                    statuses[random.nextInt(statuses.length)].toString(),
+                    dateTime(i),
+                    pick(ASSIGNEES)
+                }));
+            }
+        }
+        return customerIds;
+    }
+
+    private PrintWriter open(File file, String header) throws IOException {
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file, StandardCharsets.UTF_8), 1 << 16));
+        writer.println(header);
+        return writer;
+    }
+
+    private String pick(String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    // dates move forward with the row number so files are roughly in date order
+    private String dateTime(int row) {
+        return start.plusMinutes(row).plusSeconds(random.nextInt(60)).format(CRMDate.DATE_TIME_FORMAT);
+    }
+}
@@ -0,0 +1,127 @@
+import java.util.*;
+
+/**
+ * TagIndex is an inverted index from communication tags to communication positions
+ * The comma separated tags string of each communication is parsed once when it is
+ * added, every distinct tag is stored once in a dictionary and mapped to a sorted
+ * posting list of the positions of the communications carrying it
+ * Tags are matched case-insensitively with surrounding spaces removed
+ */
+public class TagIndex {
+    // tag dictionary, normalized tag -> tag id, and tag id -> tag
+    private final Map<String, Integer> tagIds = new HashMap<>();
+    private final List<String> tagNames = new ArrayList<>();
+    private final List<IntList> postings = new ArrayList<>();
+
+    // communication positions per type, used for the type filter
+    private final Map<CommunicationType, IntList> byType = new EnumMap<>(CommunicationType.class);
+
+    /**
+     * Index a communication stored at the given position
+     *
+     * @param position The position of the communication in storage, must increase with every call
+     * @param comm The communication to index
+     */
+    public void add(int position, Communication comm) {
+        byType.computeIfAbsent(comm.getType(), k -> new IntList()).add(position);
+        String tags = comm.getTags();
+        if (tags == null || tags.isEmpty()) {
+            return;
+        }
+        for (String raw : tags.split(",")) {
+            String tag = normalize(raw);
+            if (tag.isEmpty()) {
+                continue;
+            }
+            Integer id = tagIds.get(tag);
+            if (id == null) {
+                id = tagNames.size();
+                tagIds.put(tag, id);
+                tagNames.add(tag);
+                postings.add(new IntList());
+            }
+            postings.get(id).addIfLast(position);
+        }
+    }
+
+    /**
+     * Find the communications carrying all (AND) or any (OR) of the given tags
+     *
+     * @param tags The tags to look for
+     * @param matchAll true for AND, false for OR
+     * @param type Only return communications of this type, or null for any type
+     * @return Sorted positions of the matching communications
+     */
+    public IntList find(Collection<String> tags, boolean matchAll, CommunicationType type) {
+        List<IntList> lists = new ArrayList<>();
+        for (String raw : tags) {
+            String tag = normalize(raw);
+            if (tag.isEmpty()) {
+                continue;
+            }
+            Integer id = tagIds.get(tag);
+            if (id != null) {
+                lists.add(postings.get(id));
+            } else if (matchAll) {
+                return new IntList();
+            }
+        }
+        if (lists.isEmpty()) {
+            return new IntList();
+        }
+
+        IntList result;
+        if (matchAll) {
+            lists.sort(Comparator.comparingInt(IntList::size));
+            result = lists.get(0);
+            for (int i = 1; i < lists.size() && !result.isEmpty(); i++) {
+                result = IntList.intersect(result, lists.get(i));
+            }
+        } else {
+            result = lists.get(0);
+            for (int i = 1; i < lists.size(); i++) {
+                result = IntList.union(result, lists.get(i));
+            }
+        }
+
+        if (type != null) {
+            IntList ofType = byType.get(type);
+            result = ofType != null ? IntList.intersect(result, ofType) : new IntList();
+        }
+        return result;
+    }
+
+    // the number of communications carrying a tag, for the query planner
+    public int count(String tag) {
+        Integer id = tagIds.get(normalize(tag));
+        return id != null ? postings.get(id).size() : 0;
+    }
+
+    /**
+     * Find the communications of a type
+     *
+     * @param type The type
+     * @return Sorted positions, shared with the index so they must not be changed
+     */
+    public IntList findType(CommunicationType type) {
+        IntList ofType = byType.get(type);
+        return ofType != null ? ofType : new IntList();
+    }
+
+    /**
+     * Get every known tag with the number of communications carrying it
+     *
+     * @return Map of tag to communication count, sorted by tag
+     */
+    public Map<String, Integer> getTagCounts() {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (int id = 0; id < tagNames.size(); id++) {
+            counts.put(tagNames.get(id), postings.get(id).size());
+        }
+        return counts;
+    }
+
+    private static String normalize(String tag) {
+        return tag == null ? "" : tag.trim().toLowerCase();
+    }
+}
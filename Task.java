@@ -4,14 +4,20 @@ public class Task {
     private String customerId;
     private String title;
     private String description;
-    private String dueDate;
+    private CRMDate dueDate;
     private TaskStatus status;
-    private String createdDate;
+    private CRMDate createdDate;
     private String assignedTo;
 
     // Constructor for Task
     public Task(String id, String customerId, String title, String description, 
                String dueDate, TaskStatus status, String createdDate, String assignedTo) {
+        this(id, customerId, title, description, CRMDate.parse(dueDate), status, CRMDate.parse(createdDate), assignedTo);
+    }
+
+    // Constructor for Task with already parsed dates
+    public Task(String id, String customerId, String title, String description,
+               CRMDate dueDate, TaskStatus status, CRMDate createdDate, String assignedTo) {
         this.id = id;
         this.customerId = customerId;
         this.title = title;
@@ -27,9 +33,11 @@ public class Task {
     public String getCustomerId() { return customerId; }
     public String getTitle() { return title; }
     public String getDescription() { return description; }
-    public String getDueDate() { return dueDate; }
+    public String getDueDate() { return dueDate != null ? dueDate.toString() : null; }
+    public CRMDate getDueDateValue() { return dueDate; }
     public TaskStatus getStatus() { return status; }
-    public String getCreatedDate() { return createdDate; }
+    public String getCreatedDate() { return createdDate != null ? createdDate.toString() : null; }
+    public CRMDate getCreatedDateValue() { return createdDate; }
     public String getAssignedTo() { return assignedTo; }
 
     // Setters
@@ -37,19 +45,29 @@ public class Task {
     public void setCustomerId(String customerId) { this.customerId = customerId; }
     public void setTitle(String title) { this.title = title; }
     public void setDescription(String description) { this.description = description; }
-    public void setDueDate(String dueDate) { this.dueDate = dueDate; }
+    public void setDueDate(String dueDate) { this.dueDate = CRMDate.parse(dueDate); }
     public void setStatus(TaskStatus status) { this.status = status; }
-    public void setCreatedDate(String createdDate) { this.createdDate = createdDate; }
+    public void setCreatedDate(String createdDate) { this.createdDate = CRMDate.parse(createdDate); }
     public void setAssignedTo(String assignedTo) { this.assignedTo = assignedTo; }
 
     // Convert task data to CSV array format
     public String[] toCSVArray() {
-        return new String[]{id, customerId, title, description, dueDate, status.toString(), createdDate, assignedTo};
+        return new String[]{id, customerId, title, description, getDueDate(), status.toString(), getCreatedDate(), assignedTo};
+    }
+
+    // Create a task from CSV array format, null if there are too few fields
+    // throws IllegalArgumentException if the status is not a TaskStatus
+    public static Task fromCSVArray(String[] parts) {
+        if (parts.length < 8) {
+            return null;
+        }
+        TaskStatus status = TaskStatus.valueOf(parts[5].toUpperCase());
+        return new Task(parts[0], parts[1], parts[2], parts[3], parts[4], status, parts[6], parts[7]);
     }
 
     @Override
     public String toString() {
         return String.format("Task{id='%s', customerId='%s', title='%s', status=%s, dueDate='%s'}", 
-                           id, customerId, title, status, dueDate);
+                           id, customerId, title, status, getDueDate());
     }
 }
\ No newline at end of file
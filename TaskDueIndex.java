@@ -0,0 +1,135 @@
+import java.time.ZoneId;
+import java.util.*;
+
+/**
+ * TaskDueIndex keeps the pending tasks sorted by when they become due
+ * A due date "yyyy-MM-dd" is due at the end of that day, "yyyy-MM-dd HH:mm:ss" at
+ * that moment, in the local time zone. Tasks without a readable due date are not indexed
+ * Each pending task sits in two sorted maps, one keyed by its due time for the
+ * overdue transition and one keyed by the start of its due soon window for the
+ * reminder, so both can be taken off the front without looking at later tasks
+ * The caller guards the index with the same lock as the tasks themselves
+ */
+public class TaskDueIndex {
+    private final long dueSoonMillis;
+    // due time in epoch millis -> pending tasks due then
+    private final TreeMap<Long, List<Task>> byDue = new TreeMap<>();
+    // start of the due soon window in epoch millis -> pending tasks not reminded yet
+    private final TreeMap<Long, List<Task>> byReminder = new TreeMap<>();
+
+    /**
+     * Create an empty index
+     *
+     * @param dueSoonMillis How long before the due time a task counts as due soon, 0 for no reminders
+     */
+    public TaskDueIndex(long dueSoonMillis) {
+        this.dueSoonMillis = dueSoonMillis;
+    }
+
+    /**
+     * Get the moment a task becomes overdue
+     *
+     * @param task The task
+     * @return Epoch millis, or -1 if the task has no readable due date
+     */
+    public static long dueMillis(Task task) {
+        CRMDate dueDate = task.getDueDateValue();
+        return dueDate != null ? dueDate.endEpochMilli(ZoneId.systemDefault()) : -1;
+    }
+
+    /**
+     * Index a task if it is pending and has a readable due date
+     *
+     * @param task The task to index
+     */
+    public void add(Task task) {
+        if (task.getStatus() != TaskStatus.PENDING) {
+            return;
+        }
+        long due = dueMillis(task);
+        if (due < 0) {
+            return;
+        }
+        byDue.computeIfAbsent(due, k -> new ArrayList<>(1)).add(task);
+        if (dueSoonMillis > 0) {
+            byReminder.computeIfAbsent(due - dueSoonMillis, k -> new ArrayList<>(1)).add(task);
+        }
+    }
+
+    /**
+     * Remove a task, used when it stops being pending
+     *
+     * @param task The task to remove
+     */
+    public void remove(Task task) {
+        long due = dueMillis(task);
+        if (due < 0) {
+            return;
+        }
+        removeFrom(byDue, due, task);
+        removeFrom(byReminder, due - dueSoonMillis, task);
+    }
+
+    private static void removeFrom(TreeMap<Long, List<Task>> map, long key, Task task) {
+        List<Task> tasks = map.get(key);
+        if (tasks != null) {
+            // identity, two loaded tasks can share an id
+            for (int i = 0; i < tasks.size(); i++) {
+                if (tasks.get(i) == task) {
+                    tasks.remove(i);
+                    break;
+                }
+            }
+            if (tasks.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Take every task that is due at or before a moment out of the index
+     *
+     * @param now Epoch millis
+     * @return The tasks that are now overdue, earliest first
+     */
+    public List<Task> pollOverdue(long now) {
+        List<Task> result = pollUpTo(byDue, now);
+        for (Task task : result) {
+            removeFrom(byReminder, dueMillis(task) - dueSoonMillis, task);
+        }
+        return result;
+    }
+
+    /**
+     * Take every task whose due soon window has started, each task is returned only once
+     *
+     * @param now Epoch millis, call pollOverdue first so only tasks not yet due are returned
+     * @return The tasks to remind about, earliest first
+     */
+    public List<Task> pollDueSoon(long now) {
+        return pollUpTo(byReminder, now);
+    }
+
+    private static List<Task> pollUpTo(TreeMap<Long, List<Task>> map, long now) {
+        List<Task> result = new ArrayList<>();
+        NavigableMap<Long, List<Task>> head = map.headMap(now, true);
+        for (List<Task> tasks : head.values()) {
+            result.addAll(tasks);
+        }
+        head.clear();
+        return result;
+    }
+
+    /**
+     * Get the next moment a task becomes due or due soon
+     *
+     * @return Epoch millis, or Long.MAX_VALUE if nothing is pending
+     */
+    public long nextBoundary() {
+        long next = byDue.isEmpty() ? Long.MAX_VALUE : byDue.firstKey();
+        if (!byReminder.isEmpty()) {
+            next = Math.min(next, byReminder.firstKey());
+        }
+        return next;
+    }
+}
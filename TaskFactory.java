@@ -1,5 +1,3 @@
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.Map;
 
 /**
@@ -16,14 +14,14 @@ public class TaskFactory extends EntityFactory<Task> {
     @Override
     public Task create(Map<String, Object> params) {
         String id = generateId("TASK");
-        String createdDate = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+        CRMDate createdDate = CRMDate.now();
         
         return new Task(
             id,
             (String) params.getOrDefault("customerId", ""),
             (String) params.getOrDefault("title", ""),
             (String) params.getOrDefault("description", ""),
-            (String) params.getOrDefault("dueDate", ""),
+            CRMDate.parse((String) params.getOrDefault("dueDate", "")),
             TaskStatus.PENDING,
             createdDate,
             (String) params.getOrDefault("assignedTo", "")
@@ -0,0 +1,100 @@
+import java.util.*;
+
+/**
+ * TaskStatusCounters keeps the number of tasks in each status, overall, per assignee
+ * and per customer, so reports can read the figures without scanning every task
+ * The counters are updated as tasks are added and change status, the caller
+ * guards them with the same lock as the tasks themselves
+ */
+public class TaskStatusCounters {
+    private static final TaskStatus[] STATUSES = TaskStatus.values();
+
+    // counts indexed by TaskStatus ordinal
+    private final long[] total = new long[STATUSES.length];
+    private final Map<String, long[]> byAssignee = new HashMap<>();
+    private final Map<String, long[]> byCustomer = new HashMap<>();
+
+    /**
+     * Count a newly stored task
+     *
+     * @param task The task that was added
+     */
+    public void add(Task task) {
+        adjust(task, task.getStatus(), 1);
+    }
+
+    /**
+     * Move a task from its old status to its current one
+     *
+     * @param task The task, already holding its new status
+     * @param oldStatus The status the task had before
+     */
+    public void statusChanged(Task task, TaskStatus oldStatus) {
+        if (oldStatus != task.getStatus()) {
+            adjust(task, oldStatus, -1);
+            adjust(task, task.getStatus(), 1);
+        }
+    }
+
+    private void adjust(Task task, TaskStatus status, long delta) {
+        int slot = status.ordinal();
+        total[slot] += delta;
+        byAssignee.computeIfAbsent(keyOf(task.getAssignedTo()), k -> new long[STATUSES.length])[slot] += delta;
+        byCustomer.computeIfAbsent(keyOf(task.getCustomerId()), k -> new long[STATUSES.length])[slot] += delta;
+    }
+
+    // null keys are counted under the empty string
+    private static String keyOf(String key) {
+        return key != null ? key : "";
+    }
+
+    /**
+     * Get the number of tasks in each status
+     *
+     * @return Status to count, every status is present
+     */
+    public Map<TaskStatus, Long> getCounts() {
+        return toMap(total);
+    }
+
+    /**
+     * Get the number of tasks in each status for one assignee
+     *
+     * @param assignedTo The assignee
+     * @return Status to count, all zero if the assignee has no tasks
+     */
+    public Map<TaskStatus, Long> getCountsForAssignee(String assignedTo) {
+        return toMap(byAssignee.get(keyOf(assignedTo)));
+    }
+
+    /**
+     * Get the number of tasks in each status for one customer
+     *
+     * @param customerId The customer ID
+     * @return Status to count, all zero if the customer has no tasks
+     */
+    public Map<TaskStatus, Long> getCountsForCustomer(String customerId) {
+        return toMap(byCustomer.get(keyOf(customerId)));
+    }
+
+    /**
+     * Get the status counts of every assignee
+     *
+     * @return Assignee to status counts, sorted by assignee
+     */
+    public Map<String, Map<TaskStatus, Long>> getCountsByAssignee() {
+        Map<String, Map<TaskStatus, Long>> result = new TreeMap<>();
+        for (Map.Entry<String, long[]> entry : byAssignee.entrySet()) {
+            result.put(entry.getKey(), toMap(entry.getValue()));
+        }
+        return result;
+    }
+
+    private static Map<TaskStatus, Long> toMap(long[] counts) {
+        Map<TaskStatus, Long> result = new EnumMap<>(TaskStatus.class);
+        for (TaskStatus status : STATUSES) {
+            result.put(status, counts != null ? counts[status.ordinal()] : 0L);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,182 @@
+import crm.jmh.CRMHotPaths;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * CRMJmhTarget runs the CRM hot paths for the JMH benchmarks in crm.jmh, see CRMHotPaths
+ * It is in the default package with the CRM classes so it can call them directly
+ */
+public class CRMJmhTarget implements CRMHotPaths {
+    private static final String[] DATA_FILES = {"customers", "communications", "tasks"};
+
+    private CRMSystem crm;
+    private PrintStream out;
+    private List<Customer> customerRows;
+    private List<Communication> communicationRows;
+    private List<Task> taskRows;
+
+    @Override
+    public String[] generate(File dir, int customers, int communications, int tasks) throws IOException {
+        return new SyntheticDataGenerator(42).generate(dir, customers, communications, tasks);
+    }
+
+    @Override
+    public void open(File dir, String persistence, int partitions) throws IOException {
+        System.setProperty("crm.dataDir", dir.getPath());
+        System.setProperty("crm.persistence", persistence);
+        System.setProperty("crm.tasks.scheduler", "false");
+        System.setProperty("crm.reportLoadTimes", "false");
+        // notifications and reports print, which would be timed along with the work
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        crm = CRMSystem.getInstance();
+        if (partitions > 1) {
+            crm.repartition(partitions);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (crm != null) {
+            crm.shutdown();
+        }
+        if (out != null) {
+            System.setOut(out);
+        }
+    }
+
+    @Override
+    public Object getCustomerById(String customerId) {
+        return crm.getCustomerById(customerId);
+    }
+
+    @Override
+    public Object searchCustomers(String term) {
+        return crm.searchCustomers(term);
+    }
+
+    @Override
+    public Object searchCustomers(String term, int limit) {
+        return crm.searchCustomers(term, limit);
+    }
+
+    @Override
+    public Object getCommunicationsByCustomer(String customerId) {
+        return crm.getCommunicationsByCustomer(customerId);
+    }
+
+    @Override
+    public String[] getTaskIds(String customerId) {
+        return crm.getTasksByCustomer(customerId).stream().map(Task::getId).toArray(String[]::new);
+    }
+
+    @Override
+    public Object logCommunication(String customerId) {
+        return crm.logCommunication(customerId, CommunicationType.EMAIL, "bench", "", "bench");
+    }
+
+    @Override
+    public Object updateTaskStatus(String taskId, boolean completed) {
+        TaskStatus status = completed ? TaskStatus.COMPLETED : TaskStatus.PENDING;
+        crm.updateTaskStatus(taskId, status);
+        return status;
+    }
+
+    @Override
+    public Object loadData() {
+        crm.reloadData();
+        return crm.getLoadTimes();
+    }
+
+    @Override
+    public void generateCustomerActivityReport() {
+        crm.generateCustomerActivityReport();
+    }
+
+    @Override
+    public void generateTaskCompletionReport() {
+        crm.generateTaskCompletionReport();
+    }
+
+    @Override
+    public Object generateCommunicationFrequencyReport() {
+        return crm.generateCommunicationFrequencyReport();
+    }
+
+    @Override
+    public String[] parseCSVLine(String line) {
+        return CSVFormat.parseLine(line);
+    }
+
+    @Override
+    public String formatCSVLine(String[] fields) {
+        return CSVFormat.formatLine(fields);
+    }
+
+    @Override
+    public void readRows(File dir) throws IOException {
+        customerRows = CSVLoader.load(csv(dir, 0), Customer::fromCSVArray);
+        communicationRows = CSVLoader.load(csv(dir, 1), Communication::fromCSVArray);
+        taskRows = CSVLoader.load(csv(dir, 2), Task::fromCSVArray);
+    }
+
+    @Override
+    public int loadCsv(File dir) throws IOException {
+        return CSVLoader.load(csv(dir, 0), Customer::fromCSVArray).size()
+               + CSVLoader.load(csv(dir, 1), Communication::fromCSVArray).size()
+               + CSVLoader.load(csv(dir, 2), Task::fromCSVArray).size();
+    }
+
+    @Override
+    public int loadCsvVerified(File dir) throws IOException {
+        return CSVLoader.loadSnapshot(csv(dir, 0), Customer::fromCSVArray).size()
+               + CSVLoader.loadSnapshot(csv(dir, 1), Communication::fromCSVArray).size()
+               + CSVLoader.loadSnapshot(csv(dir, 2), Task::fromCSVArray).size();
+    }
+
+    @Override
+    public long verifyCsv(File dir) throws IOException {
+        return CSVLoader.verify(csv(dir, 0)) + CSVLoader.verify(csv(dir, 1)) + CSVLoader.verify(csv(dir, 2));
+    }
+
+    @Override
+    public long saveCsv(File dir, boolean atomic) throws IOException {
+        if (atomic) {
+            CSVFormat.writeSnapshot(csv(dir, 0), CSVFormat.CUSTOMERS_HEADER, customerRows,
+                                    Customer::toCSVArray, false);
+            CSVFormat.writeSnapshot(csv(dir, 1), CSVFormat.COMMUNICATIONS_HEADER, communicationRows,
+                                    Communication::toCSVArray, false);
+            CSVFormat.writeSnapshot(csv(dir, 2), CSVFormat.TASKS_HEADER, taskRows, Task::toCSVArray, false);
+        } else {
+            CSVFormat.writeFile(csv(dir, 0), CSVFormat.CUSTOMERS_HEADER, customerRows, Customer::toCSVArray);
+            CSVFormat.writeFile(csv(dir, 1), CSVFormat.COMMUNICATIONS_HEADER, communicationRows,
+                                Communication::toCSVArray);
+            CSVFormat.writeFile(csv(dir, 2), CSVFormat.TASKS_HEADER, taskRows, Task::toCSVArray);
+        }
+        return csv(dir, 0).length() + csv(dir, 1).length() + csv(dir, 2).length();
+    }
+
+    @Override
+    public long saveBinary(File dir) throws IOException {
+        BinarySnapshot.writeCustomers(bin(dir, 0), customerRows);
+        BinarySnapshot.writeCommunications(bin(dir, 1), communicationRows);
+        BinarySnapshot.writeTasks(bin(dir, 2), taskRows);
+        return bin(dir, 0).length() + bin(dir, 1).length() + bin(dir, 2).length();
+    }
+
+    @Override
+    public int loadBinary(File dir) throws IOException {
+        return BinarySnapshot.readCustomers(bin(dir, 0)).size()
+               + BinarySnapshot.readCommunications(bin(dir, 1)).size()
+               + BinarySnapshot.readTasks(bin(dir, 2)).size();
+    }
+
+    private static File csv(File dir, int entity) {
+        return new File(dir, DATA_FILES[entity] + ".csv");
+    }
+
+    private static File bin(File dir, int entity) {
+        return new File(dir, DATA_FILES[entity] + ".bin");
+    }
+}
@@ -0,0 +1,105 @@
+package crm.jmh;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * CRMHotPaths is what the JMH benchmarks call in the CRM
+ * JMH only runs benchmarks that are in a package, and a class in a package cannot name
+ * the CRM classes, which are all in the default package. So the benchmarks go through
+ * this interface, implemented with plain calls by CRMJmhTarget in the default package.
+ * It is the only implementation loaded, so the JIT inlines the calls like direct ones
+ * Results come back as Object for the Blackhole
+ */
+public interface CRMHotPaths {
+
+    // a new CRMJmhTarget
+    static CRMHotPaths create() {
+        try {
+            return (CRMHotPaths) Class.forName("CRMJmhTarget").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("CRMJmhTarget is missing from the benchmark jar", e);
+        }
+    }
+
+    /**
+     * Write a synthetic data set, see SyntheticDataGenerator
+     *
+     * @param dir An empty directory for the data files
+     * @param customers Customers to generate
+     * @param communications Communications to generate, spread over the customers
+     * @param tasks Tasks to generate
+     * @return The ids of the generated customers
+     */
+    String[] generate(File dir, int customers, int communications, int tasks) throws IOException;
+
+    /**
+     * Start CRMSystem on a data directory, with System.out silenced until close
+     * CRMSystem is a singleton, so this is called once per JVM, JMH forks give each trial its own
+     *
+     * @param dir The data directory
+     * @param persistence "snapshot" or "journal", see crm.persistence
+     * @param partitions Partition files per entity, 1 for the single files
+     */
+    void open(File dir, String persistence, int partitions) throws IOException;
+
+    // shut CRMSystem down, flushing pending writes
+    void close();
+
+    Object getCustomerById(String customerId);
+
+    Object searchCustomers(String term);
+
+    Object searchCustomers(String term, int limit);
+
+    Object getCommunicationsByCustomer(String customerId);
+
+    // the ids of a customer's tasks
+    String[] getTaskIds(String customerId);
+
+    // log an email to the customer, saved as crm.persistence says
+    Object logCommunication(String customerId);
+
+    // set a task to completed or pending, saved as crm.persistence says
+    Object updateTaskStatus(String taskId, boolean completed);
+
+    // reload every data file, returns the load time of each
+    Object loadData();
+
+    // the activity and task reports print their results, System.out is their sink
+    void generateCustomerActivityReport();
+
+    void generateTaskCompletionReport();
+
+    Object generateCommunicationFrequencyReport();
+
+    String[] parseCSVLine(String line);
+
+    String formatCSVLine(String[] fields);
+
+    /**
+     * Read the generated customers.csv, communications.csv and tasks.csv into memory
+     * for the snapshot benchmarks, which save these rows
+     *
+     * @param dir The data directory given to open
+     */
+    void readRows(File dir) throws IOException;
+
+    // load the three csv files, returns the number of rows
+    int loadCsv(File dir) throws IOException;
+
+    // load the three csv files checking their checksums, returns the number of rows
+    int loadCsvVerified(File dir) throws IOException;
+
+    // check the checksums of the three csv files without parsing them, returns the rows checked
+    long verifyCsv(File dir) throws IOException;
+
+    // save the rows read by readRows as plain csv files, or as checksummed snapshots replaced atomically
+    long saveCsv(File dir, boolean atomic) throws IOException;
+
+    // save the rows read by readRows as binary snapshots, returns the bytes written
+    long saveBinary(File dir) throws IOException;
+
+    // load the three binary snapshots, returns the number of rows
+    int loadBinary(File dir) throws IOException;
+}
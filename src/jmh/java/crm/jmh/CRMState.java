@@ -0,0 +1,72 @@
+package crm.jmh;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * CRMState is CRMSystem started on a generated data set in a temp directory, one per trial
+ * The default size is the 1M communication data set the suite is sized for, pass for example
+ * -p communications=100000 for a quicker run. Generating and loading the data is not timed
+ */
+@State(Scope.Benchmark)
+public class CRMState {
+    static final int SAMPLES = 4096;  // a power of two, benchmarks pick a sample with i & (SAMPLES - 1)
+
+    @Param("50000")
+    public int customers;
+
+    @Param("1000000")
+    public int communications;
+
+    @Param("100000")
+    public int tasks;
+
+    CRMHotPaths crm;
+    String[] customerIds;  // customers picked at random
+    String taskId;         // a task of the first picked customer that has one
+    private Path dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("crm-jmh");
+        crm = CRMHotPaths.create();
+        String[] generated = crm.generate(dir.toFile(), customers, communications, tasks);
+        Random random = new Random(7);
+        customerIds = new String[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            customerIds[i] = generated.length > 0 ? generated[random.nextInt(generated.length)] : "none";
+        }
+        crm.open(dir.toFile(), persistence(), partitions());
+        for (int i = 0; i < SAMPLES && taskId == null; i++) {
+            String[] ids = crm.getTaskIds(customerIds[i]);
+            taskId = ids.length > 0 ? ids[0] : null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        crm.close();
+        delete(dir);
+    }
+
+    // how writes are saved, see crm.persistence
+    String persistence() {
+        return "snapshot";
+    }
+
+    // partition files per entity, see crm.partitions
+    int partitions() {
+        return 1;
+    }
+
+    // remove a directory and everything in it
+    static void delete(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
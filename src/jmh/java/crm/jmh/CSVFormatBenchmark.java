@@ -0,0 +1,50 @@
+package crm.jmh;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CSVFormatBenchmark times parsing and formatting single CSV lines, the inner loop of every
+ * load and save. The lines are the rows of a generated communications.csv
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CSVFormatBenchmark {
+    private CRMHotPaths crm;
+    private String[] lines;
+    private String[][] rows;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path dir = Files.createTempDirectory("crm-jmh");
+        crm = CRMHotPaths.create();
+        crm.generate(dir.toFile(), 1000, CRMState.SAMPLES, 0);
+        List<String> file = Files.readAllLines(dir.resolve("communications.csv"), StandardCharsets.UTF_8);
+        lines = file.subList(1, file.size()).toArray(new String[0]);  // without the header
+        rows = new String[lines.length][];
+        for (int i = 0; i < lines.length; i++) {
+            rows[i] = crm.parseCSVLine(lines[i]);
+        }
+        CRMState.delete(dir);
+    }
+
+    @Benchmark
+    public String[] parseCSVLine() {
+        return crm.parseCSVLine(lines[next++ & (CRMState.SAMPLES - 1)]);
+    }
+
+    @Benchmark
+    public String formatCSVLine() {
+        return crm.formatCSVLine(rows[next++ & (CRMState.SAMPLES - 1)]);
+    }
+}
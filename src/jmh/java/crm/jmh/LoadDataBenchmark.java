@@ -0,0 +1,36 @@
+package crm.jmh;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LoadDataBenchmark times reloading every data file, by default the 1M communication data
+ * set, stored in single files and in 8 partitions that are loaded in parallel
+ * A load takes seconds, so each iteration is one load
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LoadDataBenchmark {
+
+    /**
+     * The data set of CRMState stored in partitions files per entity
+     */
+    public static class LoadState extends CRMState {
+        @Param({"1", "8"})
+        public int partitions;
+
+        @Override
+        int partitions() {
+            return partitions;
+        }
+    }
+
+    @Benchmark
+    public Object loadData(LoadState state) {
+        return state.crm.loadData();
+    }
+}
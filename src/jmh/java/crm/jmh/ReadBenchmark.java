@@ -0,0 +1,61 @@
+package crm.jmh;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ReadBenchmark times the CRMSystem lookups, searches and reports on a loaded data set
+ * Each call takes the next sampled customer or search term, so the lookups are not all
+ * served from the same cache lines
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class ReadBenchmark {
+    private static final String[] TERMS = {"smith", "acme", "alice.j", "wonka", "ol", "stark industries", "nobody-matches"};
+
+    private int next;
+
+    @Benchmark
+    public Object getCustomerById(CRMState state) {
+        return state.crm.getCustomerById(state.customerIds[next++ & (CRMState.SAMPLES - 1)]);
+    }
+
+    @Benchmark
+    public Object searchCustomers(CRMState state) {
+        return state.crm.searchCustomers(TERMS[next++ % TERMS.length]);
+    }
+
+    @Benchmark
+    public Object searchCustomersLimit10(CRMState state) {
+        return state.crm.searchCustomers(TERMS[next++ % TERMS.length], 10);
+    }
+
+    @Benchmark
+    public Object getCommunicationsByCustomer(CRMState state) {
+        return state.crm.getCommunicationsByCustomer(state.customerIds[next++ & (CRMState.SAMPLES - 1)]);
+    }
+
+    // prints a block per customer, System.out is the sink
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void generateCustomerActivityReport(CRMState state) {
+        state.crm.generateCustomerActivityReport();
+    }
+
+    // prints its totals, System.out is the sink
+    @Benchmark
+    public void generateTaskCompletionReport(CRMState state) {
+        state.crm.generateTaskCompletionReport();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object generateCommunicationFrequencyReport(CRMState state) {
+        return state.crm.generateCommunicationFrequencyReport();
+    }
+}
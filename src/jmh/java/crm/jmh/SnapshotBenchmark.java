@@ -0,0 +1,91 @@
+package crm.jmh;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SnapshotBenchmark times loading and saving the three data files as CSV, plain and as
+ * checksummed snapshots, and as binary snapshots, by default at the 1M communication size
+ * Each iteration is one load or save of all three files
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+    @Param("50000")
+    public int customers;
+
+    @Param("1000000")
+    public int communications;
+
+    @Param("100000")
+    public int tasks;
+
+    private CRMHotPaths crm;
+    private Path dir;
+    private File plain;     // files written by writeFile
+    private File verified;  // files written by writeSnapshot, with their trailer
+    private File binary;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("crm-jmh");
+        plain = dir.resolve("plain").toFile();
+        verified = dir.resolve("verified").toFile();
+        binary = dir.resolve("binary").toFile();
+        verified.mkdirs();
+        binary.mkdirs();
+        crm = CRMHotPaths.create();
+        crm.generate(plain, customers, communications, tasks);
+        crm.readRows(plain);
+        crm.saveCsv(verified, true);
+        crm.saveBinary(binary);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        CRMState.delete(dir);
+    }
+
+    @Benchmark
+    public int loadCsv() throws IOException {
+        return crm.loadCsv(plain);
+    }
+
+    @Benchmark
+    public int loadCsvVerified() throws IOException {
+        return crm.loadCsvVerified(verified);
+    }
+
+    @Benchmark
+    public long verifyCsv() throws IOException {
+        return crm.verifyCsv(verified);
+    }
+
+    @Benchmark
+    public long saveCsv() throws IOException {
+        return crm.saveCsv(plain, false);
+    }
+
+    @Benchmark
+    public long saveCsvAtomic() throws IOException {
+        return crm.saveCsv(verified, true);
+    }
+
+    @Benchmark
+    public long saveBinary() throws IOException {
+        return crm.saveBinary(binary);
+    }
+
+    @Benchmark
+    public int loadBinary() throws IOException {
+        return crm.loadBinary(binary);
+    }
+}
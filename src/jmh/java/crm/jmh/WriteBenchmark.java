@@ -0,0 +1,53 @@
+package crm.jmh;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WriteBenchmark times changes including their persistence, in journal mode an appended
+ * journal record, in snapshot mode a rewrite of the whole data file or its partition
+ * Use -p partitions=8 to time the partitioned layout
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class WriteBenchmark {
+
+    /**
+     * The data set of CRMState saved as persistence and partitions say
+     */
+    public static class WriteState extends CRMState {
+        @Param({"journal", "snapshot"})
+        public String persistence;
+
+        @Param("1")
+        public int partitions;
+
+        @Override
+        String persistence() {
+            return persistence;
+        }
+
+        @Override
+        int partitions() {
+            return partitions;
+        }
+    }
+
+    private int next;
+
+    @Benchmark
+    public Object logCommunication(WriteState state) {
+        return state.crm.logCommunication(state.customerIds[next++ & (CRMState.SAMPLES - 1)]);
+    }
+
+    // flips one task between completed and pending, so every call is a real change
+    @Benchmark
+    public Object updateTaskStatus(WriteState state) {
+        return state.crm.updateTaskStatus(state.taskId, (next++ & 1) == 0);
+    }
+}